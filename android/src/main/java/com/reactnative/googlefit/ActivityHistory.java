@@ -16,7 +16,6 @@ import android.Manifest;
 import android.content.pm.PackageManager;
 import android.os.Build;
 
-import android.util.Log;
 
 import com.facebook.react.bridge.Arguments;
 import com.facebook.react.bridge.Promise;
@@ -25,11 +24,9 @@ import com.facebook.react.bridge.ReadableArray;
 import com.facebook.react.bridge.ReadableMap;
 import com.facebook.react.bridge.WritableArray;
 import com.facebook.react.bridge.WritableMap;
-import com.google.android.gms.auth.api.signin.GoogleSignIn;
-import com.google.android.gms.auth.api.signin.GoogleSignInAccount;
-import com.google.android.gms.auth.api.signin.GoogleSignInOptionsExtension;
-import com.google.android.gms.fitness.Fitness;
 import com.google.android.gms.fitness.FitnessOptions;
+import com.google.android.gms.fitness.HistoryClient;
+import com.google.android.gms.fitness.SessionsClient;
 import com.google.android.gms.fitness.data.Bucket;
 import com.google.android.gms.fitness.data.DataPoint;
 import com.google.android.gms.fitness.data.DataSet;
@@ -45,31 +42,24 @@ import com.google.android.gms.fitness.request.SessionReadRequest;
 /* TODO: Stayfitt code */
 import com.google.android.gms.fitness.FitnessActivities;
 import com.google.android.gms.fitness.result.DataReadResult;
-import com.google.android.gms.fitness.result.SessionReadResponse;
-import com.google.android.gms.tasks.OnFailureListener;
-import com.google.android.gms.tasks.OnSuccessListener;
 import com.google.android.gms.fitness.result.DataReadResult;
 
 import com.google.android.gms.fitness.result.DataReadResponse;
 import com.google.android.gms.tasks.Task;
-import com.google.android.gms.tasks.Tasks;
 
 /* TODO: Stayfitt code */
 import org.json.JSONStringer;
 import java.text.DateFormat;
-import java.text.SimpleDateFormat;
 
 import java.util.Date;
 import java.util.List;
 
 /* TODO: Stayfitt code */
-import java.util.TimeZone;
 
 import java.util.concurrent.TimeUnit;
 
 /* TODO: Stayfitt code */
-import java.util.stream.Collectors;
-import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
 import androidx.annotation.RequiresApi;
 import androidx.core.app.ActivityCompat;
 import androidx.core.content.ContextCompat;
@@ -104,12 +94,26 @@ public class ActivityHistory {
             DataType.TYPE_CALORIES_EXPENDED
     };
 
+    private static final FitnessOptions ACTIVITY_SESSION_READ_OPTIONS = FitnessOptions.builder()
+            .accessActivitySessions(FitnessOptions.ACCESS_READ)
+            .addDataType(DataType.AGGREGATE_DISTANCE_DELTA, FitnessOptions.ACCESS_READ)
+            .addDataType(DataType.AGGREGATE_CALORIES_EXPENDED, FitnessOptions.ACCESS_READ)
+            .build();
+
     public ActivityHistory(ReactContext reactContext, GoogleFitManager googleFitManager){
         this.mReactContext = reactContext;
         this.googleFitManager = googleFitManager;
     }
 
-    public ReadableArray getActivitySamples(long startTime, long endTime, int bucketInterval, String bucketUnit) {
+    /**
+     * The deprecated duplicates, start, end, quantity and sourceName, and the data source lookups
+     * behind device and sourceId, are skipped when the projection does not ask for them.
+     */
+    public ReadableArray getActivitySamples(long startTime, long endTime, int bucketInterval, String bucketUnit,
+                                            FieldProjection fields, FetchRequest request) throws Exception {
+        boolean withDeprecated = fields.wantsAny("start", "end", "quantity", "sourceName");
+        boolean withDevice = fields.wantsAny("device", "sourceName");
+        boolean withSourceId = fields.wants("sourceId");
         WritableArray results = Arguments.createArray();
         DataReadRequest.Builder readRequestBuilder = new DataReadRequest.Builder();
 
@@ -125,84 +129,89 @@ public class ActivityHistory {
                 .build();
 
         FitnessOptions fitnessOptions = createWorkoutFitnessOptions(FitnessOptions.ACCESS_READ);
-        GoogleSignInAccount googleSignInAccount =
-                GoogleSignIn.getAccountForExtension(this.mReactContext, fitnessOptions);
-
-        try {
-            Task<DataReadResponse> task = Fitness.getHistoryClient(this.mReactContext, googleSignInAccount)
-                    .readData(readRequest);
-
-            DataReadResponse response = Tasks.await(task, 30, TimeUnit.SECONDS);
-
-            if (response.getStatus().isSuccess()) {
-                for (Bucket bucket : response.getBuckets()) {
-                    String activityName = bucket.getActivity();
-                    int activityType = bucket.getBucketType();
-                    if (!bucket.getDataSets().isEmpty()) {
-                        long start = bucket.getStartTime(TimeUnit.MILLISECONDS);
-                        long end = bucket.getEndTime(TimeUnit.MILLISECONDS);
-                        Date startDate = new Date(start);
-                        Date endDate = new Date(end);
-                        WritableMap map = Arguments.createMap();
-                        map.putDouble("start", start); // deprecated
-                        map.putDouble("startDate", start);
-                        map.putDouble("end", end); // deprecated
-                        map.putDouble("endDate", end);
-                        map.putString("activityName", activityName);
-                        String deviceName = "";
-                        String sourceId = "";
-                        boolean isTracked = true;
-                        for (DataSet dataSet : bucket.getDataSets()) {
-                            for (DataPoint dataPoint : dataSet.getDataPoints()) {
-                                try {
-                                    int deviceType = dataPoint.getOriginalDataSource().getDevice().getType();
-                                    if (deviceType == TYPE_WATCH) {
-                                        deviceName = "Android Wear";
-                                    } else {
-                                        deviceName = "Android";
-                                    }
-                                } catch (Exception e) {
-                                }
-                                sourceId = dataPoint.getOriginalDataSource().getAppPackageName();
-                                if (startDate.getTime() % 1000 == 0 && endDate.getTime() % 1000 == 0) {
-                                    isTracked = false;
+
+        Task<DataReadResponse> task = googleFitManager.getFitClients().historyClient(fitnessOptions)
+                .readData(readRequest);
+
+        DataReadResponse response = request.await(task, 30, TimeUnit.SECONDS);
+
+        FetchRequest.throwIfFailed(response.getStatus());
+        for (Bucket bucket : response.getBuckets()) {
+            request.throwIfCancelled();
+            String activityName = bucket.getActivity();
+            int activityType = bucket.getBucketType();
+            if (!bucket.getDataSets().isEmpty()) {
+                long start = bucket.getStartTime(TimeUnit.MILLISECONDS);
+                long end = bucket.getEndTime(TimeUnit.MILLISECONDS);
+                Date startDate = new Date(start);
+                Date endDate = new Date(end);
+                WritableMap map = Arguments.createMap();
+                if (withDeprecated) {
+                    map.putDouble("start", start); // deprecated
+                    map.putDouble("end", end); // deprecated
+                }
+                map.putDouble("startDate", start);
+                map.putDouble("endDate", end);
+                map.putString("activityName", activityName);
+                String deviceName = "";
+                String sourceId = "";
+                boolean isTracked = true;
+                for (DataSet dataSet : bucket.getDataSets()) {
+                    for (DataPoint dataPoint : dataSet.getDataPoints()) {
+                        if (withDevice) {
+                            try {
+                                int deviceType = dataPoint.getOriginalDataSource().getDevice().getType();
+                                if (deviceType == TYPE_WATCH) {
+                                    deviceName = "Android Wear";
+                                } else {
+                                    deviceName = "Android";
                                 }
-                                for (Field field : dataPoint.getDataType().getFields()) {
-                                    String fieldName = field.getName();
-                                    switch (fieldName) {
-                                        case STEPS_FIELD_NAME:
-                                            map.putInt(fieldName, dataPoint.getValue(field).asInt());
-                                            // deprecated
-                                            map.putInt("quantity", dataPoint.getValue(field).asInt());
-                                            break;
-                                        case DURATION_FIELD_NAME:
-                                            map.putInt(fieldName, dataPoint.getValue(field).asInt());
-                                            break;
-                                        case DISTANCE_FIELD_NAME:
-                                        case CALORIES_FIELD_NAME:
-                                        case INTENSITY_FIELD_NAME:
-                                            map.putDouble(fieldName, dataPoint.getValue(field).asFloat());
-                                            break;
-                                        default:
-                                            map.putString(fieldName, dataPoint.getValue(field).toString());
-                                            break;
+                            } catch (Exception e) {
+                            }
+                        }
+                        if (withSourceId) {
+                            sourceId = dataPoint.getOriginalDataSource().getAppPackageName();
+                        }
+                        if (startDate.getTime() % 1000 == 0 && endDate.getTime() % 1000 == 0) {
+                            isTracked = false;
+                        }
+                        for (Field field : dataPoint.getDataType().getFields()) {
+                            String fieldName = field.getName();
+                            switch (fieldName) {
+                                case STEPS_FIELD_NAME:
+                                    map.putInt(fieldName, dataPoint.getValue(field).asInt());
+                                    if (withDeprecated) {
+                                        // deprecated
+                                        map.putInt("quantity", dataPoint.getValue(field).asInt());
                                     }
-                                }
+                                    break;
+                                case DURATION_FIELD_NAME:
+                                    map.putInt(fieldName, dataPoint.getValue(field).asInt());
+                                    break;
+                                case DISTANCE_FIELD_NAME:
+                                case CALORIES_FIELD_NAME:
+                                case INTENSITY_FIELD_NAME:
+                                    map.putDouble(fieldName, dataPoint.getValue(field).asFloat());
+                                    break;
+                                default:
+                                    map.putString(fieldName, dataPoint.getValue(field).toString());
+                                    break;
                             }
                         }
-                        map.putString("device", deviceName);
-                        map.putString("sourceName", deviceName);
-                        map.putString("sourceId", sourceId);
-                        map.putBoolean("tracked", isTracked);
-                        results.pushMap(map);
                     }
                 }
-            } else {
-                Log.w(TAG, "There was an error reading data from Google Fit" + response.getStatus().toString());
+                if (withDevice) {
+                    map.putString("device", deviceName);
+                }
+                if (withDeprecated) {
+                    map.putString("sourceName", deviceName);
+                }
+                if (withSourceId) {
+                    map.putString("sourceId", sourceId);
+                }
+                map.putBoolean("tracked", isTracked);
+                results.pushMap(map);
             }
-
-        } catch (Exception e) {
-            Log.w(TAG, "Exception: " + e);
         }
 
         return results;
@@ -212,235 +221,216 @@ public class ActivityHistory {
 
     /* TODO: Stayfitt code */
     @RequiresApi(api = Build.VERSION_CODES.N)
-    public void getActivitySessions(double startDate, double endDate, final Promise promise) {
-        DateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSSZ");
-        dateFormat.setTimeZone(TimeZone.getDefault());
+    public ReadableArray getActivitySessions(double startDate, double endDate, boolean epochTimestamps, FetchRequest request) throws Exception {
+        DateFormat dateFormat = HelperUtil.createDateFormat(epochTimestamps);
+
+        SessionsClient sessionsClient = googleFitManager.getFitClients().sessionsClient(ACTIVITY_SESSION_READ_OPTIONS);
+
+        // unchanged sessions come from the session cache, only new or changed ones are read with their data sets
+        return googleFitManager.getSessionCache().read(epochTimestamps ? "activitySessions|epoch" : "activitySessions", (long) startDate, (long) endDate, request,
+                (start, end, withData) -> request.await(sessionsClient.readSession(createActivitySessionsRequest(start, end, withData))),
+                (session, dataSets) -> toActivitySession(session, dataSets, dateFormat));
+    }
 
-        SessionReadRequest request = new SessionReadRequest.Builder()
+    private SessionReadRequest createActivitySessionsRequest(long startTime, long endTime, boolean withData) {
+        SessionReadRequest.Builder readRequestBuilder = new SessionReadRequest.Builder()
                 .enableServerQueries()
                 .readSessionsFromAllApps()
                 .includeActivitySessions()
-                .read(DataType.AGGREGATE_DISTANCE_DELTA)
-                .read(DataType.AGGREGATE_CALORIES_EXPENDED)
-                .setTimeInterval((long) startDate, (long) endDate, TimeUnit.MILLISECONDS)
-                .build();
-
-        GoogleSignInOptionsExtension fitnessOptions =
-                FitnessOptions.builder()
-                        .accessActivitySessions(FitnessOptions.ACCESS_READ)
-                        .addDataType(DataType.AGGREGATE_DISTANCE_DELTA, FitnessOptions.ACCESS_READ)
-                        .addDataType(DataType.AGGREGATE_CALORIES_EXPENDED, FitnessOptions.ACCESS_READ)
-                        .build();
-        final GoogleSignInAccount gsa = GoogleSignIn.getAccountForExtension(this.mReactContext, fitnessOptions);
-
-
-        Fitness.getSessionsClient(this.mReactContext, gsa)
-                .readSession(request)
-                .addOnSuccessListener(new OnSuccessListener<SessionReadResponse>() {
-                    @Override
-                    public void onSuccess(SessionReadResponse response) {
-
-                        // Get sessions
-                        List<Session> activitySessions = response.getSessions()
-                                .stream()
-                                .collect(Collectors.toList());
-
-                        // Sessions result array
-                        WritableArray sessions = Arguments.createArray();
-                        for (Session session : activitySessions) {
-                            WritableMap sessionItem = Arguments.createMap();
-
-                            // Main session info
-                            sessionItem.putString("identifier", session.getIdentifier());
-                            sessionItem.putString("appPackageName", session.getAppPackageName());
-                            sessionItem.putString("name", session.getName());
-                            sessionItem.putString("description", session.getDescription());
-                            sessionItem.putString("activity", session.getActivity());
-                            sessionItem.putString("startDate", dateFormat.format(session.getStartTime(TimeUnit.MILLISECONDS)));
-                            sessionItem.putString("endDate", dateFormat.format(session.getEndTime(TimeUnit.MILLISECONDS)));
-
-                            // DataSets array
-                            WritableArray dataSets = Arguments.createArray();
-                            for (DataSet dataSet : response.getDataSet(session)) {
-                                WritableMap dataSetItem = Arguments.createMap();
-
-                                // Main dataSet info
-                                dataSetItem.putString("dataTypeName", dataSet.getDataType().getName());
-                                dataSetItem.putString("dataSourceAppPackageName", dataSet.getDataSource().getAppPackageName());
-                                dataSetItem.putString("dataSourceStreamId", dataSet.getDataSource().getStreamIdentifier());
-                                dataSetItem.putString("dataSourceStreamName", dataSet.getDataSource().getStreamName());
-                                try {
-                                    dataSetItem.putString("dataSourceDeviceManufacturer", dataSet.getDataSource().getDevice().getManufacturer());
-                                    dataSetItem.putString("dataSourceDeviceModel", dataSet.getDataSource().getDevice().getModel());
-                                } catch (NullPointerException e) {
-                                    //
-                                }
-                                dataSetItem.putInt("dataSourceType", dataSet.getDataSource().getType());
-
-                                // DataSet DataType Fields array
-                                WritableArray fields = Arguments.createArray();
-                                for (Field field : dataSet.getDataType().getFields()) {
-                                    WritableMap fieldItem = Arguments.createMap();
-
-                                    // Main field info
-                                    fieldItem.putString("name", field.getName());
-                                    fieldItem.putInt("format", field.getFormat());
-//                                    fieldItem.putBoolean("isOptional", field.isOptional());
-
-                                    // DataSet Points array
-                                    WritableArray points = Arguments.createArray();
-                                    for (DataPoint point : dataSet.getDataPoints()) {
-                                        WritableMap pointItem = Arguments.createMap();
-
-                                        // Main point info
-                                        pointItem.putString("startDate", dateFormat.format(point.getStartTime(TimeUnit.MILLISECONDS)));
-                                        pointItem.putString("endDate", dateFormat.format(point.getEndTime(TimeUnit.MILLISECONDS)));
-
-                                        try {
-                                            pointItem.putDouble("value", point.getValue(Field.FIELD_DISTANCE).asFloat());
-                                            pointItem.putInt("format", point.getValue(Field.FIELD_DISTANCE).getFormat());
-                                        } catch (IllegalStateException | IllegalArgumentException e){
-                                            //
-                                        }
-                                        try {
-                                            pointItem.putDouble("value", point.getValue(Field.FIELD_CALORIES).asFloat());
-                                            pointItem.putInt("format", point.getValue(Field.FIELD_CALORIES).getFormat());
-                                        } catch (IllegalStateException | IllegalArgumentException e){
-                                            //
-                                        }
-
-                                        points.pushMap(pointItem);
-                                    }
-                                    fieldItem.putArray("points", points);
-
-                                    fields.pushMap(fieldItem);
-                                }
-                                dataSetItem.putArray("fields", fields);
-
-                                dataSets.pushMap(dataSetItem);
-
-                            }
-                            sessionItem.putArray("datasets", dataSets);
+                .setTimeInterval(startTime, endTime, TimeUnit.MILLISECONDS);
+        if (withData) {
+            readRequestBuilder
+                    .read(DataType.AGGREGATE_DISTANCE_DELTA)
+                    .read(DataType.AGGREGATE_CALORIES_EXPENDED);
+        }
+        return readRequestBuilder.build();
+    }
 
-                            // Add session item in res array
-                            sessions.pushMap(sessionItem);
+    private WritableMap toActivitySession(Session session, List<DataSet> sessionDataSets, @Nullable DateFormat dateFormat) {
+        WritableMap sessionItem = Arguments.createMap();
+
+        // Main session info
+        sessionItem.putString("identifier", session.getIdentifier());
+        sessionItem.putString("appPackageName", session.getAppPackageName());
+        sessionItem.putString("name", session.getName());
+        sessionItem.putString("description", session.getDescription());
+        sessionItem.putString("activity", session.getActivity());
+        HelperUtil.putDate(sessionItem, "startDate", session.getStartTime(TimeUnit.MILLISECONDS), dateFormat);
+        HelperUtil.putDate(sessionItem, "endDate", session.getEndTime(TimeUnit.MILLISECONDS), dateFormat);
+
+        // DataSets array
+        WritableArray dataSets = Arguments.createArray();
+        for (DataSet dataSet : sessionDataSets) {
+            WritableMap dataSetItem = Arguments.createMap();
+
+            // Main dataSet info
+            dataSetItem.putString("dataTypeName", dataSet.getDataType().getName());
+            dataSetItem.putString("dataSourceAppPackageName", dataSet.getDataSource().getAppPackageName());
+            dataSetItem.putString("dataSourceStreamId", dataSet.getDataSource().getStreamIdentifier());
+            dataSetItem.putString("dataSourceStreamName", dataSet.getDataSource().getStreamName());
+            try {
+                dataSetItem.putString("dataSourceDeviceManufacturer", dataSet.getDataSource().getDevice().getManufacturer());
+                dataSetItem.putString("dataSourceDeviceModel", dataSet.getDataSource().getDevice().getModel());
+            } catch (NullPointerException e) {
+                //
+            }
+            dataSetItem.putInt("dataSourceType", dataSet.getDataSource().getType());
+
+            // DataSet DataType Fields array
+            WritableArray fields = Arguments.createArray();
+            for (Field field : dataSet.getDataType().getFields()) {
+                WritableMap fieldItem = Arguments.createMap();
+
+                // Main field info
+                fieldItem.putString("name", field.getName());
+                fieldItem.putInt("format", field.getFormat());
+//                    fieldItem.putBoolean("isOptional", field.isOptional());
+
+                // DataSet Points array
+                WritableArray points = Arguments.createArray();
+                for (DataPoint point : dataSet.getDataPoints()) {
+                    WritableMap pointItem = Arguments.createMap();
+
+                    // Main point info
+                    HelperUtil.putDate(pointItem, "startDate", point.getStartTime(TimeUnit.MILLISECONDS), dateFormat);
+                    HelperUtil.putDate(pointItem, "endDate", point.getEndTime(TimeUnit.MILLISECONDS), dateFormat);
+
+                    try {
+                        pointItem.putDouble("value", point.getValue(Field.FIELD_DISTANCE).asFloat());
+                        pointItem.putInt("format", point.getValue(Field.FIELD_DISTANCE).getFormat());
+                    } catch (IllegalStateException | IllegalArgumentException e){
+                        //
+                    }
+                    try {
+                        pointItem.putDouble("value", point.getValue(Field.FIELD_CALORIES).asFloat());
+                        pointItem.putInt("format", point.getValue(Field.FIELD_CALORIES).getFormat());
+                    } catch (IllegalStateException | IllegalArgumentException e){
+                        //
+                    }
 
-                        }
+                    points.pushMap(pointItem);
+                }
+                fieldItem.putArray("points", points);
 
-                        promise.resolve(sessions);
+                fields.pushMap(fieldItem);
+            }
+            dataSetItem.putArray("fields", fields);
 
-                    }
+            dataSets.pushMap(dataSetItem);
 
-                })
-                .addOnFailureListener(new OnFailureListener() {
-                    @Override
-                    public void onFailure(@NonNull Exception e) {
-                        promise.reject(e);
-                    }
-                });
+        }
+        sessionItem.putArray("datasets", dataSets);
+        return sessionItem;
     }
 
 
-    public ReadableArray getMoveMinutes(long startTime, long endTime, int bucketInterval, String bucketUnit) {
+    public ReadableArray getMoveMinutes(long startTime, long endTime, int bucketInterval, String bucketUnit,
+                                        FieldProjection fields, FetchRequest request) throws Exception {
         DataType[] fitnessDataTypes = {DataType.TYPE_MOVE_MINUTES, DataType.AGGREGATE_MOVE_MINUTES};
-        DataReadRequest readReq = HelperUtil.createDataReadRequest(
-                startTime,
-                endTime,
-                bucketInterval,
-                bucketUnit,
-                fitnessDataTypes);
-        Integer[] accessOpts = {FitnessOptions.ACCESS_READ};
-        GoogleSignInOptionsExtension fitnessOptions = HelperUtil.createSignInFitnessOptions(DataType.TYPE_MOVE_MINUTES, accessOpts);
-
-        GoogleSignInAccount googleSignInAccount =
-                GoogleSignIn.getAccountForExtension(this.mReactContext, fitnessOptions);
+        List<long[]> ranges = RangeQuery.split(startTime, endTime, bucketInterval, bucketUnit);
+        HistoryClient historyClient = googleFitManager.getFitClients().historyClient(
+                googleFitManager.getFitClients().options(FitnessOptions.ACCESS_READ, DataType.TYPE_MOVE_MINUTES));
 
         WritableArray moveMinutes = Arguments.createArray();
 
-        try {
-            Task<DataReadResponse> task = Fitness.getHistoryClient(this.mReactContext, googleSignInAccount)
-                    .readData(readReq);
-            DataReadResponse response = Tasks.await(task, 30, TimeUnit.SECONDS);
-            if (response.getStatus().isSuccess()) {
-                for (Bucket bucket : response.getBuckets()) {
-                    for (DataSet dataSet : bucket.getDataSets()) {
-                        HelperUtil.processDataSet(TAG, dataSet, moveMinutes);
-                    }
+        // long ranges are read in parts, the results come back in range order
+        List<Task<DataReadResponse>> tasks = RangeQuery.await(request, ranges.size(), index ->
+                historyClient
+                        .readData(HelperUtil.createDataReadRequest(
+                                ranges.get(index)[0],
+                                ranges.get(index)[1],
+                                bucketInterval,
+                                bucketUnit,
+                                fitnessDataTypes)), 30, TimeUnit.SECONDS);
+        for (Task<DataReadResponse> task : tasks) {
+            if (task == null || !task.isComplete()) {
+                // partial read past its deadline, keep the leading parts that answered
+                break;
+            }
+            if (!task.isSuccessful()) {
+                throw task.getException();
+            }
+            DataReadResponse response = task.getResult();
+            FetchRequest.throwIfFailed(response.getStatus());
+            for (Bucket bucket : response.getBuckets()) {
+                request.throwIfCancelled();
+                for (DataSet dataSet : bucket.getDataSets()) {
+                    HelperUtil.processDataSet(TAG, dataSet, moveMinutes, fields);
                 }
-                return moveMinutes;
-            } else {
-                Log.w(TAG, "There was an error reading data from Google Fit" + response.getStatus().toString());
             }
-        } catch (Exception e) {
-            Log.w(TAG, "Exception: " + e);
         }
         return moveMinutes;
     }
 
-    public void getWorkoutSession(long startTime, long endTime, ReadableMap options, final Promise promise) {
-        WritableArray results = Arguments.createArray();
+    public ReadableArray getWorkoutSession(long startTime, long endTime, ReadableMap options, FetchRequest request) throws Exception {
         String readSessionFromAllAppsKey = "readSessionFromAllApps";
         boolean readSessionFromAllApps = options.hasKey(readSessionFromAllAppsKey)
                 ? options.getBoolean(readSessionFromAllAppsKey)
                 : false;
 
+        FitnessOptions fitnessOptions = createWorkoutFitnessOptions(FitnessOptions.ACCESS_READ);
+        SessionsClient sessionsClient = googleFitManager.getFitClients().sessionsClient(fitnessOptions);
+
+        // unchanged sessions come from the session cache, only new or changed ones are read with their data sets
+        return googleFitManager.getSessionCache().read("workoutSessions|" + readSessionFromAllApps, startTime, endTime, request,
+                (start, end, withData) -> request.await(sessionsClient.readSession(
+                        createWorkoutSessionRequest(start, end, readSessionFromAllApps, withData))),
+                this::toWorkoutSession);
+    }
+
+    private SessionReadRequest createWorkoutSessionRequest(long startTime, long endTime, boolean readSessionFromAllApps, boolean withData) {
         SessionReadRequest.Builder readRequestBuilder = new SessionReadRequest.Builder()
                 .setTimeInterval(startTime, endTime, TimeUnit.MILLISECONDS)
                 .includeActivitySessions();
 
         if(readSessionFromAllApps) readRequestBuilder.readSessionsFromAllApps();
 
-        for (DataType dataType : WORKOUT_FIELD_DATATYPE) {
-            readRequestBuilder.read(dataType);
+        if (withData) {
+            for (DataType dataType : WORKOUT_FIELD_DATATYPE) {
+                readRequestBuilder.read(dataType);
+            }
+            readRequestBuilder.read(DataType.TYPE_DISTANCE_DELTA);
         }
-        readRequestBuilder.read(DataType.TYPE_DISTANCE_DELTA);
-
-        SessionReadRequest readRequest = readRequestBuilder.build();
-        FitnessOptions fitnessOptions = createWorkoutFitnessOptions(FitnessOptions.ACCESS_READ);
+        return readRequestBuilder.build();
+    }
 
-        Fitness.getSessionsClient(this.mReactContext, GoogleSignIn.getAccountForExtension(this.mReactContext, fitnessOptions))
-                .readSession(readRequest)
-                .addOnSuccessListener(response -> {
-                    List<Session> sessions = response.getSessions();
-                    for (Session session : sessions) {
-                        WritableMap map = Arguments.createMap();
-                        List<DataSet> dataSets = response.getDataSet(session);
-                        for (DataSet dataSet : dataSets) {
-                            for (DataPoint dataPoint : dataSet.getDataPoints()) {
-                                for (Field field : dataPoint.getDataType().getFields()) {
-                                    String fieldName = field.getName();
-                                    switch (fieldName) {
-                                        case STEPS_FIELD_NAME:
-                                        case DURATION_FIELD_NAME:
-                                            map.putInt(fieldName, dataPoint.getValue(field).asInt());
-                                            break;
-                                        case DISTANCE_FIELD_NAME:
-                                        case CALORIES_FIELD_NAME:
-                                        case INTENSITY_FIELD_NAME:
-                                            map.putDouble(fieldName, dataPoint.getValue(field).asFloat());
-                                            break;
-                                        default:
-                                            map.putString(fieldName, dataPoint.getValue(field).toString());
-                                            break;
-                                    }
-                                }
-                            }
-                        }
-                        map.putString("appPackageName", session.getAppPackageName());
-                        map.putString("activity", session.getActivity());
-                        map.putDouble("startDate", session.getStartTime(TimeUnit.MILLISECONDS));
-                        map.putDouble("endDate", session.getEndTime(TimeUnit.MILLISECONDS));
-                        map.putString("sessionName", session.getName());
-                        map.putString("description", session.getDescription());
-                        map.putString("identifier", session.getIdentifier());
-                        results.pushMap(map);
+    private WritableMap toWorkoutSession(Session session, List<DataSet> dataSets) {
+        WritableMap map = Arguments.createMap();
+        for (DataSet dataSet : dataSets) {
+            for (DataPoint dataPoint : dataSet.getDataPoints()) {
+                for (Field field : dataPoint.getDataType().getFields()) {
+                    String fieldName = field.getName();
+                    switch (fieldName) {
+                        case STEPS_FIELD_NAME:
+                        case DURATION_FIELD_NAME:
+                            map.putInt(fieldName, dataPoint.getValue(field).asInt());
+                            break;
+                        case DISTANCE_FIELD_NAME:
+                        case CALORIES_FIELD_NAME:
+                        case INTENSITY_FIELD_NAME:
+                            map.putDouble(fieldName, dataPoint.getValue(field).asFloat());
+                            break;
+                        default:
+                            map.putString(fieldName, dataPoint.getValue(field).toString());
+                            break;
                     }
-                    promise.resolve(results);
-                })
-                .addOnFailureListener(promise::reject);
+                }
+            }
+        }
+        map.putString("appPackageName", session.getAppPackageName());
+        map.putString("activity", session.getActivity());
+        map.putDouble("startDate", session.getStartTime(TimeUnit.MILLISECONDS));
+        map.putDouble("endDate", session.getEndTime(TimeUnit.MILLISECONDS));
+        map.putString("sessionName", session.getName());
+        map.putString("description", session.getDescription());
+        map.putString("identifier", session.getIdentifier());
+        return map;
     }
 
-    public void saveWorkout(long startTime, long endTime, ReadableMap options, final Promise promise) {
+    /**
+     * @param onSaved run once the session was inserted, before the promise resolves
+     */
+    public void saveWorkout(long startTime, long endTime, ReadableMap options, Runnable onSaved, final Promise promise) {
         String sessionName = options.getString("sessionName");
         String identifier = options.getString("identifier");
         String description = options.hasKey("description") ? options.getString("description") : "";
@@ -537,15 +527,20 @@ public class ActivityHistory {
 
         // session Client
         FitnessOptions fitnessOptions = fitnessOptionsBuilder.build();
-        GoogleSignInAccount account = GoogleSignIn.getAccountForExtension(this.mReactContext, fitnessOptions);
 
-        Fitness.getSessionsClient(this.mReactContext, account)
+        googleFitManager.getFitClients().sessionsClient(fitnessOptions)
                 .insertSession(insertRequest)
-                .addOnSuccessListener(unused -> promise.resolve(true))
+                .addOnSuccessListener(unused -> {
+                    onSaved.run();
+                    promise.resolve(true);
+                })
                 .addOnFailureListener(e -> promise.reject(e));
     }
 
-    public void deleteAllWorkout(long startTime, long endTime, ReadableMap options,  final Promise promise) {
+    /**
+     * @param onDeleted run once the data was deleted, before the promise resolves
+     */
+    public void deleteAllWorkout(long startTime, long endTime, ReadableMap options, Runnable onDeleted, final Promise promise) {
         DataDeleteRequest.Builder requestBuilder = new DataDeleteRequest.Builder()
                 .setTimeInterval(startTime, endTime, TimeUnit.MILLISECONDS);
 
@@ -563,19 +558,18 @@ public class ActivityHistory {
 
         FitnessOptions fitnessOptions = createWorkoutFitnessOptions(FitnessOptions.ACCESS_WRITE);
 
-        Fitness.getHistoryClient(this.mReactContext, GoogleSignIn.getAccountForExtension(this.mReactContext, fitnessOptions))
+        googleFitManager.getFitClients().historyClient(fitnessOptions)
                 .deleteData(request)
-                .addOnSuccessListener(unused -> promise.resolve(true))
+                .addOnSuccessListener(unused -> {
+                    onDeleted.run();
+                    promise.resolve(true);
+                })
                 .addOnFailureListener(e -> promise.reject(e));
     }
 
     //private helper functions
     private FitnessOptions createWorkoutFitnessOptions(int fitnessOptionsAccess) {
-        FitnessOptions.Builder fitnessOptionsBuilder = FitnessOptions.builder();
-        for (DataType dataType : WORKOUT_FIELD_DATATYPE) {
-            fitnessOptionsBuilder.addDataType(dataType, fitnessOptionsAccess);
-        }
-        return fitnessOptionsBuilder.build();
+        return googleFitManager.getFitClients().options(fitnessOptionsAccess, WORKOUT_FIELD_DATATYPE);
     }
 
     private DataSource createWorkoutDataSource(DataType dataType) {
@@ -9,7 +9,6 @@
 
 package com.reactnative.googlefit;
 
-import android.os.AsyncTask;
 import android.util.Log;
 
 import com.facebook.react.bridge.Arguments;
@@ -31,6 +30,7 @@ import com.google.android.gms.fitness.result.DataReadResult;
 import java.text.DateFormat;
 import java.text.Format;
 import java.text.SimpleDateFormat;
+import java.util.Collections;
 import java.util.Date;
 import java.util.List;
 import java.util.concurrent.TimeUnit;
@@ -40,15 +40,20 @@ public class BodyHistory {
 
     private ReactContext mReactContext;
     private GoogleFitManager googleFitManager;
-    private DataSet Dataset;
     private DataType dataType;
 
+    private LatestValueCache latestValues;
+
     private static final String TAG = "Body History";
 
+    // for height we need to take time, since GoogleFit foundation - https://stackoverflow.com/questions/28482176/read-the-height-in-googlefit-in-android
+    private static final long GOOGLE_FIT_START_MILLIS = TimeUnit.SECONDS.toMillis(1401926400L);
+
     public BodyHistory(ReactContext reactContext, GoogleFitManager googleFitManager, DataType dataType){
         this.mReactContext = reactContext;
         this.googleFitManager = googleFitManager;
         this.dataType = dataType;
+        this.latestValues = new LatestValueCache(reactContext);
     }
 
     public BodyHistory(ReactContext reactContext, GoogleFitManager googleFitManager){
@@ -59,13 +64,64 @@ public class BodyHistory {
         this.dataType = dataType;
     }
 
-    public ReadableArray getHistory(long startTime, long endTime, int bucketInterval, String bucketUnit) {
-        // for height we need to take time, since GoogleFit foundation - https://stackoverflow.com/questions/28482176/read-the-height-in-googlefit-in-android
-        startTime = this.dataType == DataType.TYPE_WEIGHT ? startTime : 1401926400;
+    public ReadableArray getHistory(long startTime, long endTime, int bucketInterval, String bucketUnit) throws FetchException {
+        return getHistory(this.dataType, startTime, endTime, bucketInterval, bucketUnit, new FetchRequest());
+    }
+
+    // reads may run concurrently on the fetch executor, so the data type is passed along instead of read from the shared field
+    public ReadableArray getHistory(DataType dataType, long startTime, long endTime, int bucketInterval, String bucketUnit, FetchRequest request) throws FetchException {
+        if (dataType == DataType.TYPE_WEIGHT) {
+            return readHistory(dataType, startTime, endTime, bucketInterval, bucketUnit, request);
+        }
+        // height barely changes, its latest value is kept instead of scanning the years since GOOGLE_FIT_START_MILLIS every time
+        return latestValues.read(dataType.getName(), GOOGLE_FIT_START_MILLIS, endTime, request, (start, end) ->
+                readHistory(dataType, start, end, bucketInterval, bucketUnit, request));
+    }
+
+    /**
+     * Drops the cached latest values, e.g. when the user signs out.
+     */
+    public void clearLatestValues() {
+        latestValues.clear();
+    }
+
+    private ReadableArray readHistory(DataType dataType, long startTime, long endTime, int bucketInterval, String bucketUnit, FetchRequest request) throws FetchException {
+        // only the bucketed weight read is split, a height read asks for a single point
+        List<long[]> ranges = dataType == DataType.TYPE_WEIGHT
+                ? RangeQuery.split(startTime, endTime, bucketInterval, bucketUnit)
+                : Collections.singletonList(new long[]{startTime, endTime});
+        List<DataReadResult> dataReadResults = RangeQuery.read(request, ranges, (start, end) ->
+                Fitness.HistoryApi.readData(googleFitManager.getGoogleApiClient(),
+                        createReadRequest(dataType, start, end, bucketInterval, bucketUnit)));
+
+        WritableArray map = Arguments.createArray();
+
+        for (DataReadResult dataReadResult : dataReadResults) {
+            //Used for aggregated data
+            if (dataReadResult.getBuckets().size() > 0) {
+                for (Bucket bucket : dataReadResult.getBuckets()) {
+                    request.throwIfCancelled();
+                    List<DataSet> dataSets = bucket.getDataSets();
+                    for (DataSet dataSet : dataSets) {
+                        processDataSet(dataType, dataSet, map);
+                    }
+                }
+            }
+            //Used for non-aggregated data
+            else if (dataReadResult.getDataSets().size() > 0) {
+                for (DataSet dataSet : dataReadResult.getDataSets()) {
+                    processDataSet(dataType, dataSet, map);
+                }
+            }
+        }
+        return map;
+    }
+
+    private DataReadRequest createReadRequest(DataType dataType, long startTime, long endTime, int bucketInterval, String bucketUnit) {
         DataReadRequest.Builder readRequestBuilder = new DataReadRequest.Builder()
                 .setTimeRange(startTime, endTime, TimeUnit.MILLISECONDS);
 
-        if (this.dataType == DataType.TYPE_WEIGHT) {
+        if (dataType == DataType.TYPE_WEIGHT) {
 
             // old method:
             // In general here we want to set the bucket size to the smallest possible allowed, in case the
@@ -89,91 +145,51 @@ public class BodyHistory {
 
             readRequestBuilder
                 .bucketByTime(bucketInterval, HelperUtil.processBucketUnit(bucketUnit))
-                .aggregate(this.dataType, DataType.AGGREGATE_WEIGHT_SUMMARY);
+                .aggregate(dataType, DataType.AGGREGATE_WEIGHT_SUMMARY);
 
         } else {
-            readRequestBuilder.read(this.dataType);
+            readRequestBuilder.read(dataType);
             readRequestBuilder.setLimit(1); // need only one height, since it's unchangable
         }
 
-        DataReadRequest readRequest = readRequestBuilder.build();
-
-        DataReadResult dataReadResult = Fitness.HistoryApi.readData(googleFitManager.getGoogleApiClient(), readRequest).await(1, TimeUnit.MINUTES);
-
-        WritableArray map = Arguments.createArray();
+        return readRequestBuilder.build();
+    }
 
-        //Used for aggregated data
-        if (dataReadResult.getBuckets().size() > 0) {
-            for (Bucket bucket : dataReadResult.getBuckets()) {
-                List<DataSet> dataSets = bucket.getDataSets();
-                for (DataSet dataSet : dataSets) {
-                    processDataSet(dataSet, map);
-                }
-            }
-        }
-        //Used for non-aggregated data
-        else if (dataReadResult.getDataSets().size() > 0) {
-            for (DataSet dataSet : dataReadResult.getDataSets()) {
-                processDataSet(dataSet, map);
-            }
-        }
-        return map;
+    public void save(ReadableMap sample, FetchExecutor.Completion completion) {
+        save(this.dataType, sample, completion);
     }
 
-    public boolean save(ReadableMap sample) {
-        this.Dataset = createDataForRequest(
-                this.dataType,    // for height, it would be DataType.TYPE_HEIGHT
+    public void save(DataType dataType, ReadableMap sample, FetchExecutor.Completion completion) {
+        DataSet dataSet = createDataForRequest(
+                dataType,    // for height, it would be DataType.TYPE_HEIGHT
                 DataSource.TYPE_RAW,
                 sample.getDouble("value"),                  // weight in kgs, height in metrs
                 (long)sample.getDouble("date"),              // start time
                 (long)sample.getDouble("date"),                // end time
                 TimeUnit.MILLISECONDS                // Time Unit, for example, TimeUnit.MILLISECONDS
         );
-        new InsertAndVerifyDataTask(this.Dataset).execute();
-
-        return true;
+        googleFitManager.getWriteQueue().insert(dataSet, invalidating(dataType, completion));
     }
 
-    public boolean delete(ReadableMap sample) {
+    public void delete(ReadableMap sample, FetchExecutor.Completion completion) {
         long endTime = (long) sample.getDouble("endDate");
         long startTime = (long) sample.getDouble("startDate");
-        new DeleteDataHelper(startTime, endTime, this.dataType, googleFitManager).execute();
-        return true;
+        googleFitManager.getWriteQueue().delete(HelperUtil.createDataDeleteRequest(startTime, endTime, this.dataType),
+                invalidating(this.dataType, completion));
     }
 
-    //Async fit data insert
-    private class InsertAndVerifyDataTask extends AsyncTask<Void, Void, Void> {
-
-        private DataSet Dataset;
-
-        InsertAndVerifyDataTask(DataSet dataset) {
-            this.Dataset = dataset;
-        }
-
-        protected Void doInBackground(Void... params) {
-            // Create a new dataset and insertion request.
-            DataSet dataSet = this.Dataset;
-
-            // [START insert_dataset]
-            // Then, invoke the History API to insert the data and await the result, which is
-            // possible here because of the {@link AsyncTask}. Always include a timeout when calling
-            // await() to prevent hanging that can occur from the service being shutdown because
-            // of low memory or other conditions.
-            //Log.i(TAG, "Inserting the dataset in the History API.");
-            com.google.android.gms.common.api.Status insertStatus =
-                    Fitness.HistoryApi.insertData(googleFitManager.getGoogleApiClient(), dataSet)
-                            .await(1, TimeUnit.MINUTES);
-
-            // Before querying the data, check to see if the insertion succeeded.
-            if (!insertStatus.isSuccess()) {
-                //Log.i(TAG, "There was a problem inserting the dataset.");
-                return null;
+    /**
+     * Drops the cached latest value of the type, and the basal rates Google Fit derives from
+     * weight and height, once the write landed, journal replays included.
+     */
+    private FetchExecutor.Completion invalidating(DataType dataType, FetchExecutor.Completion completion) {
+        return (result, error) -> {
+            if (error == null) {
+                latestValues.invalidate(dataType.getName());
+                googleFitManager.getCalorieHistory().clear();
             }
-
-            //Log.i(TAG, "Data insert was successful!");
-
-            return null;
-        }
+            completion.complete(result, error);
+        };
     }
 
     /**
@@ -205,7 +221,7 @@ public class BodyHistory {
         return dataSet;
     }
 
-    private void processDataSet(DataSet dataSet, WritableArray map) {
+    private void processDataSet(DataType dataType, DataSet dataSet, WritableArray map) {
         //Log.i(TAG, "Data returned for Data type: " + dataSet.getDataType().getName());
         Format formatter = new SimpleDateFormat("EEE");
 
@@ -227,7 +243,7 @@ public class BodyHistory {
             // For aggregated weight summary, only the min, max and average values are available (i.e. the
             // most recent sample is not an option), so use average value to maximise the match between values
             // returned here and values as reported by Google Fit app
-            if (this.dataType == DataType.TYPE_WEIGHT) {
+            if (dataType == DataType.TYPE_WEIGHT) {
                 bodyMap.putDouble("value", dp.getValue(Field.FIELD_AVERAGE).asFloat());
             } else {
                 bodyMap.putDouble("value", dp.getValue(Field.FIELD_HEIGHT).asFloat());
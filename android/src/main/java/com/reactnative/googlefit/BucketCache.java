@@ -0,0 +1,295 @@
+/**
+ * Copyright (c) 2017-present, Stanislav Doskalenko - doskalenko.s@gmail.com
+ * All rights reserved.
+ *
+ * This source code is licensed under the MIT-style license found in the
+ * LICENSE file in the root directory of this source tree.
+ *
+ **/
+
+package com.reactnative.googlefit;
+
+import com.facebook.react.bridge.Arguments;
+import com.facebook.react.bridge.ReadableArray;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Keeps the buckets of aggregate reads that are not going to change anymore.
+ *
+ * A bucket that ended more than the settle horizon ago (48 hours by default) is final:
+ * late syncs from a watch or another app have landed by then. Reading a range serves the
+ * leading final buckets from here and only asks Google Fit for the rest, which is read from
+ * a bucket boundary so its buckets line up with the cached ones. Refreshing a month view
+ * then costs about as much as reading its last couple of days.
+ *
+ * Buckets are stored per series, i.e. metric, bucket width and any read option, as the
+ * plain Java items the read returned for them, an empty list for a bucket without data.
+ * Only reads that fully succeeded are stored, so a failed read never settles a day as empty.
+ */
+class BucketCache {
+
+    static final long DEFAULT_SETTLE_MILLIS = 48 * 60 * 60 * 1000L;
+    private static final int MAX_BUCKETS = 10000;
+
+    interface Read {
+        ReadableArray read(long startTime, long endTime) throws Exception;
+    }
+
+    private static class Plan {
+        final List<List<Object>> cached = new ArrayList<>();
+        long fetchStart;
+    }
+
+    // access order, the least recently used buckets are dropped past MAX_BUCKETS
+    private final LinkedHashMap<String, List<Object>> buckets = new LinkedHashMap<String, List<Object>>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, List<Object>> eldest) {
+            return size() > MAX_BUCKETS;
+        }
+    };
+    private final Map<String, List<Object>> sources = new HashMap<>();
+    private long settleMillis = DEFAULT_SETTLE_MILLIS;
+    private long generation;
+
+    /**
+     * @return the key of a series of buckets, the same for every range read with these parameters
+     */
+    static String seriesKey(String metric, int bucketInterval, String bucketUnit, Object... extras) {
+        StringBuilder key = new StringBuilder(metric)
+                .append('|').append(HelperUtil.processBucketUnit(bucketUnit).toMillis(bucketInterval));
+        for (Object extra : extras) {
+            key.append('|').append(extra);
+        }
+        return key.toString();
+    }
+
+    /**
+     * Reads a range whose result is a flat list of items with a startDate (or date).
+     * The cached items are handed to a new bridged array, which copies them.
+     */
+    ReadableArray read(String series, long startTime, long endTime, int bucketInterval, String bucketUnit,
+                       FetchRequest request, Read read) throws Exception {
+        long bucketMillis = HelperUtil.processBucketUnit(bucketUnit).toMillis(bucketInterval);
+        long generation = generation();
+        Plan plan = plan(series, startTime, endTime, bucketMillis);
+
+        List<Object> fetched = Collections.emptyList();
+        if (plan.fetchStart < endTime) {
+            fetched = read.read(plan.fetchStart, endTime).toArrayList();
+            // a partial read may have skipped a late part, and a degraded one lacks data,
+            // so neither settles anything, a failed read throws before getting here
+            if (!request.isPartial() && request.isComplete()) {
+                store(series, plan.fetchStart, endTime, bucketMillis, fetched, generation);
+            }
+        }
+
+        ArrayList<Object> items = new ArrayList<>();
+        for (List<Object> bucket : plan.cached) {
+            items.addAll(bucket);
+        }
+        items.addAll(fetched);
+        return Arguments.makeNativeArray(items);
+    }
+
+    /**
+     * Reads a range whose result is a list of sources, each with a status and its own list of items
+     * under itemsKey, like getDailyStepCountSamples. Buckets are only stored when every source answered.
+     */
+    @SuppressWarnings("unchecked")
+    ReadableArray readSources(String series, String itemsKey, long startTime, long endTime, int bucketInterval,
+                              String bucketUnit, FetchRequest request, Read read) throws Exception {
+        long bucketMillis = HelperUtil.processBucketUnit(bucketUnit).toMillis(bucketInterval);
+        long generation = generation();
+        Plan plan = plan(series, startTime, endTime, bucketMillis);
+
+        List<Object> fetched = null;
+        if (plan.fetchStart < endTime) {
+            fetched = read.read(plan.fetchStart, endTime).toArrayList();
+            boolean complete = !request.isPartial() && request.isComplete();
+            List<Object> rows = new ArrayList<>();
+            List<Object> meta = new ArrayList<>();
+            for (int i = 0; i < fetched.size(); i++) {
+                Map<String, Object> source = (Map<String, Object>) fetched.get(i);
+                complete &= "ok".equals(source.get("status"));
+                meta.add(source.get("source"));
+                // a row remembers its source, so the buckets can be split per source again
+                for (Object item : (List<Object>) source.get(itemsKey)) {
+                    Map<String, Object> row = new HashMap<>();
+                    row.put("index", (double) i);
+                    row.put("startDate", ((Map<String, Object>) item).get("startDate"));
+                    row.put("item", item);
+                    rows.add(row);
+                }
+            }
+            if (complete) {
+                synchronized (this) {
+                    if (generation == this.generation) {
+                        sources.put(series, meta);
+                    }
+                }
+                store(series, plan.fetchStart, endTime, bucketMillis, rows, generation);
+            }
+        }
+
+        List<Object> meta;
+        synchronized (this) {
+            meta = sources.get(series);
+        }
+        if (fetched == null && meta == null) {
+            // the sources of a fully cached range are always known, this only guards a cleared cache
+            return read.read(startTime, endTime);
+        }
+
+        ArrayList<Object> results = new ArrayList<>();
+        int count = fetched != null ? fetched.size() : meta.size();
+        for (int i = 0; i < count; i++) {
+            Map<String, Object> result = new HashMap<>();
+            ArrayList<Object> items = new ArrayList<>();
+            for (List<Object> bucket : plan.cached) {
+                for (Object row : bucket) {
+                    Map<String, Object> cachedRow = (Map<String, Object>) row;
+                    if (((Number) cachedRow.get("index")).intValue() == i) {
+                        items.add(cachedRow.get("item"));
+                    }
+                }
+            }
+            if (fetched != null) {
+                Map<String, Object> source = (Map<String, Object>) fetched.get(i);
+                result.putAll(source);
+                items.addAll((List<Object>) source.get(itemsKey));
+            } else {
+                result.put("source", meta.get(i));
+                result.put("status", "ok");
+            }
+            result.put(itemsKey, items);
+            results.add(result);
+        }
+        return Arguments.makeNativeArray(results);
+    }
+
+    /**
+     * Drops the buckets of the given metrics, e.g. after a write that may have changed the past.
+     */
+    synchronized void invalidate(String... metrics) {
+        generation++;
+        for (String metric : metrics) {
+            String prefix = metric + "|";
+            Iterator<String> keys = buckets.keySet().iterator();
+            while (keys.hasNext()) {
+                if (keys.next().startsWith(prefix)) {
+                    keys.remove();
+                }
+            }
+            Iterator<String> series = sources.keySet().iterator();
+            while (series.hasNext()) {
+                if (series.next().startsWith(prefix)) {
+                    series.remove();
+                }
+            }
+        }
+    }
+
+    synchronized void clear() {
+        generation++;
+        buckets.clear();
+        sources.clear();
+    }
+
+    /**
+     * @param settleMillis how long after its end a bucket is final, 0 turns the cache off
+     */
+    synchronized void setSettleMillis(long settleMillis) {
+        this.settleMillis = Math.max(0, settleMillis);
+        clear();
+    }
+
+    synchronized int size() {
+        return buckets.size();
+    }
+
+    /**
+     * Evicts least recently used buckets until at most maxBuckets are left, for memory trims.
+     * @return the number of buckets dropped
+     */
+    synchronized int trimTo(int maxBuckets) {
+        int dropped = 0;
+        Iterator<String> keys = buckets.keySet().iterator();
+        while (buckets.size() > maxBuckets && keys.hasNext()) {
+            keys.next();
+            keys.remove();
+            dropped++;
+        }
+        return dropped;
+    }
+
+    private synchronized long generation() {
+        return generation;
+    }
+
+    private synchronized Plan plan(String series, long startTime, long endTime, long bucketMillis) {
+        Plan plan = new Plan();
+        plan.fetchStart = startTime;
+        if (settleMillis <= 0 || bucketMillis <= 0) {
+            return plan;
+        }
+        long settledEnd = Math.min(endTime, System.currentTimeMillis() - settleMillis);
+        while (plan.fetchStart + bucketMillis <= settledEnd) {
+            List<Object> bucket = buckets.get(bucketKey(series, plan.fetchStart));
+            if (bucket == null) {
+                break;
+            }
+            plan.cached.add(bucket);
+            plan.fetchStart += bucketMillis;
+        }
+        return plan;
+    }
+
+    @SuppressWarnings("unchecked")
+    private synchronized void store(String series, long fetchStart, long endTime, long bucketMillis,
+                                    List<Object> items, long generation) {
+        if (settleMillis <= 0 || bucketMillis <= 0 || generation != this.generation) {
+            return;
+        }
+        long settledEnd = Math.min(endTime, System.currentTimeMillis() - settleMillis);
+        Map<Long, List<Object>> byBucket = new HashMap<>();
+        for (Object item : items) {
+            if (((Map<String, Object>) item).isEmpty()) {
+                // the body reads return an empty item for a bucket without data, which
+                // the JS side drops, so the bucket is stored without it
+                continue;
+            }
+            Object date = ((Map<String, Object>) item).get("startDate");
+            if (date == null) {
+                date = ((Map<String, Object>) item).get("date");
+            }
+            if (!(date instanceof Number) || ((Number) date).longValue() < fetchStart) {
+                // an item that cannot be placed in a bucket makes the whole read uncacheable
+                return;
+            }
+            long time = ((Number) date).longValue();
+            long bucketStart = fetchStart + (time - fetchStart) / bucketMillis * bucketMillis;
+            List<Object> bucket = byBucket.get(bucketStart);
+            if (bucket == null) {
+                bucket = new ArrayList<>();
+                byBucket.put(bucketStart, bucket);
+            }
+            bucket.add(item);
+        }
+        for (long bucketStart = fetchStart; bucketStart + bucketMillis <= settledEnd; bucketStart += bucketMillis) {
+            List<Object> bucket = byBucket.get(bucketStart);
+            buckets.put(bucketKey(series, bucketStart),
+                    bucket != null ? bucket : Collections.emptyList());
+        }
+    }
+
+    private static String bucketKey(String series, long bucketStart) {
+        return series + '|' + bucketStart;
+    }
+}
@@ -0,0 +1,162 @@
+/**
+ * Copyright (c) 2017-present, Stanislav Doskalenko - doskalenko.s@gmail.com
+ * All rights reserved.
+ *
+ * This source code is licensed under the MIT-style license found in the
+ * LICENSE file in the root directory of this source tree.
+ *
+ **/
+
+package com.reactnative.googlefit;
+
+import androidx.annotation.Nullable;
+
+import com.facebook.react.bridge.Arguments;
+import com.facebook.react.bridge.WritableArray;
+import com.facebook.react.bridge.WritableMap;
+
+import java.util.Calendar;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Answers the synchronous reads of daily aggregates straight from the ResponseCache, for
+ * widgets that render numbers already in memory without waiting for a Promise.
+ *
+ * Only the daily reads of the last days up to the end of today are looked up, the ones
+ * prefetch() and a screen reading from startOf('day') to endOf('day') leave behind. Every
+ * metric comes back as { startDate, endDate, value } buckets, steps from the estimated_steps
+ * source, the numbers the Google Fit app shows.
+ *
+ * An expired read is still answered, since a widget is better off with the numbers of a
+ * minute ago than with none. Callers check isFresh() and refresh the read in the background.
+ */
+class CachedAggregates {
+
+    static final String[] METRICS = {"steps", "distance", "calories", "moveMinutes"};
+
+    private final ResponseCache responseCache;
+
+    CachedAggregates(ResponseCache responseCache) {
+        this.responseCache = responseCache;
+    }
+
+    static boolean isSupported(String metric) {
+        for (String supported : METRICS) {
+            if (supported.equals(metric)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return the start of the day days - 1 before today and the end of today, in local time
+     */
+    static long[] dayRange(int days) {
+        Calendar calendar = Calendar.getInstance();
+        calendar.set(Calendar.HOUR_OF_DAY, 0);
+        calendar.set(Calendar.MINUTE, 0);
+        calendar.set(Calendar.SECOND, 0);
+        calendar.set(Calendar.MILLISECOND, 0);
+        calendar.add(Calendar.DAY_OF_YEAR, 1);
+        long end = calendar.getTimeInMillis() - 1;
+        calendar.add(Calendar.DAY_OF_YEAR, -Math.max(1, days));
+        return new long[]{calendar.getTimeInMillis(), end};
+    }
+
+    /**
+     * The key of the daily read of a metric, as the module builds it, calories with basal.
+     */
+    static String key(String metric, long startTime, long endTime) {
+        return "calories".equals(metric)
+                ? HelperUtil.queryKey(metric, startTime, endTime, 1, "DAY", true)
+                : HelperUtil.queryKey(metric, startTime, endTime, 1, "DAY");
+    }
+
+    /**
+     * @return whether the daily read of the last days is cached and within its TTL
+     */
+    boolean isFresh(String metric, int days) {
+        long[] range = dayRange(days);
+        return responseCache.isFresh(key(metric, range[0], range[1]));
+    }
+
+    /**
+     * @return the daily buckets of the last days, oldest first, expired or not, null when they are not cached
+     */
+    @Nullable
+    WritableArray dailySamples(String metric, int days) {
+        long[] range = dayRange(days);
+        List<?> buckets = buckets(metric, responseCache.getStale(key(metric, range[0], range[1])));
+        if (buckets == null) {
+            return null;
+        }
+        WritableArray samples = Arguments.createArray();
+        for (Object bucket : buckets) {
+            Map<?, ?> item = (Map<?, ?>) bucket;
+            WritableMap sample = Arguments.createMap();
+            sample.putDouble("startDate", number(item.get("startDate")));
+            sample.putDouble("endDate", number(item.get("endDate")));
+            sample.putDouble("value", number(item.get(valueField(metric))));
+            samples.pushMap(sample);
+        }
+        return samples;
+    }
+
+    /**
+     * @return the total of today, expired or not, null when it is not cached
+     */
+    @Nullable
+    Double todayTotal(String metric) {
+        long[] range = dayRange(1);
+        List<?> buckets = buckets(metric, responseCache.getStale(key(metric, range[0], range[1])));
+        if (buckets == null) {
+            return null;
+        }
+        double total = 0;
+        for (Object bucket : buckets) {
+            total += number(((Map<?, ?>) bucket).get(valueField(metric)));
+        }
+        return total;
+    }
+
+    /**
+     * @return the buckets of a cached read, the estimated_steps ones for steps, null when there are none to use
+     */
+    @Nullable
+    private static List<?> buckets(String metric, @Nullable Object cached) {
+        if (!(cached instanceof List)) {
+            return null;
+        }
+        if (!"steps".equals(metric)) {
+            return (List<?>) cached;
+        }
+        for (Object entry : (List<?>) cached) {
+            Map<?, ?> source = (Map<?, ?>) entry;
+            Object info = source.get("source");
+            if (info instanceof Map && "estimated_steps".equals(((Map<?, ?>) info).get("stream"))) {
+                // a source that failed or timed out has no steps, that is no total of zero
+                return "ok".equals(source.get("status")) ? (List<?>) source.get("steps") : null;
+            }
+        }
+        return null;
+    }
+
+    private static String valueField(String metric) {
+        switch (metric) {
+            case "steps":
+                return "steps";
+            case "calories":
+                return "calorie";
+            case "moveMinutes":
+                return "duration";
+            default:
+                return metric;
+        }
+    }
+
+    private static double number(Object value) {
+        return value instanceof Number ? ((Number) value).doubleValue() : 0;
+    }
+}
@@ -10,7 +10,6 @@
 
 package com.reactnative.googlefit;
 
-import android.os.AsyncTask;
 import android.util.Log;
 
 import com.facebook.react.bridge.Arguments;
@@ -30,63 +29,89 @@ import com.google.android.gms.fitness.data.Field;
 import com.google.android.gms.fitness.request.DataReadRequest;
 import com.google.android.gms.fitness.result.DataReadResult;
 
-import org.json.JSONObject;
-
 import java.text.DateFormat;
 import java.text.Format;
 import java.text.SimpleDateFormat;
-import java.util.Calendar;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.concurrent.TimeUnit;
 
 
 public class CalorieHistory {
     private ReactContext mReactContext;
     private GoogleFitManager googleFitManager;
-    private DataSet FoodDataSet;
 
     private static final String TAG = "CalorieHistory";
+    private static final long DAY_MILLIS = TimeUnit.DAYS.toMillis(1);
+    private static final long BASAL_WINDOW_MILLIS = TimeUnit.DAYS.toMillis(7);
+    private static final int MAX_BASAL_DAYS = 2000;
+
+    // daily BMR averages by day start, least recently used days are dropped past MAX_BASAL_DAYS
+    private final Map<Long, Float> basalByDay = new LinkedHashMap<Long, Float>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Long, Float> eldest) {
+            return size() > MAX_BASAL_DAYS;
+        }
+    };
 
     public CalorieHistory(ReactContext reactContext, GoogleFitManager googleFitManager) {
         this.mReactContext = reactContext;
         this.googleFitManager = googleFitManager;
     }
 
-    public ReadableArray aggregateDataByDate(long startTime, long endTime, boolean basalCalculation, int bucketInterval, String bucketUnit) {
+    /**
+     * Forgets the remembered basal rates, on sign-out and when a weight or height write may have changed them.
+     */
+    void clear() {
+        synchronized (basalByDay) {
+            basalByDay.clear();
+        }
+    }
+
+    public ReadableArray aggregateDataByDate(long startTime, long endTime, boolean basalCalculation, int bucketInterval, String bucketUnit, FetchRequest request) throws FetchException {
 
         DateFormat dateFormat = DateFormat.getDateInstance();
         Log.i(TAG, "Range Start: " + dateFormat.format(startTime));
         Log.i(TAG, "Range End: " + dateFormat.format(endTime));
 
         //Check how much calories were expended in specific days.
-        DataReadRequest readRequest = new DataReadRequest.Builder()
-                .aggregate(DataType.TYPE_CALORIES_EXPENDED, DataType.AGGREGATE_CALORIES_EXPENDED)
-                .bucketByTime(bucketInterval, HelperUtil.processBucketUnit(bucketUnit))
-                .setTimeRange(startTime, endTime, TimeUnit.MILLISECONDS)
-                .build();
+        // long ranges are read in parts, the results come back in range order
+        List<DataReadResult> dataReadResults = RangeQuery.read(request,
+                RangeQuery.split(startTime, endTime, bucketInterval, bucketUnit),
+                (start, end) -> Fitness.HistoryApi.readData(googleFitManager.getGoogleApiClient(),
+                        new DataReadRequest.Builder()
+                                .aggregate(DataType.TYPE_CALORIES_EXPENDED, DataType.AGGREGATE_CALORIES_EXPENDED)
+                                .bucketByTime(bucketInterval, HelperUtil.processBucketUnit(bucketUnit))
+                                .setTimeRange(start, end, TimeUnit.MILLISECONDS)
+                                .build()));
 
-        DataReadResult dataReadResult = Fitness.HistoryApi.readData(googleFitManager.getGoogleApiClient(), readRequest).await(1, TimeUnit.MINUTES);
 
+        // one BMR read for the whole range instead of one per bucket
+        Map<Long, Float> basal = basalCalculation ? prefetchBasal(startTime, endTime, request) : null;
 
         WritableArray map = Arguments.createArray();
 
-        //Used for aggregated data
-        if (dataReadResult.getBuckets().size() > 0) {
-            Log.i(TAG, "Number of buckets: " + dataReadResult.getBuckets().size());
-            for (Bucket bucket : dataReadResult.getBuckets()) {
-                List<DataSet> dataSets = bucket.getDataSets();
-                for (DataSet dataSet : dataSets) {
-                    processDataSet(dataSet, map, basalCalculation);
+        for (DataReadResult dataReadResult : dataReadResults) {
+            //Used for aggregated data
+            if (dataReadResult.getBuckets().size() > 0) {
+                Log.i(TAG, "Number of buckets: " + dataReadResult.getBuckets().size());
+                for (Bucket bucket : dataReadResult.getBuckets()) {
+                    request.throwIfCancelled();
+                    List<DataSet> dataSets = bucket.getDataSets();
+                    for (DataSet dataSet : dataSets) {
+                        processDataSet(dataSet, map, basal);
+                    }
                 }
             }
-        }
-        //Used for non-aggregated data
-        else if (dataReadResult.getDataSets().size() > 0) {
-            Log.i(TAG, "Number of returned DataSets: " + dataReadResult.getDataSets().size());
-            for (DataSet dataSet : dataReadResult.getDataSets()) {
-                processDataSet(dataSet, map, basalCalculation);
+            //Used for non-aggregated data
+            else if (dataReadResult.getDataSets().size() > 0) {
+                Log.i(TAG, "Number of returned DataSets: " + dataReadResult.getDataSets().size());
+                for (DataSet dataSet : dataReadResult.getDataSets()) {
+                    processDataSet(dataSet, map, basal);
+                }
             }
         }
 
@@ -94,44 +119,98 @@ public class CalorieHistory {
     }
 
 
-    // utility function that gets the basal metabolic rate averaged over a week
-    private float getBasalAVG(long _et) throws Exception {
-        float basalAVG = 0;
-        Calendar cal = java.util.Calendar.getInstance();
-        cal.setTime(new Date(_et));
-        //set start time to a week before end time
-        cal.add(Calendar.WEEK_OF_YEAR, -1);
-        long nst = cal.getTimeInMillis();
-
-        DataReadRequest.Builder builder = new DataReadRequest.Builder();
-        builder.aggregate(DataType.TYPE_BASAL_METABOLIC_RATE, DataType.AGGREGATE_BASAL_METABOLIC_RATE_SUMMARY);
-        builder.bucketByTime(1, TimeUnit.DAYS);
-        builder.setTimeRange(nst, _et, TimeUnit.MILLISECONDS);
-        DataReadRequest readRequest = builder.build();
-
-        DataReadResult dataReadResult = Fitness.HistoryApi.readData(googleFitManager.getGoogleApiClient(), readRequest).await();
-
-        if (dataReadResult.getStatus().isSuccess()) {
-            JSONObject obj = new JSONObject();
-            int avgsN = 0;
+    /**
+     * Reads the daily basal metabolic rate of the whole range, plus the week before it, in one go.
+     * Days that are over do not change anymore and are remembered across reads, so only the
+     * days missing from basalByDay are read. A day without data is only remembered once it is
+     * past the settle horizon, since a device may still upload its data.
+     * @return the average BMR in kcal per day by day start, NaN for a day without data
+     */
+    private Map<Long, Float> prefetchBasal(long startTime, long endTime, FetchRequest request) throws FetchException {
+        long from = startTime - BASAL_WINDOW_MILLIS;
+        long now = System.currentTimeMillis();
+        Map<Long, Float> basal = new HashMap<>();
+        long fetchStart = -1;
+        synchronized (basalByDay) {
+            for (long day = from; day < endTime; day += DAY_MILLIS) {
+                Float avg = basalByDay.get(day);
+                if (avg == null) {
+                    fetchStart = day;
+                    break;
+                }
+                basal.put(day, avg);
+            }
+        }
+        if (fetchStart < 0) {
+            return basal;
+        }
+
+        // starting on a day of the grid keeps the buckets aligned with the remembered ones
+        List<DataReadResult> dataReadResults;
+        try {
+            dataReadResults = RangeQuery.read(request,
+                    RangeQuery.split(fetchStart, endTime, 1, "DAY"),
+                    (start, end) -> Fitness.HistoryApi.readData(googleFitManager.getGoogleApiClient(),
+                            new DataReadRequest.Builder()
+                                    .aggregate(DataType.TYPE_BASAL_METABOLIC_RATE, DataType.AGGREGATE_BASAL_METABOLIC_RATE_SUMMARY)
+                                    .bucketByTime(1, TimeUnit.DAYS)
+                                    .setTimeRange(start, end, TimeUnit.MILLISECONDS)
+                                    .build()));
+        } catch (FetchException e) {
+            if (!FetchException.E_READ.equals(e.getCode())) {
+                throw e;
+            }
+            // same as before, calories are then returned without the basal part, but not cached
+            Log.w(TAG, "Could not read the basal metabolic rate: " + e.getMessage());
+            request.markIncomplete();
+            return basal;
+        }
+
+        for (DataReadResult dataReadResult : dataReadResults) {
             for (Bucket bucket : dataReadResult.getBuckets()) {
+                long day = bucket.getStartTime(TimeUnit.MILLISECONDS);
                 // in the com.google.bmr.summary data type, each data point represents
                 // the average, maximum and minimum basal metabolic rate, in kcal per day, over the time interval of the data point.
                 DataSet ds = bucket.getDataSet(DataType.AGGREGATE_BASAL_METABOLIC_RATE_SUMMARY);
-                for (DataPoint dp : ds.getDataPoints()) {
-                    float avg = dp.getValue(Field.FIELD_AVERAGE).asFloat();
-                    basalAVG += avg;
-                    avgsN++;
+                float sum = 0;
+                int count = 0;
+                if (ds != null) {
+                    for (DataPoint dp : ds.getDataPoints()) {
+                        sum += dp.getValue(Field.FIELD_AVERAGE).asFloat();
+                        count++;
+                    }
+                }
+                float avg = count != 0 ? sum / count : Float.NaN;
+                basal.put(day, avg);
+                long settledBy = Float.isNaN(avg) ? now - BucketCache.DEFAULT_SETTLE_MILLIS : now;
+                if (bucket.getEndTime(TimeUnit.MILLISECONDS) <= settledBy) {
+                    synchronized (basalByDay) {
+                        basalByDay.put(day, avg);
+                    }
                 }
             }
-            // do the average of the averages
-            if (avgsN != 0) basalAVG /= avgsN; // this a daily average
-            return basalAVG;
-        } else throw new Exception(dataReadResult.getStatus().getStatusMessage());
+        }
+        return basal;
+    }
+
+    // utility function that gets the basal metabolic rate averaged over the week before _et,
+    // from the days read by prefetchBasal
+    private float getBasalAVG(long _et, Map<Long, Float> basal) {
+        float basalAVG = 0;
+        int avgsN = 0;
+        for (Map.Entry<Long, Float> day : basal.entrySet()) {
+            if (day.getKey() >= _et - BASAL_WINDOW_MILLIS && day.getKey() < _et && !day.getValue().isNaN()) {
+                basalAVG += day.getValue();
+                avgsN++;
+            }
+        }
+        // do the average of the averages
+        if (avgsN != 0) basalAVG /= avgsN; // this a daily average
+        return basalAVG;
     }
 
 
-    private void processDataSet(DataSet dataSet, WritableArray map, boolean basalCalculation) {
+    private void processDataSet(DataSet dataSet, WritableArray map, Map<Long, Float> basal) {
         Log.i(TAG, "Data returned for Data type: " + dataSet.getDataType().getName());
         DateFormat dateFormat = DateFormat.getDateInstance();
         DateFormat timeFormat = DateFormat.getTimeInstance();
@@ -155,22 +234,15 @@ public class CalorieHistory {
                 stepMap.putString("day", day);
                 stepMap.putDouble("startDate", dp.getStartTime(TimeUnit.MILLISECONDS));
                 stepMap.putDouble("endDate", dp.getEndTime(TimeUnit.MILLISECONDS));
-                float basal = 0;
-                if (basalCalculation) {
-                    try {
-                        basal = getBasalAVG(dp.getEndTime(TimeUnit.MILLISECONDS));
-                    } catch (Exception e) {
-                        e.printStackTrace();
-                    }
-                }
-                stepMap.putDouble("calorie", dp.getValue(field).asFloat() - basal);
+                float basalAVG = basal != null ? getBasalAVG(dp.getEndTime(TimeUnit.MILLISECONDS), basal) : 0;
+                stepMap.putDouble("calorie", dp.getValue(field).asFloat() - basalAVG);
                 map.pushMap(stepMap);
             }
         }
     }
 
-    public boolean saveFood(ReadableMap foodSample) {
-        this.FoodDataSet = createDataForRequest(
+    public void saveFood(ReadableMap foodSample, FetchExecutor.Completion completion) {
+        DataSet dataSet = createDataForRequest(
                 DataType.TYPE_NUTRITION,    // for height, it would be DataType.TYPE_HEIGHT
                 DataSource.TYPE_RAW,
                 foodSample.getMap("nutrients").toHashMap(),
@@ -180,44 +252,7 @@ public class CalorieHistory {
                 (long)foodSample.getDouble("date"),             // end time
                 TimeUnit.MILLISECONDS                // Time Unit, for example, TimeUnit.MILLISECONDS
         );
-        new CalorieHistory.InsertAndVerifyDataTask(this.FoodDataSet).execute();
-
-        return true;
-    }
-
-    //Async fit data insert
-    private class InsertAndVerifyDataTask extends AsyncTask<Void, Void, Void> {
-
-        private DataSet FoodDataset;
-
-        InsertAndVerifyDataTask(DataSet dataset) {
-            this.FoodDataset = dataset;
-        }
-
-        protected Void doInBackground(Void... params) {
-            // Create a new dataset and insertion request.
-            DataSet dataSet = this.FoodDataset;
-
-            // [START insert_dataset]
-            // Then, invoke the History API to insert the data and await the result, which is
-            // possible here because of the {@link AsyncTask}. Always include a timeout when calling
-            // await() to prevent hanging that can occur from the service being shutdown because
-            // of low memory or other conditions.
-            //Log.i(TAG, "Inserting the dataset in the History API.");
-            com.google.android.gms.common.api.Status insertStatus =
-                    Fitness.HistoryApi.insertData(googleFitManager.getGoogleApiClient(), dataSet)
-                            .await(1, TimeUnit.MINUTES);
-
-            // Before querying the data, check to see if the insertion succeeded.
-            if (!insertStatus.isSuccess()) {
-                //Log.i(TAG, "There was a problem inserting the dataset.");
-                return null;
-            }
-
-            //Log.i(TAG, "Data insert was successful!");
-
-            return null;
-        }
+        googleFitManager.getWriteQueue().insert(dataSet, completion);
     }
 
     /**
@@ -0,0 +1,136 @@
+/**
+ * Copyright (c) 2017-present, Stanislav Doskalenko - doskalenko.s@gmail.com
+ * All rights reserved.
+ *
+ * This source code is licensed under the MIT-style license found in the
+ * LICENSE file in the root directory of this source tree.
+ *
+ **/
+
+package com.reactnative.googlefit;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Turns a list of data points into parallel arrays, for reads asking for format: 'columnar'.
+ *
+ * Every numeric field of the points becomes one array, e.g. startDate, endDate and value,
+ * holding null where a point lacks the field. The text fields of a point, like the app that
+ * added it or its data source, are kept once per distinct source in sources, and each point
+ * refers to its entry through sourceIndex. The day name is left out, it follows from startDate.
+ *
+ * A list whose items hold lists of their own, like the step sources with their steps, keeps
+ * its items and has their nested lists turned into columns instead. Results that are not a
+ * list are returned as they are.
+ */
+class ColumnarFormat {
+
+    private static final String DAY = "day";
+
+    private ColumnarFormat() {
+    }
+
+    /**
+     * @param result a result as plain Java collections, see ResponseCache.toJava
+     */
+    @SuppressWarnings("unchecked")
+    static Object convert(Object result) {
+        if (!(result instanceof List)) {
+            return result;
+        }
+        List<?> items = (List<?>) result;
+        if (!isFlat(items)) {
+            List<Object> converted = new ArrayList<>(items.size());
+            for (Object item : items) {
+                converted.add(item instanceof Map ? convertNested((Map<String, Object>) item) : item);
+            }
+            return converted;
+        }
+
+        List<Map<String, Object>> points = new ArrayList<>(items.size());
+        for (Object item : items) {
+            // the body reads may hold empty points
+            if (!((Map<?, ?>) item).isEmpty()) {
+                points.add((Map<String, Object>) item);
+            }
+        }
+
+        Map<String, List<Object>> columns = new LinkedHashMap<>();
+        List<Object> sources = new ArrayList<>();
+        List<Object> sourceIndex = new ArrayList<>(points.size());
+        Map<Map<String, Object>, Integer> sourceIds = new HashMap<>();
+        for (int i = 0; i < points.size(); i++) {
+            Map<String, Object> source = new HashMap<>();
+            for (Map.Entry<String, Object> field : points.get(i).entrySet()) {
+                Object value = field.getValue();
+                if (DAY.equals(field.getKey())) {
+                    continue;
+                }
+                if (value instanceof String || value instanceof Boolean) {
+                    source.put(field.getKey(), value);
+                    continue;
+                }
+                List<Object> column = columns.get(field.getKey());
+                if (column == null) {
+                    column = new ArrayList<>(points.size());
+                    // the points before the first one with this field lack it
+                    for (int j = 0; j < i; j++) {
+                        column.add(null);
+                    }
+                    columns.put(field.getKey(), column);
+                }
+                column.add(value);
+            }
+            for (List<Object> column : columns.values()) {
+                if (column.size() <= i) {
+                    column.add(null);
+                }
+            }
+
+            Integer id = sourceIds.get(source);
+            if (id == null) {
+                id = sources.size();
+                sourceIds.put(source, id);
+                sources.add(source);
+            }
+            sourceIndex.add(id);
+        }
+
+        Map<String, Object> columnar = new LinkedHashMap<String, Object>(columns);
+        columnar.put("count", points.size());
+        columnar.put("sourceIndex", sourceIndex);
+        columnar.put("sources", sources);
+        return columnar;
+    }
+
+    private static Map<String, Object> convertNested(Map<String, Object> item) {
+        Map<String, Object> converted = new HashMap<>(item);
+        for (Map.Entry<String, Object> field : item.entrySet()) {
+            if (field.getValue() instanceof List) {
+                converted.put(field.getKey(), convert(field.getValue()));
+            }
+        }
+        return converted;
+    }
+
+    /**
+     * @return true for a list of points, maps without nested lists
+     */
+    private static boolean isFlat(List<?> items) {
+        for (Object item : items) {
+            if (!(item instanceof Map)) {
+                return false;
+            }
+            for (Object value : ((Map<?, ?>) item).values()) {
+                if (value instanceof List) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+}
@@ -48,39 +48,44 @@ public class DistanceHistory {
         this.googleFitManager = googleFitManager;
     }
 
-    public ReadableArray aggregateDataByDate(long startTime, long endTime, int bucketInterval, String bucketUnit) {
+    public ReadableArray aggregateDataByDate(long startTime, long endTime, int bucketInterval, String bucketUnit, FetchRequest request) throws FetchException {
 
         DateFormat dateFormat = DateFormat.getDateInstance();
         Log.i(TAG, "Range Start: " + dateFormat.format(startTime));
         Log.i(TAG, "Range End: " + dateFormat.format(endTime));
 
         //Check how much distance were walked and recorded in specified days
-        DataReadRequest readRequest = new DataReadRequest.Builder()
-                .aggregate(DataType.TYPE_DISTANCE_DELTA, DataType.AGGREGATE_DISTANCE_DELTA)
-                .bucketByTime(bucketInterval, HelperUtil.processBucketUnit(bucketUnit))
-                .setTimeRange(startTime, endTime, TimeUnit.MILLISECONDS)
-                .build();
-
-        DataReadResult dataReadResult = Fitness.HistoryApi.readData(googleFitManager.getGoogleApiClient(), readRequest).await(1, TimeUnit.MINUTES);
+        // long ranges are read in parts, the results come back in range order
+        List<DataReadResult> dataReadResults = RangeQuery.read(request,
+                RangeQuery.split(startTime, endTime, bucketInterval, bucketUnit),
+                (start, end) -> Fitness.HistoryApi.readData(googleFitManager.getGoogleApiClient(),
+                        new DataReadRequest.Builder()
+                                .aggregate(DataType.TYPE_DISTANCE_DELTA, DataType.AGGREGATE_DISTANCE_DELTA)
+                                .bucketByTime(bucketInterval, HelperUtil.processBucketUnit(bucketUnit))
+                                .setTimeRange(start, end, TimeUnit.MILLISECONDS)
+                                .build()));
 
 
         WritableArray map = Arguments.createArray();
 
-        //Used for aggregated data
-        if (dataReadResult.getBuckets().size() > 0) {
-            Log.i(TAG, "Number of buckets: " + dataReadResult.getBuckets().size());
-            for (Bucket bucket : dataReadResult.getBuckets()) {
-                List<DataSet> dataSets = bucket.getDataSets();
-                for (DataSet dataSet : dataSets) {
-                    processDataSet(dataSet, map);
+        for (DataReadResult dataReadResult : dataReadResults) {
+            //Used for aggregated data
+            if (dataReadResult.getBuckets().size() > 0) {
+                Log.i(TAG, "Number of buckets: " + dataReadResult.getBuckets().size());
+                for (Bucket bucket : dataReadResult.getBuckets()) {
+                    request.throwIfCancelled();
+                    List<DataSet> dataSets = bucket.getDataSets();
+                    for (DataSet dataSet : dataSets) {
+                        processDataSet(dataSet, map);
+                    }
                 }
             }
-        }
-        //Used for non-aggregated data
-        else if (dataReadResult.getDataSets().size() > 0) {
-            Log.i(TAG, "Number of returned DataSets: " + dataReadResult.getDataSets().size());
-            for (DataSet dataSet : dataReadResult.getDataSets()) {
-                processDataSet(dataSet, map);
+            //Used for non-aggregated data
+            else if (dataReadResult.getDataSets().size() > 0) {
+                Log.i(TAG, "Number of returned DataSets: " + dataReadResult.getDataSets().size());
+                for (DataSet dataSet : dataReadResult.getDataSets()) {
+                    processDataSet(dataSet, map);
+                }
             }
         }
 
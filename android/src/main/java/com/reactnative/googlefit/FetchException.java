@@ -0,0 +1,39 @@
+/**
+ * Copyright (c) 2017-present, Stanislav Doskalenko - doskalenko.s@gmail.com
+ * All rights reserved.
+ *
+ * This source code is licensed under the MIT-style license found in the
+ * LICENSE file in the root directory of this source tree.
+ *
+ **/
+
+package com.reactnative.googlefit;
+
+/**
+ * A read or write failure with a stable error code, so JS can tell it apart from a Google Fit error.
+ */
+class FetchException extends Exception {
+
+    static final String E_BUSY = "E_BUSY";
+    static final String E_CANCELLED = "E_CANCELLED";
+    static final String E_TIMEOUT = "E_TIMEOUT";
+    static final String E_READ = "E_READ";
+    static final String E_WRITE = "E_WRITE";
+    static final String E_QUEUED = "E_QUEUED";
+
+    private final String code;
+
+    FetchException(String code, String message) {
+        super(message);
+        this.code = code;
+    }
+
+    FetchException(String code, String message, Throwable cause) {
+        super(message, cause);
+        this.code = code;
+    }
+
+    String getCode() {
+        return code;
+    }
+}
@@ -0,0 +1,230 @@
+/**
+ * Copyright (c) 2017-present, Stanislav Doskalenko - doskalenko.s@gmail.com
+ * All rights reserved.
+ *
+ * This source code is licensed under the MIT-style license found in the
+ * LICENSE file in the root directory of this source tree.
+ *
+ **/
+
+package com.reactnative.googlefit;
+
+import android.util.Log;
+
+import androidx.annotation.Nullable;
+
+import com.facebook.react.bridge.Promise;
+
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs blocking History reads on bounded pools of worker threads, so a slow
+ * Google Fit query no longer holds the React Native module thread.
+ * Reads run in one of two lanes: interactive reads for what the user is looking at,
+ * and background reads for sync or backfill. Each lane has its own workers and
+ * concurrency limit, so bulk work never queues in front of an interactive read.
+ * The Promise of every submitted read is settled from the worker.
+ */
+class FetchExecutor {
+
+    interface Fetch {
+        Object run(FetchRequest request) throws Exception;
+    }
+
+    interface Completion {
+        void complete(Object result, Exception error);
+    }
+
+    enum Priority {
+        INTERACTIVE,
+        BACKGROUND;
+
+        static Priority fromString(@Nullable String value) {
+            return "background".equals(value) ? BACKGROUND : INTERACTIVE;
+        }
+    }
+
+    /**
+     * A submitted read. It may be queued in both lanes after a promotion,
+     * whichever worker picks it up first runs it and the other copy is skipped.
+     */
+    static class Job implements Runnable {
+        private final AtomicBoolean claimed = new AtomicBoolean(false);
+        private final Runnable body;
+        private volatile Priority priority;
+
+        Job(Runnable body, Priority priority) {
+            this.body = body;
+            this.priority = priority;
+        }
+
+        Priority getPriority() {
+            return priority;
+        }
+
+        @Override
+        public void run() {
+            if (claimed.compareAndSet(false, true)) {
+                body.run();
+            }
+        }
+    }
+
+    private static final String TAG = "RNGoogleFit";
+    private static final int DEFAULT_CONCURRENCY = 4;
+    private static final int DEFAULT_BACKGROUND_CONCURRENCY = 2;
+    private static final int MAX_CONCURRENCY = 16;
+    private static final int QUEUE_CAPACITY = 128;
+    private static final long KEEP_ALIVE_SECONDS = 30;
+
+    private final ThreadPoolExecutor interactive;
+    private final ThreadPoolExecutor background;
+    private final ScheduledThreadPoolExecutor timer;
+
+    FetchExecutor() {
+        this.interactive = createPool(DEFAULT_CONCURRENCY,
+                new FetchThreadFactory("RNGoogleFit-fetch", Thread.NORM_PRIORITY - 1));
+        this.background = createPool(DEFAULT_BACKGROUND_CONCURRENCY,
+                new FetchThreadFactory("RNGoogleFit-sync", Thread.MIN_PRIORITY));
+        this.timer = new ScheduledThreadPoolExecutor(1,
+                new FetchThreadFactory("RNGoogleFit-timer", Thread.NORM_PRIORITY));
+        this.timer.setRemoveOnCancelPolicy(true);
+    }
+
+    private static ThreadPoolExecutor createPool(int concurrency, ThreadFactory threadFactory) {
+        ThreadPoolExecutor pool = new ThreadPoolExecutor(
+                concurrency,
+                concurrency,
+                KEEP_ALIVE_SECONDS,
+                TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(QUEUE_CAPACITY),
+                threadFactory);
+        pool.allowCoreThreadTimeOut(true);
+        return pool;
+    }
+
+    /**
+     * Changes the number of reads of the given lane allowed to run at the same time.
+     * Values are clamped to [1, MAX_CONCURRENCY].
+     */
+    synchronized void setConcurrency(Priority priority, int concurrency) {
+        ThreadPoolExecutor pool = pool(priority);
+        int size = Math.max(1, Math.min(concurrency, MAX_CONCURRENCY));
+        // the core size may never exceed the maximum size, so grow and shrink in the matching order
+        if (size > pool.getMaximumPoolSize()) {
+            pool.setMaximumPoolSize(size);
+            pool.setCorePoolSize(size);
+        } else {
+            pool.setCorePoolSize(size);
+            pool.setMaximumPoolSize(size);
+        }
+    }
+
+    int getConcurrency(Priority priority) {
+        return pool(priority).getMaximumPoolSize();
+    }
+
+    Job submit(final FetchRequest request, Priority priority, final Fetch fetch, final Completion completion) {
+        Job job = new Job(() -> {
+            Object result = null;
+            Exception error = null;
+            request.attach(Thread.currentThread());
+            try {
+                request.throwIfCancelled();
+                result = fetch.run(request);
+            } catch (ExecutionException e) {
+                // Tasks.await wraps the Google Fit failure, surface the original one
+                Log.w(TAG, "Fetch failed: " + e.getCause());
+                error = e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+            } catch (Exception e) {
+                Log.w(TAG, "Fetch failed: " + e);
+                error = e;
+            } finally {
+                request.detach();
+            }
+            completion.complete(result, error);
+        }, priority);
+
+        try {
+            pool(priority).execute(job);
+        } catch (RejectedExecutionException e) {
+            completion.complete(null, new FetchException(FetchException.E_BUSY, "Too many pending Google Fit reads", e));
+        }
+        return job;
+    }
+
+    /**
+     * Moves a queued background job to the interactive lane,
+     * used when an interactive caller joins a background read.
+     */
+    void promote(Job job) {
+        if (job.priority == Priority.INTERACTIVE || job.claimed.get()) {
+            return;
+        }
+        job.priority = Priority.INTERACTIVE;
+        try {
+            interactive.execute(job);
+        } catch (RejectedExecutionException e) {
+            // the interactive lane is full, the job still runs from the background queue
+            Log.w(TAG, "Could not promote fetch: " + e);
+        }
+    }
+
+    void execute(Runnable runnable) {
+        interactive.execute(runnable);
+    }
+
+    /**
+     * Runs a short task, such as expiring a read, after delayMillis.
+     */
+    ScheduledFuture<?> schedule(Runnable runnable, long delayMillis) {
+        return timer.schedule(runnable, delayMillis, TimeUnit.MILLISECONDS);
+    }
+
+    void shutdown() {
+        interactive.shutdownNow();
+        background.shutdownNow();
+        timer.shutdownNow();
+    }
+
+    private ThreadPoolExecutor pool(Priority priority) {
+        return priority == Priority.BACKGROUND ? background : interactive;
+    }
+
+    static void settle(Promise promise, Object result, Exception error) {
+        if (error == null) {
+            promise.resolve(result);
+        } else if (error instanceof FetchException) {
+            promise.reject(((FetchException) error).getCode(), error.getMessage(), error);
+        } else {
+            promise.reject(error);
+        }
+    }
+
+    static class FetchThreadFactory implements ThreadFactory {
+        private final String prefix;
+        private final int priority;
+        private final AtomicInteger count = new AtomicInteger();
+
+        FetchThreadFactory(String prefix, int priority) {
+            this.prefix = prefix;
+            this.priority = priority;
+        }
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, prefix + "-" + count.incrementAndGet());
+            thread.setPriority(priority);
+            return thread;
+        }
+    }
+}
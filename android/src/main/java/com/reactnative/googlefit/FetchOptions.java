@@ -0,0 +1,76 @@
+/**
+ * Copyright (c) 2017-present, Stanislav Doskalenko - doskalenko.s@gmail.com
+ * All rights reserved.
+ *
+ * This source code is licensed under the MIT-style license found in the
+ * LICENSE file in the root directory of this source tree.
+ *
+ **/
+
+package com.reactnative.googlefit;
+
+import androidx.annotation.Nullable;
+
+import com.facebook.react.bridge.ReadableMap;
+
+/**
+ * Per-call options of a history read, parsed from the options map passed by JS.
+ */
+class FetchOptions {
+
+    static final FetchOptions DEFAULT = new FetchOptions(null);
+
+    @Nullable final String requestId;
+    final FetchExecutor.Priority priority;
+    /** 0 when the read has no deadline of its own */
+    final long timeoutMillis;
+    /** resolve a multi-part read with the parts that finished before the deadline */
+    final boolean partial;
+    /** resolve with the last known result right away and refresh it in the background */
+    final boolean staleWhileRevalidate;
+    /** resolve a list of data points as parallel arrays, see ColumnarFormat */
+    final boolean columnar;
+    /** resolve raw single value samples as one binary payload, see PackedSamples */
+    final boolean packed;
+    /** write the packed payload to a file in the cache directory instead of a base64 string */
+    final boolean packedToFile;
+    /** the fields the caller asked for */
+    final FieldProjection fields;
+
+    private FetchOptions(@Nullable ReadableMap options) {
+        this.requestId = getString(options, "requestId");
+        this.priority = FetchExecutor.Priority.fromString(getString(options, "priority"));
+        this.timeoutMillis = has(options, "timeout") ? Math.max(0, (long) options.getDouble("timeout")) : 0;
+        this.partial = has(options, "partial") && options.getBoolean("partial");
+        this.staleWhileRevalidate = has(options, "staleWhileRevalidate") && options.getBoolean("staleWhileRevalidate");
+        this.columnar = "columnar".equals(getString(options, "format"));
+        this.packed = "packed".equals(getString(options, "format"));
+        this.packedToFile = packed && "file".equals(getString(options, "packedOutput"));
+        this.fields = FieldProjection.from(has(options, "fields") ? options.getArray("fields") : null);
+    }
+
+    static FetchOptions from(@Nullable ReadableMap options) {
+        return options == null ? DEFAULT : new FetchOptions(options);
+    }
+
+    /**
+     * A partial result depends on the deadline and a packed one may be a file the app deletes,
+     * neither is cached.
+     */
+    boolean isCacheable() {
+        return !partial && !packed;
+    }
+
+    boolean hasDeadline() {
+        return timeoutMillis > 0;
+    }
+
+    private static boolean has(@Nullable ReadableMap options, String key) {
+        return options != null && options.hasKey(key) && !options.isNull(key);
+    }
+
+    @Nullable
+    private static String getString(@Nullable ReadableMap options, String key) {
+        return has(options, key) ? options.getString(key) : null;
+    }
+}
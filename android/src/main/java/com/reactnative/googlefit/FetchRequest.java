@@ -0,0 +1,196 @@
+/**
+ * Copyright (c) 2017-present, Stanislav Doskalenko - doskalenko.s@gmail.com
+ * All rights reserved.
+ *
+ * This source code is licensed under the MIT-style license found in the
+ * LICENSE file in the root directory of this source tree.
+ *
+ **/
+
+package com.reactnative.googlefit;
+
+import com.google.android.gms.common.api.ApiException;
+import com.google.android.gms.common.api.CommonStatusCodes;
+import com.google.android.gms.common.api.PendingResult;
+import com.google.android.gms.common.api.Result;
+import com.google.android.gms.common.api.Status;
+import com.google.android.gms.tasks.Task;
+import com.google.android.gms.tasks.Tasks;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Handle of one read running on the fetch executor. The History classes await Google Fit
+ * through it, so a cancelled read stops waiting, frees its worker and skips converting
+ * its result.
+ *
+ * A read may carry a deadline. It replaces the default await timeouts, and a read
+ * past its deadline fails with E_TIMEOUT. A read Google Fit answers with a failure status
+ * fails with E_READ, so it is never mistaken for a range without data. A read that fell
+ * back to a degraded result is marked incomplete, and the caches do not keep it.
+ */
+class FetchRequest {
+
+    private static final long DEFAULT_TIMEOUT_MILLIS = TimeUnit.MINUTES.toMillis(1);
+
+    private volatile boolean cancelled = false;
+    private volatile long deadlineNanos = Long.MAX_VALUE;
+    private volatile boolean partial = false;
+    private volatile boolean incomplete = false;
+    private Thread worker;
+    private PendingResult<?> pendingResult;
+
+    synchronized void attach(Thread worker) {
+        this.worker = worker;
+    }
+
+    synchronized void detach() {
+        this.worker = null;
+        // an interrupt aimed at this read must not leak into the next job of the pooled thread
+        Thread.interrupted();
+    }
+
+    void cancel() {
+        cancelled = true;
+        synchronized (this) {
+            if (pendingResult != null) {
+                pendingResult.cancel();
+            }
+            if (worker != null) {
+                worker.interrupt();
+            }
+        }
+    }
+
+    boolean isCancelled() {
+        return cancelled;
+    }
+
+    /**
+     * Sets the deadline to timeoutMillis from now, 0 means no deadline.
+     */
+    synchronized void setDeadline(long timeoutMillis) {
+        deadlineNanos = timeoutMillis > 0 ? System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis) : Long.MAX_VALUE;
+    }
+
+    /**
+     * Like setDeadline, but never brings the deadline forward, as a shared read
+     * must keep running for the waiter that is willing to wait the longest.
+     */
+    synchronized void extendDeadline(long timeoutMillis) {
+        if (deadlineNanos == Long.MAX_VALUE) {
+            return;
+        }
+        if (timeoutMillis <= 0) {
+            deadlineNanos = Long.MAX_VALUE;
+            return;
+        }
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        if (deadline - deadlineNanos > 0) {
+            deadlineNanos = deadline;
+        }
+    }
+
+    void setPartial(boolean partial) {
+        this.partial = partial;
+    }
+
+    /**
+     * Whether a multi-part read should resolve with the parts that finished in time
+     * instead of failing with E_TIMEOUT.
+     */
+    boolean isPartial() {
+        return partial;
+    }
+
+    /**
+     * Marks the result as degraded, e.g. calories without the basal part after the basal read failed.
+     */
+    void markIncomplete() {
+        incomplete = true;
+    }
+
+    /**
+     * Whether every read that went into the result succeeded, so it may be cached.
+     */
+    boolean isComplete() {
+        return !incomplete;
+    }
+
+    /**
+     * @return the time left until the deadline in milliseconds, or the given default timeout
+     * when the read has no deadline
+     */
+    long remainingMillis(long timeout, TimeUnit unit) throws FetchException {
+        long deadline = deadlineNanos;
+        if (deadline == Long.MAX_VALUE) {
+            return unit.toMillis(timeout);
+        }
+        long left = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+        if (left <= 0) {
+            throw timeout(null);
+        }
+        return left;
+    }
+
+    void throwIfCancelled() throws FetchException {
+        if (cancelled) {
+            throw new FetchException(FetchException.E_CANCELLED, "Request was cancelled");
+        }
+    }
+
+    <R extends Result> R await(PendingResult<R> pendingResult) throws FetchException {
+        return await(pendingResult, DEFAULT_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    <R extends Result> R await(PendingResult<R> pendingResult, long timeout, TimeUnit unit) throws FetchException {
+        synchronized (this) {
+            throwIfCancelled();
+            this.pendingResult = pendingResult;
+        }
+        try {
+            R result = pendingResult.await(remainingMillis(timeout, unit), TimeUnit.MILLISECONDS);
+            throwIfCancelled();
+            throwIfFailed(result.getStatus());
+            return result;
+        } finally {
+            synchronized (this) {
+                this.pendingResult = null;
+            }
+        }
+    }
+
+    <T> T await(Task<T> task) throws Exception {
+        return await(task, DEFAULT_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    <T> T await(Task<T> task, long timeout, TimeUnit unit) throws Exception {
+        throwIfCancelled();
+        try {
+            return Tasks.await(task, remainingMillis(timeout, unit), TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            throwIfCancelled();
+            throw e;
+        } catch (TimeoutException e) {
+            throw timeout(e);
+        }
+    }
+
+    /**
+     * Throws E_TIMEOUT or E_READ for a failure status, for the responses of Tasks as well.
+     */
+    static void throwIfFailed(Status status) throws FetchException {
+        if (status.getStatusCode() == CommonStatusCodes.TIMEOUT) {
+            throw timeout(null);
+        }
+        if (!status.isSuccess()) {
+            throw new FetchException(FetchException.E_READ,
+                    "Google Fit could not read the data: " + status.getStatusMessage(), new ApiException(status));
+        }
+    }
+
+    private static FetchException timeout(Throwable cause) {
+        return new FetchException(FetchException.E_TIMEOUT, "Google Fit did not answer in time", cause);
+    }
+}
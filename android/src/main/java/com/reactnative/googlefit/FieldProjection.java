@@ -0,0 +1,117 @@
+/**
+ * Copyright (c) 2017-present, Stanislav Doskalenko - doskalenko.s@gmail.com
+ * All rights reserved.
+ *
+ * This source code is licensed under the MIT-style license found in the
+ * LICENSE file in the root directory of this source tree.
+ *
+ **/
+
+package com.reactnative.googlefit;
+
+import androidx.annotation.Nullable;
+
+import com.facebook.react.bridge.ReadableArray;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The fields a read asked for with its fields option, every field when it did not.
+ *
+ * Any result is projected by dropping the other fields of its items. Lists are kept and
+ * projected in turn, so the steps of a step source stay, while its source and status
+ * need to be asked for. The reads with costly fields, like the data source ids of
+ * HelperUtil.processDataSet, also check wants() and skip extracting them.
+ */
+class FieldProjection {
+
+    static final FieldProjection ALL = new FieldProjection(null);
+
+    @Nullable private final Set<String> fields;
+
+    private FieldProjection(@Nullable Set<String> fields) {
+        this.fields = fields;
+    }
+
+    static FieldProjection from(@Nullable ReadableArray fields) {
+        if (fields == null) {
+            return ALL;
+        }
+        Set<String> names = new HashSet<>();
+        for (int i = 0; i < fields.size(); i++) {
+            names.add(fields.getString(i));
+        }
+        return new FieldProjection(names);
+    }
+
+    boolean isAll() {
+        return fields == null;
+    }
+
+    boolean wants(String field) {
+        return fields == null || fields.contains(field);
+    }
+
+    boolean wantsAny(String... names) {
+        for (String name : names) {
+            if (wants(name)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return the sorted fields, for the keys of the reads and cached buckets of this projection
+     */
+    String key() {
+        if (fields == null) {
+            return "";
+        }
+        List<String> sorted = new ArrayList<>(fields);
+        Collections.sort(sorted);
+        StringBuilder key = new StringBuilder();
+        for (String field : sorted) {
+            if (key.length() > 0) {
+                key.append(',');
+            }
+            key.append(field);
+        }
+        return key.toString();
+    }
+
+    /**
+     * @param result a result as plain Java collections, see ResponseCache.toJava
+     */
+    @SuppressWarnings("unchecked")
+    Object project(Object result) {
+        if (fields == null) {
+            return result;
+        }
+        if (result instanceof List) {
+            List<Object> projected = new ArrayList<>(((List<?>) result).size());
+            for (Object item : (List<?>) result) {
+                projected.add(project(item));
+            }
+            return projected;
+        }
+        if (result instanceof Map) {
+            Map<String, Object> projected = new HashMap<>();
+            for (Map.Entry<String, Object> field : ((Map<String, Object>) result).entrySet()) {
+                if (field.getValue() instanceof List) {
+                    projected.put(field.getKey(), project(field.getValue()));
+                } else if (fields.contains(field.getKey())) {
+                    projected.put(field.getKey(), field.getValue());
+                }
+            }
+            return projected;
+        }
+        return result;
+    }
+}
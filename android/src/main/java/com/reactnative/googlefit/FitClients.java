@@ -0,0 +1,119 @@
+/**
+ * Copyright (c) 2017-present, Stanislav Doskalenko - doskalenko.s@gmail.com
+ * All rights reserved.
+ *
+ * This source code is licensed under the MIT-style license found in the
+ * LICENSE file in the root directory of this source tree.
+ *
+ **/
+
+package com.reactnative.googlefit;
+
+import android.content.Context;
+
+import com.google.android.gms.auth.api.signin.GoogleSignIn;
+import com.google.android.gms.auth.api.signin.GoogleSignInAccount;
+import com.google.android.gms.auth.api.signin.GoogleSignInOptionsExtension;
+import com.google.android.gms.common.api.Scope;
+import com.google.android.gms.fitness.Fitness;
+import com.google.android.gms.fitness.FitnessOptions;
+import com.google.android.gms.fitness.HistoryClient;
+import com.google.android.gms.fitness.SessionsClient;
+import com.google.android.gms.fitness.data.DataType;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeSet;
+
+/**
+ * Registry of the FitnessOptions, GoogleSignInAccount and Fit clients used by the History
+ * classes, so a read does not build them again every time.
+ *
+ * FitnessOptions are kept per data type and access set. Accounts and clients are kept per
+ * scope set, since options asking for the same scopes resolve to the same account, so options
+ * built elsewhere, e.g. with session access, share them as well. The
+ * accounts and clients are dropped on sign-out and whenever authorization succeeds, which
+ * is when the signed-in account or its granted scopes may have changed.
+ */
+class FitClients {
+
+    private static class Entry {
+        final GoogleSignInAccount account;
+        HistoryClient historyClient;
+        SessionsClient sessionsClient;
+
+        Entry(GoogleSignInAccount account) {
+            this.account = account;
+        }
+    }
+
+    private final Context context;
+    private final Map<String, FitnessOptions> options = new HashMap<>();
+    private final Map<String, Entry> entries = new HashMap<>();
+
+    FitClients(Context context) {
+        this.context = context.getApplicationContext();
+    }
+
+    /**
+     * @return the FitnessOptions granting access to every given type
+     */
+    synchronized FitnessOptions options(int access, DataType... dataTypes) {
+        StringBuilder key = new StringBuilder().append(access);
+        for (DataType dataType : dataTypes) {
+            key.append('|').append(dataType.getName());
+        }
+        FitnessOptions fitnessOptions = options.get(key.toString());
+        if (fitnessOptions == null) {
+            FitnessOptions.Builder builder = FitnessOptions.builder();
+            for (DataType dataType : dataTypes) {
+                builder.addDataType(dataType, access);
+            }
+            fitnessOptions = builder.build();
+            options.put(key.toString(), fitnessOptions);
+        }
+        return fitnessOptions;
+    }
+
+    synchronized GoogleSignInAccount account(GoogleSignInOptionsExtension fitnessOptions) {
+        return entry(fitnessOptions).account;
+    }
+
+    synchronized HistoryClient historyClient(GoogleSignInOptionsExtension fitnessOptions) {
+        Entry entry = entry(fitnessOptions);
+        if (entry.historyClient == null) {
+            entry.historyClient = Fitness.getHistoryClient(context, entry.account);
+        }
+        return entry.historyClient;
+    }
+
+    synchronized SessionsClient sessionsClient(GoogleSignInOptionsExtension fitnessOptions) {
+        Entry entry = entry(fitnessOptions);
+        if (entry.sessionsClient == null) {
+            entry.sessionsClient = Fitness.getSessionsClient(context, entry.account);
+        }
+        return entry.sessionsClient;
+    }
+
+    /**
+     * Drops the accounts and clients, the next call builds them for the current account.
+     */
+    synchronized void invalidate() {
+        entries.clear();
+    }
+
+    private Entry entry(GoogleSignInOptionsExtension fitnessOptions) {
+        // sorted, so the same scopes asked in another order share the entry
+        TreeSet<String> scopes = new TreeSet<>();
+        for (Scope scope : fitnessOptions.getImpliedScopes()) {
+            scopes.add(scope.getScopeUri());
+        }
+        String key = scopes.toString();
+        Entry entry = entries.get(key);
+        if (entry == null) {
+            entry = new Entry(GoogleSignIn.getAccountForExtension(context, fitnessOptions));
+            entries.put(key, entry);
+        }
+        return entry;
+    }
+}
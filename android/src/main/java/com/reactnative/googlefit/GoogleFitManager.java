@@ -61,6 +61,13 @@ public class GoogleFitManager implements ActivityEventListener {
     private ActivityHistory activityHistory;
     private HydrationHistory hydrationHistory;
     private SleepHistory sleepHistory;
+    private SummaryHistory summaryHistory;
+    private final WriteQueue writeQueue = new WriteQueue(this);
+    private WriteJournal writeJournal;
+    private TimeSeriesStore timeSeriesStore;
+    private FitClients fitClients;
+    private final SessionCache sessionCache = new SessionCache();
+    private Runnable onConnected;
 
     private static final String TAG = "RNGoogleFit";
 //    reserve to replace deprecated Api in the future
@@ -85,6 +92,10 @@ public class GoogleFitManager implements ActivityEventListener {
         this.activityHistory = new ActivityHistory(mReactContext, this);
         this.hydrationHistory = new HydrationHistory(mReactContext, this);
         this.sleepHistory = new SleepHistory(mReactContext, this);
+        this.summaryHistory = new SummaryHistory(mReactContext, this);
+        this.writeJournal = new WriteJournal(mReactContext, this);
+        this.timeSeriesStore = new TimeSeriesStore(mReactContext, this);
+        this.fitClients = new FitClients(mReactContext);
         //        this.stepSensor = new StepSensor(mReactContext, activity);
     }
 
@@ -131,8 +142,27 @@ public class GoogleFitManager implements ActivityEventListener {
 
     public SleepHistory getSleepHistory() { return sleepHistory; }
 
+    public SummaryHistory getSummaryHistory() { return summaryHistory; }
+
+    WriteQueue getWriteQueue() { return writeQueue; }
+
+    WriteJournal getWriteJournal() { return writeJournal; }
+
+    TimeSeriesStore getTimeSeriesStore() { return timeSeriesStore; }
+
+    FitClients getFitClients() { return fitClients; }
+
+    SessionCache getSessionCache() { return sessionCache; }
+
+    /**
+     * @param onConnected run every time the client connects, after the journaled writes are replayed
+     */
+    void setOnConnected(Runnable onConnected) { this.onConnected = onConnected; }
+
     public void authorize(ArrayList<String> userScopes) {
         final ReactContext mReactContext = this.mReactContext;
+        // the scopes asked for may differ from the ones the clients were built with
+        fitClients.invalidate();
 
 //    reserve to replace deprecated Api in the future
 //        GoogleSignInOptions.Builder optionsBuilder =
@@ -164,7 +194,16 @@ public class GoogleFitManager implements ActivityEventListener {
                             @Override
                             public void onConnected(@Nullable Bundle bundle) {
                                 Log.i(TAG, "Authorization - Connected");
+                                fitClients.invalidate();
                                 sendEvent(mReactContext, "GoogleFitAuthorizeSuccess", null);
+                                try {
+                                    writeJournal.replay();
+                                } catch (RuntimeException e) {
+                                    Log.w(TAG, "Could not replay the journaled writes: " + e);
+                                }
+                                if (onConnected != null) {
+                                    onConnected.run();
+                                }
                             }
 
                             @Override
@@ -219,6 +258,12 @@ public class GoogleFitManager implements ActivityEventListener {
         GoogleSignInAccount gsa = GoogleSignIn.getAccountForScopes(mReactContext, new Scope(tempScope));
         Fitness.getConfigClient(mReactContext, gsa).disableFit();
         mApiClient.disconnect();
+        fitClients.invalidate();
+        bodyHistory.clearLatestValues();
+        sessionCache.clear();
+        calorieHistory.clear();
+        writeJournal.clear();
+        timeSeriesStore.clear(null);
 
         googleSignInClient.signOut();
     }
@@ -18,8 +18,11 @@ import android.content.pm.PackageManager;
 import android.os.Build;
 import android.util.Log;
 import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.RejectedExecutionException;
 import android.content.Intent;
 
+import androidx.annotation.Nullable;
 import androidx.annotation.RequiresApi;
 
 /* TODO: Stayfitt code */
@@ -28,18 +31,23 @@ import androidx.core.content.ContextCompat;
 
 import com.facebook.react.bridge.Arguments;
 import com.facebook.react.bridge.Callback;
+import com.facebook.react.bridge.JavaOnlyMap;
 import com.facebook.react.bridge.Promise;
+import com.facebook.react.bridge.PromiseImpl;
 import com.facebook.react.bridge.ReactApplicationContext;
 import com.facebook.react.bridge.ReactContext;
 import com.facebook.react.bridge.ReactContextBaseJavaModule;
 import com.facebook.react.bridge.ReactMethod;
 import com.facebook.react.bridge.ReadableArray;
 import com.facebook.react.bridge.ReadableMap;
+import com.facebook.react.bridge.ReadableMapKeySetIterator;
 import com.facebook.react.bridge.LifecycleEventListener;
 import com.facebook.react.uimanager.IllegalViewOperationException;
 import com.google.android.gms.fitness.data.DataType;
 import com.google.android.gms.fitness.data.HealthDataTypes;
+import com.facebook.react.bridge.WritableArray;
 import com.facebook.react.bridge.WritableMap;
+import com.facebook.react.modules.core.DeviceEventManagerModule;
 
 
 public class GoogleFitModule extends ReactContextBaseJavaModule implements LifecycleEventListener {
@@ -48,10 +56,27 @@ public class GoogleFitModule extends ReactContextBaseJavaModule implements Lifec
     private ReactContext mReactContext;
     private GoogleFitManager mGoogleFitManager = null;
     private String GOOGLE_FIT_APP_URI = "com.google.android.apps.fitness";
+    private final FetchExecutor mFetchExecutor = new FetchExecutor();
+    // reads a workout write can change
+    private static final String[] WORKOUT_METRICS = {
+            "steps", "distance", "calories", "moveMinutes", "activitySamples",
+            "dailySummary", "activitySessions", "workoutSessions"
+    };
+
+    private final ResponseCache mResponseCache = new ResponseCache();
+    private final BucketCache mBucketCache = new BucketCache();
+    private final QueryCoalescer mQueryCoalescer = new QueryCoalescer(mFetchExecutor, mResponseCache, this::sendDataUpdated);
+    private final MemoryTrimmer mMemoryTrimmer = new MemoryTrimmer(mResponseCache, mBucketCache);
+    private final CachedAggregates mCachedAggregates = new CachedAggregates(mResponseCache);
+
+    // the metrics of CachedAggregates.METRICS are warmed up once authorized, see prefetch()
+    private List<String> mPrefetchMetrics = new ArrayList<>();
+    private int mPrefetchDays = 7;
 
     public GoogleFitModule(ReactApplicationContext reactContext) {
         super(reactContext);
         this.mReactContext = reactContext;
+        reactContext.getApplicationContext().registerComponentCallbacks(mMemoryTrimmer);
     }
 
 
@@ -83,12 +108,197 @@ public class GoogleFitModule extends ReactContextBaseJavaModule implements Lifec
         // todo disconnect from Google Fit
     }
 
+    @Override
+    public void onCatalystInstanceDestroy() {
+        super.onCatalystInstanceDestroy();
+        mReactContext.getApplicationContext().unregisterComponentCallbacks(mMemoryTrimmer);
+        mFetchExecutor.shutdown();
+        if (mGoogleFitManager != null) {
+            mGoogleFitManager.getWriteQueue().shutdown();
+            mGoogleFitManager.getTimeSeriesStore().close();
+        }
+    }
+
+    @ReactMethod
+    public void configure(ReadableMap options) {
+        if (options.hasKey("fetchConcurrency")) {
+            mFetchExecutor.setConcurrency(FetchExecutor.Priority.INTERACTIVE, options.getInt("fetchConcurrency"));
+        }
+        if (options.hasKey("backgroundFetchConcurrency")) {
+            mFetchExecutor.setConcurrency(FetchExecutor.Priority.BACKGROUND, options.getInt("backgroundFetchConcurrency"));
+        }
+        if (options.hasKey("cacheSize")) {
+            mResponseCache.setMaxBytes((long) options.getDouble("cacheSize"));
+        }
+        if (options.hasKey("settleHorizon")) {
+            mBucketCache.setSettleMillis((long) options.getDouble("settleHorizon"));
+        }
+        if (options.hasKey("cacheTtl")) {
+            ReadableMap ttls = options.getMap("cacheTtl");
+            ReadableMapKeySetIterator iterator = ttls.keySetIterator();
+            while (iterator.hasNextKey()) {
+                String metric = iterator.nextKey();
+                mResponseCache.setTtl(metric, (long) ttls.getDouble(metric));
+            }
+        }
+        if (options.hasKey("prefetch")) {
+            configurePrefetch(options.getMap("prefetch"));
+        }
+    }
+
+    private void configurePrefetch(@Nullable ReadableMap prefetch) {
+        List<String> metrics = new ArrayList<>();
+        if (prefetch != null && prefetch.hasKey("metrics")) {
+            for (Object metric : prefetch.getArray("metrics").toArrayList()) {
+                if (CachedAggregates.isSupported((String) metric)) {
+                    metrics.add((String) metric);
+                } else {
+                    Log.w(REACT_MODULE, "Cannot prefetch " + metric);
+                }
+            }
+        }
+        mPrefetchMetrics = metrics;
+        if (prefetch != null && prefetch.hasKey("days")) {
+            mPrefetchDays = Math.max(1, prefetch.getInt("days"));
+        }
+    }
+
+    /**
+     * Reads the configured metrics in daily buckets for today and for the last days, in the background
+     * lane, right after the client connected. The ranges are the ones JS asks with startOf('day') and
+     * endOf('day'), so those reads hit the response cache, and any daily read hits the settled buckets.
+     */
+    private void prefetch() {
+        List<String> metrics = mPrefetchMetrics;
+        if (metrics.isEmpty()) {
+            return;
+        }
+        long[] today = CachedAggregates.dayRange(1);
+        long todayStart = today[0];
+        long todayEnd = today[1];
+        long rangeStart = CachedAggregates.dayRange(mPrefetchDays)[0];
+
+        ReadableMap options = JavaOnlyMap.of("priority", "background");
+        for (String metric : metrics) {
+            prefetch(metric, todayStart, todayEnd, options);
+            if (rangeStart < todayStart) {
+                prefetch(metric, rangeStart, todayEnd, options);
+            }
+        }
+    }
+
+    private void prefetch(String metric, long startTime, long endTime, ReadableMap options) {
+        // nobody waits for the result, the caches keep it
+        Promise ignored = new PromiseImpl(null, null);
+        switch (metric) {
+            case "steps":
+                getDailyStepCountSamples(startTime, endTime, 1, "DAY", options, ignored);
+                break;
+            case "distance":
+                getDailyDistanceSamples(startTime, endTime, 1, "DAY", options, ignored);
+                break;
+            case "calories":
+                getDailyCalorieSamples(startTime, endTime, true, 1, "DAY", options, ignored);
+                break;
+            case "moveMinutes":
+                getMoveMinutes(startTime, endTime, 1, "DAY", options, ignored);
+                break;
+        }
+    }
+
+    /**
+     * Returns the total of today for steps, distance, calories or moveMinutes synchronously when the
+     * daily read of today is cached, even past its TTL, null otherwise. A miss or an expired read starts
+     * that read in the background lane, so a later call, or a Promise read of the same range, finds it.
+     */
+    @ReactMethod(isBlockingSynchronousMethod = true)
+    public Double getCachedTodayTotal(String metric) {
+        if (!CachedAggregates.isSupported(metric)) {
+            return null;
+        }
+        Double total = mCachedAggregates.todayTotal(metric);
+        if (total == null || !mCachedAggregates.isFresh(metric, 1)) {
+            long[] today = CachedAggregates.dayRange(1);
+            refreshInBackground(metric, today[0], today[1]);
+        }
+        return total;
+    }
+
+    /**
+     * Returns the daily { startDate, endDate, value } buckets of the last days up to the end of today
+     * synchronously when that read is cached, even past its TTL, null otherwise. A miss or an expired
+     * read starts that read in the background.
+     */
+    @ReactMethod(isBlockingSynchronousMethod = true)
+    public WritableArray getCachedDailySamples(String metric, int days) {
+        if (!CachedAggregates.isSupported(metric)) {
+            return null;
+        }
+        WritableArray samples = mCachedAggregates.dailySamples(metric, days);
+        if (samples == null || !mCachedAggregates.isFresh(metric, days)) {
+            long[] range = CachedAggregates.dayRange(days);
+            refreshInBackground(metric, range[0], range[1]);
+        }
+        return samples;
+    }
+
+    private void refreshInBackground(String metric, long startTime, long endTime) {
+        if (mGoogleFitManager != null && mGoogleFitManager.isAuthorized()) {
+            prefetch(metric, startTime, endTime, JavaOnlyMap.of("priority", "background"));
+        }
+    }
+
+    /**
+     * Resolves with the hit, miss and eviction counts of the read cache, its current size in bytes
+     * and the number of settled buckets kept, along with what memory trims dropped.
+     */
+    @ReactMethod
+    public void getCacheStats(Promise promise) {
+        WritableMap stats = mResponseCache.getStats();
+        stats.putInt("settledBuckets", mBucketCache.size());
+        mMemoryTrimmer.addStats(stats);
+        promise.resolve(stats);
+    }
+
+    @ReactMethod
+    public void clearCache(Promise promise) {
+        mResponseCache.clear();
+        mBucketCache.clear();
+        if (mGoogleFitManager != null) {
+            mGoogleFitManager.getBodyHistory().clearLatestValues();
+            mGoogleFitManager.getSessionCache().clear();
+            mGoogleFitManager.getCalorieHistory().clear();
+        }
+        promise.resolve(null);
+    }
+
+    /**
+     * Cancels a pending read started with the given requestId option.
+     * The read itself rejects with E_CANCELLED, this Promise resolves to false when nothing matched.
+     */
+    @ReactMethod
+    public void cancelRequest(String requestId, Promise promise) {
+        promise.resolve(mQueryCoalescer.cancel(requestId));
+    }
+
+    /**
+     * Resolves with the number of saved samples waiting in the write journal
+     * and the number of writes queued for Google Fit.
+     */
+    @ReactMethod
+    public void getPendingWrites(Promise promise) {
+        WritableMap map = Arguments.createMap();
+        map.putInt("journaled", mGoogleFitManager != null ? mGoogleFitManager.getWriteJournal().size() : 0);
+        map.putInt("queued", mGoogleFitManager != null ? mGoogleFitManager.getWriteQueue().size() : 0);
+        promise.resolve(map);
+    }
+
     @ReactMethod
     public void authorize(ReadableMap options) {
         final Activity activity = getCurrentActivity();
 
         if (mGoogleFitManager == null) {
-            mGoogleFitManager = new GoogleFitManager(mReactContext, activity);
+            mGoogleFitManager = createGoogleFitManager(activity);
         }
 
         if (mGoogleFitManager.isAuthorized()) {
@@ -122,6 +332,9 @@ public class GoogleFitModule extends ReactContextBaseJavaModule implements Lifec
             if (mGoogleFitManager != null) {
                 mGoogleFitManager.disconnect(getCurrentActivity());
             }
+            // cached reads belong to the account that just signed out
+            mResponseCache.clear();
+            mBucketCache.clear();
             promise.resolve(null);
         } catch (Exception e) {
             promise.reject(e);
@@ -143,17 +356,29 @@ public class GoogleFitModule extends ReactContextBaseJavaModule implements Lifec
                                          double endDate,
                                          int bucketInterval,
                                          String bucketUnit,
+                                         ReadableMap options,
                                          Promise promise
     ) {
-        try {
-            mGoogleFitManager.getStepHistory().aggregateDataByDate((long) startDate, (long) endDate,
-                    bucketInterval,
-                    bucketUnit,
-                    promise
-            );
-        } catch (Error e) {
-            promise.reject(e);
-        }
+        String key = HelperUtil.queryKey("steps", (long) startDate, (long) endDate, bucketInterval, bucketUnit);
+        FetchOptions fetchOptions = FetchOptions.from(options);
+        mQueryCoalescer.submit(key, fetchOptions, promise, request ->
+                mBucketCache.readSources(seriesKey("steps", bucketInterval, bucketUnit, fetchOptions.fields), "steps",
+                        (long) startDate, (long) endDate, bucketInterval, bucketUnit, request, (start, end) ->
+                                mGoogleFitManager.getStepHistory().aggregateDataByDate(start, end,
+                                        bucketInterval,
+                                        bucketUnit,
+                                        fetchOptions.fields,
+                                        request
+                                )));
+    }
+
+    /**
+     * Buckets read without some of their fields are kept apart from the complete ones.
+     */
+    private static String seriesKey(String metric, int bucketInterval, String bucketUnit, FieldProjection fields) {
+        return fields.isAll()
+                ? BucketCache.seriesKey(metric, bucketInterval, bucketUnit)
+                : BucketCache.seriesKey(metric, bucketInterval, bucketUnit, "fields:" + fields.key());
     }
 
     @ReactMethod
@@ -161,13 +386,13 @@ public class GoogleFitModule extends ReactContextBaseJavaModule implements Lifec
                                    double endDate,
                                    int bucketInterval,
                                    String bucketUnit,
+                                   ReadableMap options,
                                    Promise promise)
     {
-        try {
-            promise.resolve(mGoogleFitManager.getActivityHistory().getActivitySamples((long)startDate, (long)endDate, bucketInterval, bucketUnit));
-        } catch (IllegalViewOperationException e) {
-            promise.reject(e);
-        }
+        String key = HelperUtil.queryKey("activitySamples", (long) startDate, (long) endDate, bucketInterval, bucketUnit);
+        FetchOptions fetchOptions = FetchOptions.from(options);
+        mQueryCoalescer.submit(key, fetchOptions, promise, request ->
+                mGoogleFitManager.getActivityHistory().getActivitySamples((long)startDate, (long)endDate, bucketInterval, bucketUnit, fetchOptions.fields, request));
     }
 
     @ReactMethod
@@ -175,13 +400,111 @@ public class GoogleFitModule extends ReactContextBaseJavaModule implements Lifec
                                double endDate,
                                int bucketInterval,
                                String bucketUnit,
+                               ReadableMap options,
                                Promise promise)
     {
-        try {
-            promise.resolve(mGoogleFitManager.getActivityHistory().getMoveMinutes((long)startDate, (long)endDate, bucketInterval, bucketUnit));
-        } catch (Exception e) {
-            promise.reject(e);
+        String key = HelperUtil.queryKey("moveMinutes", (long) startDate, (long) endDate, bucketInterval, bucketUnit);
+        FetchOptions fetchOptions = FetchOptions.from(options);
+        mQueryCoalescer.submit(key, fetchOptions, promise, request ->
+                mBucketCache.read(seriesKey("moveMinutes", bucketInterval, bucketUnit, fetchOptions.fields),
+                        (long) startDate, (long) endDate, bucketInterval, bucketUnit, request, (start, end) ->
+                                mGoogleFitManager.getActivityHistory().getMoveMinutes(start, end, bucketInterval, bucketUnit, fetchOptions.fields, request)));
+    }
+
+    @ReactMethod
+    public void getDailySummary(double startDate,
+                                double endDate,
+                                int bucketInterval,
+                                String bucketUnit,
+                                ReadableArray metrics,
+                                ReadableMap options,
+                                Promise promise)
+    {
+        List<String> metricList = new ArrayList<>();
+        for (int i = 0; i < metrics.size(); i++) {
+            String metric = metrics.getString(i);
+            if (!SummaryHistory.isMetric(metric)) {
+                promise.reject(new IllegalArgumentException("Unknown summary metric " + metric));
+                return;
+            }
+            if (!metricList.contains(metric)) {
+                metricList.add(metric);
+            }
+        }
+        String key = HelperUtil.queryKey("dailySummary", (long) startDate, (long) endDate, bucketInterval, bucketUnit, metricList);
+        mQueryCoalescer.submit(key, FetchOptions.from(options), promise, request ->
+                mBucketCache.read(BucketCache.seriesKey("dailySummary", bucketInterval, bucketUnit, metricList),
+                        (long) startDate, (long) endDate, bucketInterval, bucketUnit, request, (start, end) ->
+                                mGoogleFitManager.getSummaryHistory().getDailySummary(start, end, bucketInterval, bucketUnit, metricList, request)));
+    }
+
+    /**
+     * Mirrors the given history types into the on-device store, each from its last sync on.
+     */
+    @ReactMethod
+    public void syncHistory(ReadableArray types, ReadableMap options, Promise promise) {
+        List<String> typeList = new ArrayList<>();
+        for (int i = 0; i < types.size(); i++) {
+            String type = types.getString(i);
+            if (!TimeSeriesStore.isType(type)) {
+                promise.reject(new IllegalArgumentException("Unknown history type " + type));
+                return;
+            }
+            if (!typeList.contains(type)) {
+                typeList.add(type);
+            }
+        }
+        long since = options.hasKey("since") ? (long) options.getDouble("since") : 0;
+        String key = HelperUtil.queryKey("sync", since, 0, 0, "MILLISECOND", typeList);
+        mQueryCoalescer.submit(key, FetchOptions.from(options), promise, request ->
+                mGoogleFitManager.getTimeSeriesStore().sync(typeList, since, request));
+    }
+
+    /**
+     * Reads synced history from the on-device store, without asking Google Fit.
+     * A bucketInterval of 0 returns the stored samples themselves.
+     */
+    @ReactMethod
+    public void getStoredSamples(String type,
+                                 double startDate,
+                                 double endDate,
+                                 int bucketInterval,
+                                 String bucketUnit,
+                                 ReadableMap options,
+                                 Promise promise) {
+        if (!TimeSeriesStore.isType(type)) {
+            promise.reject(new IllegalArgumentException("Unknown history type " + type));
+            return;
+        }
+        long bucketMillis = HelperUtil.processBucketUnit(bucketUnit).toMillis(bucketInterval);
+        String key = HelperUtil.queryKey("stored", (long) startDate, (long) endDate, bucketInterval, bucketUnit, type);
+        mQueryCoalescer.submit(key, FetchOptions.from(options), promise, request ->
+                mGoogleFitManager.getTimeSeriesStore().query(type, (long) startDate, (long) endDate, bucketMillis));
+    }
+
+    @ReactMethod
+    public void getSyncState(Promise promise) {
+        mQueryCoalescer.submit("syncState", FetchOptions.DEFAULT, promise, request ->
+                mGoogleFitManager.getTimeSeriesStore().getWatermarks());
+    }
+
+    /**
+     * Forgets the stored history of the given types, or of every type when types is null.
+     */
+    @ReactMethod
+    public void clearStoredHistory(@Nullable ReadableArray types, Promise promise) {
+        List<String> typeList = null;
+        if (types != null) {
+            typeList = new ArrayList<>();
+            for (int i = 0; i < types.size(); i++) {
+                typeList.add(types.getString(i));
+            }
         }
+        final List<String> cleared = typeList;
+        mQueryCoalescer.submit("clearStored|" + cleared, FetchOptions.DEFAULT, promise, request -> {
+            mGoogleFitManager.getTimeSeriesStore().clear(cleared);
+            return null;
+        });
     }
 
     @ReactMethod
@@ -190,8 +513,14 @@ public class GoogleFitModule extends ReactContextBaseJavaModule implements Lifec
                                 Callback errorCallback,
                                 Callback successCallback) {
         try {
-            mGoogleFitManager.getStepHistory().getUserInputSteps((long) startDate, (long) endDate, successCallback);
-        } catch (IllegalViewOperationException e) {
+            mFetchExecutor.execute(() -> {
+                try {
+                    mGoogleFitManager.getStepHistory().getUserInputSteps((long) startDate, (long) endDate, new FetchRequest(), successCallback);
+                } catch (Exception e) {
+                    errorCallback.invoke(e.getMessage());
+                }
+            });
+        } catch (RejectedExecutionException e) {
             errorCallback.invoke(e.getMessage());
         }
     }
@@ -201,12 +530,13 @@ public class GoogleFitModule extends ReactContextBaseJavaModule implements Lifec
                                         double endDate,
                                         int bucketInterval,
                                         String bucketUnit,
+                                        ReadableMap options,
                                         Promise promise) {
-        try {
-            promise.resolve(mGoogleFitManager.getDistanceHistory().aggregateDataByDate((long) startDate, (long) endDate, bucketInterval, bucketUnit));
-        } catch (IllegalViewOperationException e) {
-            promise.reject(e);
-        }
+        String key = HelperUtil.queryKey("distance", (long) startDate, (long) endDate, bucketInterval, bucketUnit);
+        mQueryCoalescer.submit(key, FetchOptions.from(options), promise, request ->
+                mBucketCache.read(BucketCache.seriesKey("distance", bucketInterval, bucketUnit),
+                        (long) startDate, (long) endDate, bucketInterval, bucketUnit, request, (start, end) ->
+                                mGoogleFitManager.getDistanceHistory().aggregateDataByDate(start, end, bucketInterval, bucketUnit, request)));
     }
 
     @ReactMethod
@@ -214,14 +544,13 @@ public class GoogleFitModule extends ReactContextBaseJavaModule implements Lifec
                                  double endDate,
                                  int bucketInterval,
                                  String bucketUnit,
+                                 ReadableMap options,
                                  Promise promise) {
-        try {
-            BodyHistory bodyHistory = mGoogleFitManager.getBodyHistory();
-            bodyHistory.setDataType(DataType.TYPE_WEIGHT);
-            promise.resolve(bodyHistory.getHistory((long)startDate, (long)endDate, bucketInterval, bucketUnit));
-        } catch (IllegalViewOperationException e) {
-            promise.reject(e);
-        }
+        String key = HelperUtil.queryKey("weight", (long) startDate, (long) endDate, bucketInterval, bucketUnit);
+        mQueryCoalescer.submit(key, FetchOptions.from(options), promise, request ->
+                mBucketCache.read(BucketCache.seriesKey("weight", bucketInterval, bucketUnit),
+                        (long) startDate, (long) endDate, bucketInterval, bucketUnit, request, (start, end) ->
+                                mGoogleFitManager.getBodyHistory().getHistory(DataType.TYPE_WEIGHT, start, end, bucketInterval, bucketUnit, request)));
     }
 
     @ReactMethod
@@ -229,14 +558,11 @@ public class GoogleFitModule extends ReactContextBaseJavaModule implements Lifec
                                  double endDate,
                                  int bucketInterval,
                                  String bucketUnit,
+                                 ReadableMap options,
                                  Promise promise) {
-        try {
-            BodyHistory bodyHistory = mGoogleFitManager.getBodyHistory();
-            bodyHistory.setDataType(DataType.TYPE_HEIGHT);
-            promise.resolve(bodyHistory.getHistory((long)startDate, (long)endDate, bucketInterval, bucketUnit));
-        } catch (IllegalViewOperationException e) {
-            promise.reject(e);
-        }
+        String key = HelperUtil.queryKey("height", (long) startDate, (long) endDate, bucketInterval, bucketUnit);
+        mQueryCoalescer.submit(key, FetchOptions.from(options), promise, request ->
+                mGoogleFitManager.getBodyHistory().getHistory(DataType.TYPE_HEIGHT, (long)startDate, (long)endDate, bucketInterval, bucketUnit, request));
     }
 
     @ReactMethod
@@ -245,9 +571,7 @@ public class GoogleFitModule extends ReactContextBaseJavaModule implements Lifec
                            Callback successCallback) {
 
         try {
-            BodyHistory bodyHistory = mGoogleFitManager.getBodyHistory();
-            bodyHistory.setDataType(DataType.TYPE_HEIGHT);
-            successCallback.invoke(bodyHistory.save(heightSample));
+            mGoogleFitManager.getWriteJournal().write(WriteJournal.HEIGHT, heightSample, writeCallbacks(errorCallback, successCallback, "height"));
         } catch (IllegalViewOperationException e) {
             errorCallback.invoke(e.getMessage());
         }
@@ -260,13 +584,14 @@ public class GoogleFitModule extends ReactContextBaseJavaModule implements Lifec
                                        boolean basalCalculation,
                                        int bucketInterval,
                                        String bucketUnit,
+                                       ReadableMap options,
                                        Promise promise) {
 
-        try {
-            promise.resolve(mGoogleFitManager.getCalorieHistory().aggregateDataByDate((long) startDate, (long) endDate, basalCalculation, bucketInterval, bucketUnit));
-        } catch (IllegalViewOperationException e) {
-            promise.reject(e);
-        }
+        String key = HelperUtil.queryKey("calories", (long) startDate, (long) endDate, bucketInterval, bucketUnit, basalCalculation);
+        mQueryCoalescer.submit(key, FetchOptions.from(options), promise, request ->
+                mBucketCache.read(BucketCache.seriesKey("calories", bucketInterval, bucketUnit, basalCalculation),
+                        (long) startDate, (long) endDate, bucketInterval, bucketUnit, request, (start, end) ->
+                                mGoogleFitManager.getCalorieHistory().aggregateDataByDate(start, end, basalCalculation, bucketInterval, bucketUnit, request)));
     }
 
     @ReactMethod
@@ -274,7 +599,7 @@ public class GoogleFitModule extends ReactContextBaseJavaModule implements Lifec
                          Callback errorCallback,
                          Callback successCallback) {
         try {
-            successCallback.invoke(mGoogleFitManager.getCalorieHistory().saveFood(foodSample));
+            mGoogleFitManager.getWriteJournal().write(WriteJournal.FOOD, foodSample, writeCallbacks(errorCallback, successCallback, "nutrition"));
         } catch (IllegalViewOperationException e) {
             errorCallback.invoke(e.getMessage());
         }
@@ -285,12 +610,13 @@ public class GoogleFitModule extends ReactContextBaseJavaModule implements Lifec
                                          double endDate,
                                          int bucketInterval,
                                          String bucketUnit,
+                                         ReadableMap options,
                                          Promise promise) {
-        try {
-            promise.resolve(mGoogleFitManager.getNutritionHistory().aggregateDataByDate((long) startDate, (long) endDate, bucketInterval, bucketUnit));
-        } catch (IllegalViewOperationException e) {
-            promise.reject(e);
-        }
+        String key = HelperUtil.queryKey("nutrition", (long) startDate, (long) endDate, bucketInterval, bucketUnit);
+        mQueryCoalescer.submit(key, FetchOptions.from(options), promise, request ->
+                mBucketCache.read(BucketCache.seriesKey("nutrition", bucketInterval, bucketUnit),
+                        (long) startDate, (long) endDate, bucketInterval, bucketUnit, request, (start, end) ->
+                                mGoogleFitManager.getNutritionHistory().aggregateDataByDate(start, end, bucketInterval, bucketUnit, request)));
     }
 
     @ReactMethod
@@ -298,9 +624,7 @@ public class GoogleFitModule extends ReactContextBaseJavaModule implements Lifec
                            Callback errorCallback,
                            Callback successCallback) {
         try {
-            BodyHistory bodyHistory = mGoogleFitManager.getBodyHistory();
-            bodyHistory.setDataType(DataType.TYPE_WEIGHT);
-            successCallback.invoke(bodyHistory.save(weightSample));
+            mGoogleFitManager.getWriteJournal().write(WriteJournal.WEIGHT, weightSample, writeCallbacks(errorCallback, successCallback, "weight"));
         } catch (IllegalViewOperationException e) {
             errorCallback.invoke(e.getMessage());
         }
@@ -311,7 +635,7 @@ public class GoogleFitModule extends ReactContextBaseJavaModule implements Lifec
         try {
             BodyHistory bodyHistory = mGoogleFitManager.getBodyHistory();
             bodyHistory.setDataType(DataType.TYPE_WEIGHT);
-            successCallback.invoke(bodyHistory.delete(options));
+            bodyHistory.delete(options, writeCallbacks(errorCallback, successCallback, "weight"));
         } catch (IllegalViewOperationException e) {
             errorCallback.invoke(e.getMessage());
         }
@@ -322,7 +646,7 @@ public class GoogleFitModule extends ReactContextBaseJavaModule implements Lifec
         try {
             BodyHistory bodyHistory = mGoogleFitManager.getBodyHistory();
             bodyHistory.setDataType(DataType.TYPE_HEIGHT);
-            successCallback.invoke(bodyHistory.delete(options));
+            bodyHistory.delete(options, writeCallbacks(errorCallback, successCallback, "height"));
         } catch (IllegalViewOperationException e) {
             errorCallback.invoke(e.getMessage());
         }
@@ -368,9 +692,17 @@ public class GoogleFitModule extends ReactContextBaseJavaModule implements Lifec
         }
     }
 
+    private GoogleFitManager createGoogleFitManager(Activity activity) {
+        GoogleFitManager googleFitManager = new GoogleFitManager(mReactContext, activity);
+        googleFitManager.setOnConnected(this::prefetch);
+        googleFitManager.getWriteJournal().setReplayListener(this::invalidateCache);
+        mMemoryTrimmer.setSessionCache(googleFitManager.getSessionCache());
+        return googleFitManager;
+    }
+
     private boolean isEnabledCheck() {
         if (mGoogleFitManager == null) {
-            mGoogleFitManager = new GoogleFitManager(mReactContext, getCurrentActivity());
+            mGoogleFitManager = createGoogleFitManager(getCurrentActivity());
         }
         return mGoogleFitManager.isAuthorized();
     }
@@ -380,14 +712,13 @@ public class GoogleFitModule extends ReactContextBaseJavaModule implements Lifec
                                         double endDate,
                                         int bucketInterval,
                                         String bucketUnit,
+                                        ReadableMap options,
                                         Promise promise) {
-        try {
-            HealthHistory healthHistory = mGoogleFitManager.getHealthHistory();
-            healthHistory.setDataType(HealthDataTypes.TYPE_BLOOD_PRESSURE);
-            promise.resolve(healthHistory.getHistory((long)startDate, (long)endDate, bucketInterval, bucketUnit));
-        } catch (IllegalViewOperationException e) {
-            promise.reject(e);
-        }
+        String key = HelperUtil.queryKey("bloodPressure", (long) startDate, (long) endDate, bucketInterval, bucketUnit);
+        mQueryCoalescer.submit(key, FetchOptions.from(options), promise, request ->
+                mBucketCache.read(BucketCache.seriesKey("bloodPressure", bucketInterval, bucketUnit),
+                        (long) startDate, (long) endDate, bucketInterval, bucketUnit, request, (start, end) ->
+                                mGoogleFitManager.getHealthHistory().getHistory(HealthDataTypes.TYPE_BLOOD_PRESSURE, start, end, bucketInterval, bucketUnit, request)));
     }
 
     @ReactMethod
@@ -395,14 +726,9 @@ public class GoogleFitModule extends ReactContextBaseJavaModule implements Lifec
                                        double endDate,
                                        int bucketInterval,
                                        String bucketUnit,
+                                       ReadableMap options,
                                        Promise promise) {
-        try {
-            HealthHistory healthHistory = mGoogleFitManager.getHealthHistory();
-            healthHistory.setDataType(HealthDataTypes.TYPE_BODY_TEMPERATURE);
-            promise.resolve(healthHistory.getHistory((long)startDate, (long)endDate, bucketInterval, bucketUnit));
-        } catch (IllegalViewOperationException e) {
-            promise.reject(e);
-        }
+        readHealthSamples("bodyTemperature", HealthDataTypes.TYPE_BODY_TEMPERATURE, startDate, endDate, bucketInterval, bucketUnit, options, promise);
     }
 
     @ReactMethod
@@ -410,14 +736,9 @@ public class GoogleFitModule extends ReactContextBaseJavaModule implements Lifec
                                        double endDate,
                                        int bucketInterval,
                                        String bucketUnit,
+                                       ReadableMap options,
                                        Promise promise) {
-        try {
-            HealthHistory healthHistory = mGoogleFitManager.getHealthHistory();
-            healthHistory.setDataType(HealthDataTypes.TYPE_OXYGEN_SATURATION);
-            promise.resolve(healthHistory.getHistory((long)startDate, (long)endDate, bucketInterval, bucketUnit));
-        } catch (IllegalViewOperationException e) {
-            promise.reject(e);
-        }
+        readHealthSamples("oxygenSaturation", HealthDataTypes.TYPE_OXYGEN_SATURATION, startDate, endDate, bucketInterval, bucketUnit, options, promise);
     }
 
     @ReactMethod
@@ -425,22 +746,21 @@ public class GoogleFitModule extends ReactContextBaseJavaModule implements Lifec
                                         double endDate,
                                         int bucketInterval,
                                         String bucketUnit,
+                                        ReadableMap options,
                                         Promise promise) {
-        try {
-            HealthHistory healthHistory = mGoogleFitManager.getHealthHistory();
-            healthHistory.setDataType(HealthDataTypes.TYPE_BLOOD_GLUCOSE);
-            promise.resolve(healthHistory.getHistory((long)startDate, (long)endDate, bucketInterval, bucketUnit));
-        } catch (IllegalViewOperationException e) {
-            promise.reject(e);
-        }
+        readHealthSamples("bloodGlucose", HealthDataTypes.TYPE_BLOOD_GLUCOSE, startDate, endDate, bucketInterval, bucketUnit, options, promise);
     }
 
     @ReactMethod
     public void saveBloodGlucose(ReadableMap bloodGlucoseSample, Promise promise) {
         try {
-            HealthHistory healthHistory = mGoogleFitManager.getHealthHistory();
-            healthHistory.setDataType(HealthDataTypes.TYPE_BLOOD_GLUCOSE);
-            healthHistory.saveBloodGlucose(bloodGlucoseSample);
+            mGoogleFitManager.getWriteJournal().write(WriteJournal.BLOOD_GLUCOSE, bloodGlucoseSample,
+                    (result, error) -> {
+                        if (error == null) {
+                            invalidateCache("bloodGlucose");
+                        }
+                        FetchExecutor.settle(promise, result, error);
+                    });
         } catch (Error e) {
             promise.reject(e);
         }
@@ -451,26 +771,41 @@ public class GoogleFitModule extends ReactContextBaseJavaModule implements Lifec
                                     double endDate,
                                     int bucketInterval,
                                     String bucketUnit,
+                                    ReadableMap options,
                                     Promise promise) {
-
-        try {
-            HealthHistory healthHistory = mGoogleFitManager.getHealthHistory();
-            healthHistory.setDataType(DataType.TYPE_HEART_RATE_BPM);
-            promise.resolve(healthHistory.getHistory((long)startDate, (long)endDate, bucketInterval, bucketUnit));
-        } catch (IllegalViewOperationException e) {
-            promise.reject(e);
+        readHealthSamples("heartRate", DataType.TYPE_HEART_RATE_BPM, startDate, endDate, bucketInterval, bucketUnit, options, promise);
+    }
+
+    /**
+     * Raw reads of a single value, e.g. heart rate, which can also resolve with a packed payload.
+     */
+    private void readHealthSamples(String metric, DataType dataType, double startDate, double endDate,
+                                   int bucketInterval, String bucketUnit, ReadableMap options, Promise promise) {
+        FetchOptions fetchOptions = FetchOptions.from(options);
+        if (fetchOptions.packed) {
+            String key = HelperUtil.queryKey(metric, (long) startDate, (long) endDate, bucketInterval, bucketUnit,
+                    "packed", fetchOptions.packedToFile ? "file" : "base64");
+            mQueryCoalescer.submit(key, fetchOptions, promise, request -> {
+                PackedSamples samples = mGoogleFitManager.getHealthHistory().getPackedHistory(dataType, (long) startDate, (long) endDate, request);
+                return fetchOptions.packedToFile
+                        ? samples.toFile(getReactApplicationContext().getCacheDir())
+                        : samples.toBase64();
+            });
+            return;
         }
+        String key = HelperUtil.queryKey(metric, (long) startDate, (long) endDate, bucketInterval, bucketUnit);
+        mQueryCoalescer.submit(key, fetchOptions, promise, request ->
+                mGoogleFitManager.getHealthHistory().getHistory(dataType, (long) startDate, (long) endDate, bucketInterval, bucketUnit, request));
     }
 
     @ReactMethod
     public void getHydrationSamples(double startDate,
                                     double endDate,
+                                    ReadableMap options,
                                     Promise promise) {
-        try {
-            promise.resolve(mGoogleFitManager.getHydrationHistory().getHistory((long) startDate, (long) endDate));
-        } catch (IllegalViewOperationException e) {
-            promise.reject(e);
-        }
+        String key = HelperUtil.queryKey("hydration", (long) startDate, (long) endDate, 0, "MILLISECOND");
+        mQueryCoalescer.submit(key, FetchOptions.from(options), promise, request ->
+                mGoogleFitManager.getHydrationHistory().getHistory((long) startDate, (long) endDate, request));
     }
 
     @ReactMethod
@@ -478,8 +813,7 @@ public class GoogleFitModule extends ReactContextBaseJavaModule implements Lifec
                            Callback errorCallback,
                            Callback successCallback) {
         try {
-            HydrationHistory hydrationHistory = mGoogleFitManager.getHydrationHistory();
-            successCallback.invoke(hydrationHistory.save(hydrationArray));
+            mGoogleFitManager.getWriteJournal().write(WriteJournal.HYDRATION, hydrationArray, writeCallbacks(errorCallback, successCallback, "hydration"));
         } catch (IllegalViewOperationException e) {
             errorCallback.invoke(e.getMessage());
         }
@@ -488,7 +822,7 @@ public class GoogleFitModule extends ReactContextBaseJavaModule implements Lifec
     public void deleteHydration(ReadableMap options, Callback errorCallback, Callback successCallback) {
         try {
             HydrationHistory hydrationHistory = mGoogleFitManager.getHydrationHistory();
-            successCallback.invoke(hydrationHistory.delete(options));
+            hydrationHistory.delete(options, writeCallbacks(errorCallback, successCallback, "hydration"));
         } catch (IllegalViewOperationException e) {
             errorCallback.invoke(e.getMessage());
         }
@@ -496,28 +830,33 @@ public class GoogleFitModule extends ReactContextBaseJavaModule implements Lifec
 
     @RequiresApi(api = Build.VERSION_CODES.N)
     @ReactMethod
-    public void getSleepSamples(double startDate, double endDate, Promise promise) {
-        try {
-           mGoogleFitManager.getSleepHistory().getSleepData((long)startDate, (long)endDate, promise);
-        } catch (Error e) {
-            promise.reject(e);
-        }
+    public void getSleepSamples(double startDate, double endDate, ReadableMap options, Promise promise) {
+        boolean epochTimestamps = isEpochTimestamps(options);
+        String key = HelperUtil.queryKey("sleep", (long) startDate, (long) endDate, 0, "MILLISECOND", epochTimestamps);
+        mQueryCoalescer.submit(key, FetchOptions.from(options), promise, request ->
+                mGoogleFitManager.getSleepHistory().getSleepData((long)startDate, (long)endDate, epochTimestamps, request));
     }
 
     /* TODO: Stayfitt code */
     @RequiresApi(api = Build.VERSION_CODES.N)
     @ReactMethod
-    public void getActivitySessions(double startDate, double endDate, Promise promise) {
-        try {
-            mGoogleFitManager.getActivityHistory().getActivitySessions((long)startDate, (long)endDate, promise);
-        } catch (Error e) {
-            promise.reject(e);
-        }
+    public void getActivitySessions(double startDate, double endDate, ReadableMap options, Promise promise) {
+        boolean epochTimestamps = isEpochTimestamps(options);
+        String key = HelperUtil.queryKey("activitySessions", (long) startDate, (long) endDate, 0, "MILLISECOND", epochTimestamps);
+        mQueryCoalescer.submit(key, FetchOptions.from(options), promise, request ->
+                mGoogleFitManager.getActivityHistory().getActivitySessions((long)startDate, (long)endDate, epochTimestamps, request));
+    }
+
+    /**
+     * Session reads return their dates as formatted strings, or as epoch milliseconds with timestamps: 'epoch'.
+     */
+    private static boolean isEpochTimestamps(ReadableMap options) {
+        return options != null && options.hasKey("timestamps") && "epoch".equals(options.getString("timestamps"));
     }
  @ReactMethod
     public void saveSleep(ReadableMap sleepSample, Promise promise) {
         try {
-            mGoogleFitManager.getSleepHistory().saveSleep(sleepSample, promise);
+            mGoogleFitManager.getSleepHistory().saveSleep(sleepSample, () -> invalidateCache("sleep"), promise);
         } catch (Error e) {
             promise.reject(e);
         }
@@ -525,17 +864,17 @@ public class GoogleFitModule extends ReactContextBaseJavaModule implements Lifec
 
     @ReactMethod
     public void getWorkoutSession(double startDate, double endDate, ReadableMap options, Promise promise) {
-        try{
-            mGoogleFitManager.getActivityHistory().getWorkoutSession((long)startDate, (long)endDate, options, promise);
-        } catch (Error e) {
-            promise.reject(e);
-        }
+        boolean readSessionFromAllApps = options.hasKey("readSessionFromAllApps") && options.getBoolean("readSessionFromAllApps");
+        String key = HelperUtil.queryKey("workoutSessions", (long) startDate, (long) endDate, 0, "MILLISECOND", readSessionFromAllApps);
+        mQueryCoalescer.submit(key, FetchOptions.from(options), promise, request ->
+                mGoogleFitManager.getActivityHistory().getWorkoutSession((long)startDate, (long)endDate, options, request));
     }
 
     @ReactMethod
     public void saveWorkout(double startDate, double endDate, ReadableMap options, Promise promise) {
         try {
-            mGoogleFitManager.getActivityHistory().saveWorkout((long)startDate, (long)endDate, options, promise);
+            mGoogleFitManager.getActivityHistory().saveWorkout((long)startDate, (long)endDate, options,
+                    () -> invalidateCache(WORKOUT_METRICS), promise);
         } catch (Error e) {
             promise.reject(e);
         }
@@ -544,9 +883,56 @@ public class GoogleFitModule extends ReactContextBaseJavaModule implements Lifec
     @ReactMethod
     public void deleteAllWorkout(double startDate, double endDate, ReadableMap options, Promise promise) {
         try {
-            mGoogleFitManager.getActivityHistory().deleteAllWorkout((long)startDate, (long)endDate, options, promise);
+            mGoogleFitManager.getActivityHistory().deleteAllWorkout((long)startDate, (long)endDate, options,
+                    () -> invalidateCache(WORKOUT_METRICS), promise);
         } catch (Error e) {
             promise.reject(e);
         }
     }
+
+    /**
+     * Drops the cached reads of the given metrics, settled buckets, sessions and sync watermarks included since a write may change the past.
+     */
+    private void invalidateCache(String... metrics) {
+        mResponseCache.invalidate(metrics);
+        mBucketCache.invalidate(metrics);
+        if (mGoogleFitManager != null) {
+            mGoogleFitManager.getSessionCache().invalidate(metrics);
+            mGoogleFitManager.getTimeSeriesStore().invalidate(metrics);
+        }
+    }
+
+    /**
+     * Reports the outcome of a queued write through the callback pair used by the save and delete methods,
+     * and drops the cached reads of the written metrics once it landed. A write kept in the journal until
+     * Google Fit connects is reported as a success with queued set.
+     */
+    private FetchExecutor.Completion writeCallbacks(Callback errorCallback, Callback successCallback, String... metrics) {
+        return (result, error) -> {
+            if (error == null) {
+                invalidateCache(metrics);
+                successCallback.invoke(true, false);
+            } else if (error instanceof FetchException
+                    && FetchException.E_QUEUED.equals(((FetchException) error).getCode())) {
+                successCallback.invoke(true, true);
+            } else {
+                errorCallback.invoke(error.getMessage());
+            }
+        };
+    }
+
+    /**
+     * Emits the buckets a stale-while-revalidate read found changed, as GoogleFitDataUpdated.
+     */
+    private void sendDataUpdated(String key, @Nullable String requestId, WritableMap update) {
+        int end = key.indexOf('|');
+        update.putString("metric", end < 0 ? key : key.substring(0, end));
+        update.putString("key", key);
+        if (requestId != null) {
+            update.putString("requestId", requestId);
+        }
+        mReactContext
+                .getJSModule(DeviceEventManagerModule.RCTDeviceEventEmitter.class)
+                .emit("GoogleFitDataUpdated", update);
+    }
 }
@@ -9,7 +9,6 @@
 
 package com.reactnative.googlefit;
 
-import android.os.AsyncTask;
 import android.util.Log;
 
 import com.facebook.react.bridge.Arguments;
@@ -34,6 +33,7 @@ import com.google.android.gms.fitness.data.HealthFields;
 import java.text.DateFormat;
 import java.text.Format;
 import java.text.SimpleDateFormat;
+import java.util.Collections;
 import java.util.Date;
 import java.util.List;
 import java.util.concurrent.TimeUnit;
@@ -68,91 +68,93 @@ public class HealthHistory {
         this.dataType = dataType;
     }
 
-    public ReadableArray getHistory(long startTime, long endTime, int bucketInterval, String bucketUnit) {
-        DataReadRequest.Builder readRequestBuilder = new DataReadRequest.Builder()
-                .read(this.dataType)
-                .setTimeRange(startTime, endTime, TimeUnit.MILLISECONDS);
-        if (this.dataType == HealthDataTypes.TYPE_BLOOD_PRESSURE) {
-            readRequestBuilder.bucketByTime(bucketInterval, HelperUtil.processBucketUnit(bucketUnit));
-        }
-
-        DataReadRequest readRequest = readRequestBuilder.build();
+    public ReadableArray getHistory(long startTime, long endTime, int bucketInterval, String bucketUnit) throws FetchException {
+        return getHistory(this.dataType, startTime, endTime, bucketInterval, bucketUnit, new FetchRequest());
+    }
 
-        DataReadResult dataReadResult = Fitness.HistoryApi.readData(googleFitManager.getGoogleApiClient(), readRequest).await(1, TimeUnit.MINUTES);
+    // reads may run concurrently on the fetch executor, so the data type is passed along instead of read from the shared field
+    public ReadableArray getHistory(DataType dataType, long startTime, long endTime, int bucketInterval, String bucketUnit, FetchRequest request) throws FetchException {
+        List<DataReadResult> dataReadResults = read(dataType, startTime, endTime, bucketInterval, bucketUnit, request);
 
         WritableArray map = Arguments.createArray();
 
-        //Used for aggregated data
-        if (dataReadResult.getBuckets().size() > 0) {
-            for (Bucket bucket : dataReadResult.getBuckets()) {
-                List<DataSet> dataSets = bucket.getDataSets();
-                for (DataSet dataSet : dataSets) {
-                    processDataSet(dataSet, map);
+        for (DataReadResult dataReadResult : dataReadResults) {
+            //Used for aggregated data
+            if (dataReadResult.getBuckets().size() > 0) {
+                for (Bucket bucket : dataReadResult.getBuckets()) {
+                    request.throwIfCancelled();
+                    List<DataSet> dataSets = bucket.getDataSets();
+                    for (DataSet dataSet : dataSets) {
+                        processDataSet(dataType, dataSet, map);
+                    }
                 }
             }
+            //Used for non-aggregated data
+            else if (dataReadResult.getDataSets().size() > 0) {
+                for (DataSet dataSet : dataReadResult.getDataSets()) {
+                    processDataSet(dataType, dataSet, map);
+                }
+            }
+        }
+        return map;
+    }
+
+    /**
+     * Reads the raw samples of a single value type, like heart rate, straight into a packed
+     * payload, without a bridged map per sample. The value is the first field, as in getHistory.
+     */
+    public PackedSamples getPackedHistory(DataType dataType, long startTime, long endTime, FetchRequest request) throws FetchException {
+        if (dataType == HealthDataTypes.TYPE_BLOOD_PRESSURE) {
+            throw new IllegalArgumentException("Blood pressure samples hold two values and cannot be packed");
         }
-        //Used for non-aggregated data
-        else if (dataReadResult.getDataSets().size() > 0) {
+        List<DataReadResult> dataReadResults = read(dataType, startTime, endTime, 1, "DAY", request);
+
+        PackedSamples samples = new PackedSamples();
+        Field field = dataType.getFields().get(0);
+        for (DataReadResult dataReadResult : dataReadResults) {
             for (DataSet dataSet : dataReadResult.getDataSets()) {
-                processDataSet(dataSet, map);
+                request.throwIfCancelled();
+                for (DataPoint dp : dataSet.getDataPoints()) {
+                    samples.add(dp.getStartTime(TimeUnit.MILLISECONDS), dp.getEndTime(TimeUnit.MILLISECONDS),
+                            dp.getValue(field).asFloat());
+                }
             }
         }
-        return map;
+        return samples;
     }
 
-    public boolean saveBloodGlucose(ReadableMap sample) {
+    private List<DataReadResult> read(DataType dataType, long startTime, long endTime, int bucketInterval,
+                                      String bucketUnit, FetchRequest request) throws FetchException {
+        // only the bucketed blood pressure read is split, raw reads are not bound by the bucket limit
+        List<long[]> ranges = dataType == HealthDataTypes.TYPE_BLOOD_PRESSURE
+                ? RangeQuery.split(startTime, endTime, bucketInterval, bucketUnit)
+                : Collections.singletonList(new long[]{startTime, endTime});
+        return RangeQuery.read(request, ranges, (start, end) -> {
+            DataReadRequest.Builder readRequestBuilder = new DataReadRequest.Builder()
+                    .read(dataType)
+                    .setTimeRange(start, end, TimeUnit.MILLISECONDS);
+            if (dataType == HealthDataTypes.TYPE_BLOOD_PRESSURE) {
+                readRequestBuilder.bucketByTime(bucketInterval, HelperUtil.processBucketUnit(bucketUnit));
+            }
+            return Fitness.HistoryApi.readData(googleFitManager.getGoogleApiClient(), readRequestBuilder.build());
+        });
+    }
+
+    public void saveBloodGlucose(ReadableMap sample, FetchExecutor.Completion completion) {
         this.Dataset = createDataForRequest(
-                this.dataType,
+                HealthDataTypes.TYPE_BLOOD_GLUCOSE,
                 DataSource.TYPE_RAW,
                 sample.getDouble("value"),
                 (long)sample.getDouble("date"),
                 TimeUnit.MILLISECONDS
         );
-        new InsertAndVerifyDataTask(this.Dataset).execute();
-
-        return true;
+        googleFitManager.getWriteQueue().insert(this.Dataset, completion);
     }
 
-    public boolean delete(ReadableMap sample) {
+    public void delete(ReadableMap sample, FetchExecutor.Completion completion) {
         long endTime = (long) sample.getDouble("endTime");
         long startTime = (long) sample.getDouble("startTime");
-        new DeleteDataHelper(startTime, endTime, this.dataType, googleFitManager).execute();
-        return true;
-    }
-
-    //Async fit data insert
-    private class InsertAndVerifyDataTask extends AsyncTask<Void, Void, Void> {
-
-        private DataSet Dataset;
-
-        InsertAndVerifyDataTask(DataSet dataset) {
-            this.Dataset = dataset;
-        }
-
-        protected Void doInBackground(Void... params) {
-            // Create a new dataset and insertion request.
-            DataSet dataSet = this.Dataset;
-
-            // [START insert_dataset]
-            // Then, invoke the History API to insert the data and await the result, which is
-            // possible here because of the {@link AsyncTask}. Always include a timeout when calling
-            // await() to prevent hanging that can occur from the service being shutdown because
-            // of low memory or other conditions.
-            //Log.i(TAG, "Inserting the dataset in the History API.");
-            com.google.android.gms.common.api.Status insertStatus =
-                    Fitness.HistoryApi.insertData(googleFitManager.getGoogleApiClient(), dataSet)
-                            .await(1, TimeUnit.MINUTES);
-
-            // Before querying the data, check to see if the insertion succeeded.
-            if (!insertStatus.isSuccess()) {
-                //Log.i(TAG, "There was a problem inserting the dataset.");
-                return null;
-            }
-
-            //Log.i(TAG, "Data insert was successful!");
-
-            return null;
-        }
+        googleFitManager.getWriteQueue().delete(HelperUtil.createDataDeleteRequest(startTime, endTime, this.dataType), completion);
     }
 
     /**
@@ -183,7 +185,7 @@ public class HealthHistory {
         return dataSet;
     }
 
-    private void processDataSet(DataSet dataSet, WritableArray map) {
+    private void processDataSet(DataType dataType, DataSet dataSet, WritableArray map) {
         Format formatter = new SimpleDateFormat("EEE");
 
         for (DataPoint dp : dataSet.getDataPoints()) {
@@ -197,7 +199,7 @@ public class HealthHistory {
                 stepMap.putString("day", day);
                 stepMap.putDouble("startDate", dp.getStartTime(TimeUnit.MILLISECONDS));
                 stepMap.putDouble("endDate", dp.getEndTime(TimeUnit.MILLISECONDS));
-                if (this.dataType == HealthDataTypes.TYPE_BLOOD_PRESSURE) {
+                if (dataType == HealthDataTypes.TYPE_BLOOD_PRESSURE) {
                     stepMap.putDouble("diastolic", dp.getValue(HealthFields.FIELD_BLOOD_PRESSURE_DIASTOLIC).asFloat());
                     stepMap.putDouble("systolic", dp.getValue(HealthFields.FIELD_BLOOD_PRESSURE_SYSTOLIC).asFloat());
                 } else {
@@ -2,7 +2,11 @@ package com.reactnative.googlefit;
 
 import android.util.Log;
 
+import androidx.annotation.Nullable;
+
 import com.facebook.react.bridge.Arguments;
+import com.facebook.react.bridge.ReadableArray;
+import com.facebook.react.bridge.ReadableMap;
 import com.facebook.react.bridge.WritableArray;
 import com.facebook.react.bridge.WritableMap;
 import com.google.android.gms.auth.api.signin.GoogleSignInOptionsExtension;
@@ -11,6 +15,7 @@ import com.google.android.gms.fitness.data.DataPoint;
 import com.google.android.gms.fitness.data.DataSet;
 import com.google.android.gms.fitness.data.DataType;
 import com.google.android.gms.fitness.data.Field;
+import com.google.android.gms.fitness.request.DataDeleteRequest;
 import com.google.android.gms.fitness.request.DataReadRequest;
 
 import java.text.DateFormat;
@@ -42,6 +47,64 @@ final class HelperUtil {
         return readRequest.build();
     }
 
+    public static DataDeleteRequest createDataDeleteRequest(long startTime, long endTime, DataType dataType) {
+        return new DataDeleteRequest.Builder()
+                .setTimeInterval(startTime, endTime, TimeUnit.MILLISECONDS)
+                .addDataType(dataType)
+                .build();
+    }
+
+    /**
+     * @return the formatter of the session dates of one read, null when they are returned as epoch
+     * milliseconds, which skips formatting them here and parsing them again in JS
+     */
+    @Nullable
+    public static DateFormat createDateFormat(boolean epochTimestamps) {
+        if (epochTimestamps) {
+            return null;
+        }
+        DateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSSZ");
+        dateFormat.setTimeZone(TimeZone.getDefault());
+        return dateFormat;
+    }
+
+    public static void putDate(WritableMap map, String key, long millis, @Nullable DateFormat dateFormat) {
+        if (dateFormat == null) {
+            map.putDouble(key, millis);
+        } else {
+            map.putString(key, dateFormat.format(millis));
+        }
+    }
+
+    /**
+     * Builds the key identifying a read, with the bucket normalized to milliseconds
+     * so that e.g. 60 MINUTE and 1 HOUR share the same key.
+     */
+    public static String queryKey(String metric, long startTime, long endTime, int bucketInterval, String bucketUnit, Object... extras) {
+        StringBuilder key = new StringBuilder(metric)
+                .append('|').append(startTime)
+                .append('|').append(endTime)
+                .append('|').append(processBucketUnit(bucketUnit).toMillis(bucketInterval));
+        for (Object extra : extras) {
+            key.append('|').append(extra);
+        }
+        return key.toString();
+    }
+
+    /**
+     * Bridged arrays and maps can only be sent to JS once, so a result handed to several
+     * Promises needs a fresh copy per Promise.
+     */
+    public static Object copyForBridge(Object result) {
+        if (result instanceof ReadableArray) {
+            return Arguments.makeNativeArray(((ReadableArray) result).toArrayList());
+        }
+        if (result instanceof ReadableMap) {
+            return Arguments.makeNativeMap(((ReadableMap) result).toHashMap());
+        }
+        return result;
+    }
+
     public static GoogleSignInOptionsExtension createSignInFitnessOptions(DataType fitnessDataType, Integer[] fitnessAccessOptions) {
         FitnessOptions.Builder signInOptionsExtension = FitnessOptions.builder();
         for(Integer accessOpt: fitnessAccessOptions) {
@@ -50,7 +113,14 @@ final class HelperUtil {
         return signInOptionsExtension.build();
     }
 
-    public static void processDataSet(String TAG, DataSet dataSet, WritableArray wtArray) {
+    /**
+     * The data type and data source ids are only looked up when the projection asks for them,
+     * the dates and values always are, the bucket cache relies on them.
+     */
+    public static void processDataSet(String TAG, DataSet dataSet, WritableArray wtArray, FieldProjection fields) {
+        boolean dataTypeName = fields.wants("dataTypeName");
+        boolean dataSourceId = fields.wants("dataSourceId");
+        boolean originDataSourceId = fields.wants("originDataSourceId");
         DateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSSZ");
         dateFormat.setTimeZone(TimeZone.getDefault());
 
@@ -66,9 +136,15 @@ final class HelperUtil {
 
                 // add data
                 WritableMap innerMap = Arguments.createMap();
-                innerMap.putString("dataTypeName", dp.getDataType().getName());
-                innerMap.putString("dataSourceId", dp.getDataSource().getStreamIdentifier());
-                innerMap.putString("originDataSourceId", dp.getOriginalDataSource().getStreamIdentifier());
+                if (dataTypeName) {
+                    innerMap.putString("dataTypeName", dp.getDataType().getName());
+                }
+                if (dataSourceId) {
+                    innerMap.putString("dataSourceId", dp.getDataSource().getStreamIdentifier());
+                }
+                if (originDataSourceId) {
+                    innerMap.putString("originDataSourceId", dp.getOriginalDataSource().getStreamIdentifier());
+                }
                 innerMap.putDouble("startDate", dp.getStartTime(TimeUnit.MILLISECONDS));
                 innerMap.putDouble("endDate", dp.getEndTime(TimeUnit.MILLISECONDS));
                 innerMap.putDouble(field.getName(), dp.getValue(field).asInt());
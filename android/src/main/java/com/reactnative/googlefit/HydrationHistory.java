@@ -25,7 +25,6 @@ public class HydrationHistory {
   private GoogleFitManager googleFitManager;
 
   private static final String TAG = "HydrationHistory";
-  private static final int MAX_DATAPOINTS_PER_SINGLE_REQUEST = 900;
   private DataType dataType = DataType.TYPE_HYDRATION;
 
   public HydrationHistory(ReactContext reactContext, GoogleFitManager googleFitManager) {
@@ -42,20 +41,20 @@ public class HydrationHistory {
       .build();
   }
 
-  public ReadableArray getHistory(long startTime, long endTime) {
+  public ReadableArray getHistory(long startTime, long endTime, FetchRequest request) throws FetchException {
     DateFormat dateFormat = DateFormat.getDateInstance();
 
     DataReadRequest readRequest = new DataReadRequest.Builder()
       .read(this.dataType)
       .setTimeRange(startTime, endTime, TimeUnit.MILLISECONDS).build();
 
-    DataReadResult dataReadResult = Fitness.HistoryApi.readData(googleFitManager.getGoogleApiClient(), readRequest)
-      .await(1, TimeUnit.MINUTES);
+    DataReadResult dataReadResult = request.await(Fitness.HistoryApi.readData(googleFitManager.getGoogleApiClient(), readRequest));
 
     WritableArray map = Arguments.createArray();
 
     if (dataReadResult.getDataSets().size() > 0) {
       for (DataSet dataSet : dataReadResult.getDataSets()) {
+        request.throwIfCancelled();
         processDataSet(dataSet, map);
       }
     }
@@ -76,10 +75,9 @@ public class HydrationHistory {
     }
   }
 
-  public boolean save(ReadableArray hydrationArray) {
+  public void save(ReadableArray hydrationArray, FetchExecutor.Completion completion) {
     DataSource hydrationSource = this.getDataSource();
     ArrayList<DataPoint> dataPoints = new ArrayList<DataPoint>();
-    ArrayList<DataSet> dataSets = new ArrayList<DataSet>();
     for (int index = 0 ; index < hydrationArray.size() ; index++) {
       ReadableMap hydrationSample = hydrationArray.getMap(index);
       if (hydrationSample != null) {
@@ -88,25 +86,14 @@ public class HydrationHistory {
           .setField(Field.FIELD_VOLUME, (float) hydrationSample.getDouble("waterConsumed"))
           .build());
       }
-      if (dataPoints.size() % MAX_DATAPOINTS_PER_SINGLE_REQUEST == 0) {
-        // Be sure to limit each individual request to 1000 datapoints. Exceeding this limit could result in an error.
-        // https://developers.google.com/fit/android/history#insert_data
-        dataSets.add(DataSet.builder(hydrationSource).addAll(dataPoints).build());
-        dataPoints.clear();
-      }
-    }
-    if (dataPoints.size() > 0) {
-      dataSets.add(DataSet.builder(hydrationSource).addAll(dataPoints).build());
     }
-    new SaveDataHelper(dataSets, googleFitManager).execute();
-
-    return true;
+    // the write queue splits the data points into requests Google Fit accepts
+    googleFitManager.getWriteQueue().insert(DataSet.builder(hydrationSource).addAll(dataPoints).build(), completion);
   }
 
-  public boolean delete(ReadableMap options) {
+  public void delete(ReadableMap options, FetchExecutor.Completion completion) {
     long endTime = (long) options.getDouble("endDate");
     long startTime = (long) options.getDouble("startDate");
-    new DeleteDataHelper(startTime, endTime, this.dataType, googleFitManager).execute();
-    return true;
+    googleFitManager.getWriteQueue().delete(HelperUtil.createDataDeleteRequest(startTime, endTime, this.dataType), completion);
   }
 }
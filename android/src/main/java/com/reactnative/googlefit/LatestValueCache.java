@@ -0,0 +1,201 @@
+/**
+ * Copyright (c) 2017-present, Stanislav Doskalenko - doskalenko.s@gmail.com
+ * All rights reserved.
+ *
+ * This source code is licensed under the MIT-style license found in the
+ * LICENSE file in the root directory of this source tree.
+ *
+ **/
+
+package com.reactnative.googlefit;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.util.Log;
+
+import com.facebook.react.bridge.Arguments;
+import com.facebook.react.bridge.ReadableArray;
+import com.facebook.react.bridge.WritableArray;
+import com.facebook.react.bridge.WritableMap;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Persistent copy of the latest value of metrics that rarely change, like height, so a
+ * profile screen does not scan years of history on every start.
+ *
+ * A cached value is trusted for RECHECK_MILLIS after it was checked. After that, a read
+ * only asks Google Fit for points newer than the cached one, which is cheap, and keeps the
+ * cached value when there are none. Reads of a moment before the cached point go to Google
+ * Fit as before. Writes to a metric drop its value.
+ *
+ * A failed read throws, so only reads that succeeded are stored or refresh checkedAt, an
+ * empty result is never a failure in disguise.
+ */
+class LatestValueCache {
+
+    static final long RECHECK_MILLIS = TimeUnit.HOURS.toMillis(6);
+
+    private static final String TAG = "RNGoogleFit";
+    private static final String PREFERENCES_NAME = "rngooglefit-latest-values";
+
+    interface Read {
+        ReadableArray read(long startTime, long endTime) throws FetchException;
+    }
+
+    private final SharedPreferences preferences;
+    private long generation;
+
+    LatestValueCache(Context context) {
+        this.preferences = context.getApplicationContext()
+                .getSharedPreferences(PREFERENCES_NAME, Context.MODE_PRIVATE);
+    }
+
+    /**
+     * Reads the latest value of a metric up to endTime.
+     * @param since the earliest time a value can have, where a full read starts
+     * @param read reads the latest value in a range, as a list of flat items with an endDate
+     */
+    ReadableArray read(String metric, long since, long endTime, FetchRequest request, Read read) throws FetchException {
+        long generation = generation();
+        long now = System.currentTimeMillis();
+        // only a read up to now tells what the latest value is
+        boolean storable = endTime >= now && !request.isPartial();
+        JSONObject entry = load(metric);
+
+        if (entry == null || endTime <= entry.optLong("latest", Long.MIN_VALUE)) {
+            // nothing cached, or a read of the past, where an older value may have been the latest
+            ReadableArray items = read.read(since, endTime);
+            if (entry == null && storable && request.isComplete()) {
+                store(metric, items.toArrayList(), now, generation);
+            }
+            return items;
+        }
+
+        JSONArray cached = entry.optJSONArray("items");
+        long checkedAt = entry.optLong("checkedAt");
+        if (endTime <= checkedAt || now - checkedAt < RECHECK_MILLIS) {
+            return toArray(cached);
+        }
+
+        // only points after the cached one can replace it
+        long latest = entry.optLong("latest", Long.MIN_VALUE);
+        ReadableArray newer = read.read(latest == Long.MIN_VALUE ? since : latest + 1, endTime);
+        List<Object> items = newer.toArrayList();
+        if (latestOf(items) == Long.MIN_VALUE) {
+            items = toArray(cached).toArrayList();
+        }
+        if (storable && request.isComplete()) {
+            store(metric, items, now, generation);
+        }
+        return Arguments.makeNativeArray(items);
+    }
+
+    /**
+     * Drops the values of the given metrics, e.g. after a write to them.
+     */
+    synchronized void invalidate(String... metrics) {
+        generation++;
+        SharedPreferences.Editor editor = preferences.edit();
+        for (String metric : metrics) {
+            editor.remove(metric);
+        }
+        editor.apply();
+    }
+
+    synchronized void clear() {
+        generation++;
+        preferences.edit().clear().apply();
+    }
+
+    private synchronized long generation() {
+        return generation;
+    }
+
+    private synchronized JSONObject load(String metric) {
+        String json = preferences.getString(metric, null);
+        if (json == null) {
+            return null;
+        }
+        try {
+            return new JSONObject(json);
+        } catch (JSONException e) {
+            Log.w(TAG, "Dropping unreadable cached " + metric + ": " + e);
+            return null;
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private synchronized void store(String metric, List<Object> items, long checkedAt, long generation) {
+        if (generation != this.generation) {
+            return;
+        }
+        try {
+            JSONArray json = new JSONArray();
+            for (Object item : items) {
+                JSONObject object = new JSONObject();
+                for (Map.Entry<String, Object> field : ((Map<String, Object>) item).entrySet()) {
+                    object.put(field.getKey(), field.getValue() == null ? JSONObject.NULL : field.getValue());
+                }
+                json.put(object);
+            }
+            JSONObject entry = new JSONObject()
+                    .put("items", json)
+                    .put("checkedAt", checkedAt);
+            long latest = latestOf(items);
+            if (latest != Long.MIN_VALUE) {
+                entry.put("latest", latest);
+            }
+            preferences.edit().putString(metric, entry.toString()).apply();
+        } catch (JSONException e) {
+            Log.w(TAG, "Could not cache " + metric + ": " + e);
+        }
+    }
+
+    /**
+     * @return the end of the latest point in the items, Long.MIN_VALUE when there is none
+     */
+    @SuppressWarnings("unchecked")
+    private static long latestOf(List<Object> items) {
+        long latest = Long.MIN_VALUE;
+        for (Object item : items) {
+            Object endDate = ((Map<String, Object>) item).get("endDate");
+            if (endDate instanceof Number) {
+                latest = Math.max(latest, ((Number) endDate).longValue());
+            }
+        }
+        return latest;
+    }
+
+    /**
+     * The items are flat maps of numbers and strings.
+     */
+    private static WritableArray toArray(JSONArray json) {
+        WritableArray array = Arguments.createArray();
+        for (int i = 0; json != null && i < json.length(); i++) {
+            JSONObject object = json.optJSONObject(i);
+            WritableMap map = Arguments.createMap();
+            Iterator<String> keys = object.keys();
+            while (keys.hasNext()) {
+                String key = keys.next();
+                Object value = object.opt(key);
+                if (value instanceof Number) {
+                    map.putDouble(key, ((Number) value).doubleValue());
+                } else if (value instanceof String) {
+                    map.putString(key, (String) value);
+                } else {
+                    map.putNull(key);
+                }
+            }
+            array.pushMap(map);
+        }
+        return array;
+    }
+}
@@ -0,0 +1,98 @@
+/**
+ * Copyright (c) 2017-present, Stanislav Doskalenko - doskalenko.s@gmail.com
+ * All rights reserved.
+ *
+ * This source code is licensed under the MIT-style license found in the
+ * LICENSE file in the root directory of this source tree.
+ *
+ **/
+
+package com.reactnative.googlefit;
+
+import android.content.ComponentCallbacks2;
+import android.content.res.Configuration;
+import android.util.Log;
+
+import androidx.annotation.Nullable;
+
+import com.facebook.react.bridge.WritableMap;
+
+/**
+ * Shrinks the in-memory caches when the system runs low on memory, so they never get the
+ * app killed.
+ *
+ * A trim while the app is hidden or memory gets tight halves the response cache and the
+ * settled buckets. A low memory trim leaves a quarter of them. A critical trim, or the app
+ * being next in line to be killed, drops them and the cached sessions. The small reads of
+ * today are kept through every trim, see ResponseCache.
+ */
+class MemoryTrimmer implements ComponentCallbacks2 {
+
+    private static final String TAG = "RNGoogleFit";
+
+    private final ResponseCache responseCache;
+    private final BucketCache bucketCache;
+    @Nullable private SessionCache sessionCache;
+
+    private long trims;
+    private int lastTrimLevel = -1;
+    private long trimmedBuckets;
+
+    MemoryTrimmer(ResponseCache responseCache, BucketCache bucketCache) {
+        this.responseCache = responseCache;
+        this.bucketCache = bucketCache;
+    }
+
+    synchronized void setSessionCache(@Nullable SessionCache sessionCache) {
+        this.sessionCache = sessionCache;
+    }
+
+    @Override
+    public void onTrimMemory(int level) {
+        long maxBytes = responseCache.getMaxBytes();
+        long freedBytes;
+        int droppedBuckets;
+        if (level >= TRIM_MEMORY_COMPLETE || level == TRIM_MEMORY_RUNNING_CRITICAL) {
+            freedBytes = responseCache.trimTo(0);
+            droppedBuckets = bucketCache.trimTo(0);
+            SessionCache sessions;
+            synchronized (this) {
+                sessions = sessionCache;
+            }
+            if (sessions != null) {
+                sessions.clear();
+            }
+        } else if (level >= TRIM_MEMORY_MODERATE || level == TRIM_MEMORY_RUNNING_LOW) {
+            freedBytes = responseCache.trimTo(maxBytes / 4);
+            droppedBuckets = bucketCache.trimTo(bucketCache.size() / 4);
+        } else {
+            freedBytes = responseCache.trimTo(maxBytes / 2);
+            droppedBuckets = bucketCache.trimTo(bucketCache.size() / 2);
+        }
+
+        synchronized (this) {
+            trims++;
+            lastTrimLevel = level;
+            trimmedBuckets += droppedBuckets;
+        }
+        Log.i(TAG, "Memory trim " + level + " freed " + freedBytes + " cached bytes and " + droppedBuckets + " buckets");
+    }
+
+    @Override
+    public void onLowMemory() {
+        onTrimMemory(TRIM_MEMORY_COMPLETE);
+    }
+
+    @Override
+    public void onConfigurationChanged(Configuration newConfig) {
+    }
+
+    /**
+     * Adds the number of trims, the level of the last one, -1 before any, and the buckets dropped by them.
+     */
+    synchronized void addStats(WritableMap stats) {
+        stats.putDouble("memoryTrims", trims);
+        stats.putInt("lastTrimLevel", lastTrimLevel);
+        stats.putDouble("trimmedBuckets", trimmedBuckets);
+    }
+}
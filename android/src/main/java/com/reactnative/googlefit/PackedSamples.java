@@ -0,0 +1,175 @@
+/**
+ * Copyright (c) 2017-present, Stanislav Doskalenko - doskalenko.s@gmail.com
+ * All rights reserved.
+ *
+ * This source code is licensed under the MIT-style license found in the
+ * LICENSE file in the root directory of this source tree.
+ *
+ **/
+
+package com.reactnative.googlefit;
+
+import android.util.Base64;
+
+import com.facebook.react.bridge.Arguments;
+import com.facebook.react.bridge.WritableMap;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Raw samples of one value each, packed into a single binary payload for reads asking for
+ * format: 'packed'. A month of heart rate from a watch is hundreds of thousands of points,
+ * which as one bridged map each costs more than the read itself.
+ *
+ * The payload is little-endian, with every array aligned to its element size so JS can view
+ * it as typed arrays without copying:
+ *
+ *   int32 version, int32 flags, int32 count, int32 reserved, float64 base time in ms,
+ *   int32 start[count], each ms after the start before it, the first one after the base time,
+ *   int32 duration[count], end minus start in ms,
+ *   float32 value[count].
+ *
+ * When a gap or a duration does not fit an int32, FLAG_WIDE_TIMES is set and the start and
+ * end times are float64 ms since the epoch instead.
+ */
+class PackedSamples {
+
+    static final int VERSION = 1;
+    static final int FLAG_WIDE_TIMES = 1;
+
+    private static final int HEADER_BYTES = 24;
+    private static final String DIRECTORY = "rngooglefit-packed";
+    // files the app did not pick up are dropped by the next packed read after this long
+    private static final long FILE_MAX_AGE_MILLIS = TimeUnit.DAYS.toMillis(1);
+
+    private long[] starts = new long[1024];
+    private long[] ends = new long[1024];
+    private float[] values = new float[1024];
+    private int count;
+
+    void add(long startTime, long endTime, float value) {
+        if (count == starts.length) {
+            int capacity = count * 2;
+            starts = copyOf(starts, capacity);
+            ends = copyOf(ends, capacity);
+            float[] grown = new float[capacity];
+            System.arraycopy(values, 0, grown, 0, count);
+            values = grown;
+        }
+        starts[count] = startTime;
+        ends[count] = endTime;
+        values[count] = value;
+        count++;
+    }
+
+    int size() {
+        return count;
+    }
+
+    byte[] toBytes() {
+        boolean wide = needsWideTimes();
+        int timeBytes = wide ? 16 : 8;
+        ByteBuffer buffer = ByteBuffer.allocate(HEADER_BYTES + count * (timeBytes + 4)).order(ByteOrder.LITTLE_ENDIAN);
+        buffer.putInt(VERSION);
+        buffer.putInt(wide ? FLAG_WIDE_TIMES : 0);
+        buffer.putInt(count);
+        buffer.putInt(0);
+        buffer.putDouble(count > 0 ? starts[0] : 0);
+        if (wide) {
+            for (int i = 0; i < count; i++) {
+                buffer.putDouble(starts[i]);
+            }
+            for (int i = 0; i < count; i++) {
+                buffer.putDouble(ends[i]);
+            }
+        } else {
+            long previous = count > 0 ? starts[0] : 0;
+            for (int i = 0; i < count; i++) {
+                buffer.putInt((int) (starts[i] - previous));
+                previous = starts[i];
+            }
+            for (int i = 0; i < count; i++) {
+                buffer.putInt((int) (ends[i] - starts[i]));
+            }
+        }
+        for (int i = 0; i < count; i++) {
+            buffer.putFloat(values[i]);
+        }
+        return buffer.array();
+    }
+
+    /**
+     * @return { format: 'packed', count, data }, with the payload as a base64 string
+     */
+    WritableMap toBase64() {
+        WritableMap result = header();
+        result.putString("data", Base64.encodeToString(toBytes(), Base64.NO_WRAP));
+        return result;
+    }
+
+    /**
+     * Writes the payload to a new file in the cache directory, for the app to read and delete.
+     * @return { format: 'packed', count, path }
+     */
+    WritableMap toFile(File cacheDir) throws IOException {
+        File directory = new File(cacheDir, DIRECTORY);
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Could not create " + directory);
+        }
+        deleteOldFiles(directory);
+
+        File file = File.createTempFile("samples-", ".bin", directory);
+        try (OutputStream output = new FileOutputStream(file)) {
+            output.write(toBytes());
+        } catch (IOException e) {
+            file.delete();
+            throw e;
+        }
+        WritableMap result = header();
+        result.putString("path", file.getAbsolutePath());
+        return result;
+    }
+
+    private WritableMap header() {
+        WritableMap result = Arguments.createMap();
+        result.putString("format", "packed");
+        result.putInt("count", count);
+        return result;
+    }
+
+    private boolean needsWideTimes() {
+        for (int i = 0; i < count; i++) {
+            long delta = i == 0 ? 0 : starts[i] - starts[i - 1];
+            long duration = ends[i] - starts[i];
+            if (delta != (int) delta || duration != (int) duration) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static void deleteOldFiles(File directory) {
+        File[] files = directory.listFiles();
+        if (files == null) {
+            return;
+        }
+        long cutoff = System.currentTimeMillis() - FILE_MAX_AGE_MILLIS;
+        for (File file : files) {
+            if (file.lastModified() < cutoff) {
+                file.delete();
+            }
+        }
+    }
+
+    private static long[] copyOf(long[] array, int capacity) {
+        long[] grown = new long[capacity];
+        System.arraycopy(array, 0, grown, 0, array.length);
+        return grown;
+    }
+}
@@ -0,0 +1,335 @@
+/**
+ * Copyright (c) 2017-present, Stanislav Doskalenko - doskalenko.s@gmail.com
+ * All rights reserved.
+ *
+ * This source code is licensed under the MIT-style license found in the
+ * LICENSE file in the root directory of this source tree.
+ *
+ **/
+
+package com.reactnative.googlefit;
+
+import android.util.Log;
+
+import androidx.annotation.Nullable;
+
+import com.facebook.react.bridge.Promise;
+import com.facebook.react.bridge.WritableMap;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ScheduledFuture;
+
+/**
+ * Single-flight layer in front of the History classes: identical reads issued while
+ * one is already in flight wait for that read instead of querying Google Fit again.
+ * Every waiting Promise gets its own copy of the result.
+ *
+ * Waiters may carry a request id. Cancelling it rejects that waiter right away, and
+ * aborts the shared read once no other waiter is left. A waiter with a timeout is
+ * rejected with E_TIMEOUT once it expires, the same way.
+ *
+ * When an interactive caller joins a read queued in the background lane, the read is
+ * promoted to the interactive lane.
+ *
+ * Reads still fresh in the ResponseCache are answered from it, and finished reads are
+ * stored there unless a write invalidated their metric while they ran.
+ *
+ * A stale-while-revalidate read is answered with the last known result, expired or not,
+ * and then read again in the background lane. When the new result differs, the listener
+ * gets the buckets that changed.
+ *
+ * A read asking for some fields only is shared and cached under its own key, and projected
+ * once before that.
+ *
+ * Results are shared and cached as rows. A waiter asking for the columnar format gets
+ * its own columnar copy, update events always carry rows.
+ */
+class QueryCoalescer {
+
+    private static final String TAG = "RNGoogleFit";
+
+    interface UpdateListener {
+        /**
+         * @param update the changed and removed buckets, see ResultDiff
+         */
+        void onUpdate(String key, @Nullable String requestId, WritableMap update);
+    }
+
+    private static class Waiter {
+        final Promise promise;
+        final String requestId;
+        final boolean columnar;
+        ScheduledFuture<?> expiry;
+
+        Waiter(Promise promise, String requestId, boolean columnar) {
+            this.promise = promise;
+            this.requestId = requestId;
+            this.columnar = columnar;
+        }
+    }
+
+    private static class Revalidation {
+        final Object stale;
+        final String requestId;
+
+        Revalidation(Object stale, String requestId) {
+            this.stale = stale;
+            this.requestId = requestId;
+        }
+    }
+
+    private static class Flight {
+        final String key;
+        final FetchRequest request = new FetchRequest();
+        final List<Waiter> waiters = new ArrayList<>();
+        final List<Revalidation> revalidations = new ArrayList<>();
+        final long generation;
+        FetchExecutor.Priority priority;
+        FetchExecutor.Job job;
+        boolean cacheable;
+
+        Flight(String key, FetchExecutor.Priority priority, long generation) {
+            this.key = key;
+            this.priority = priority;
+            this.generation = generation;
+        }
+    }
+
+    private final FetchExecutor fetchExecutor;
+    private final ResponseCache responseCache;
+    private final UpdateListener updateListener;
+    private final Map<String, Flight> inFlight = new HashMap<>();
+    private final Map<String, Flight> flightByRequestId = new HashMap<>();
+
+    QueryCoalescer(FetchExecutor fetchExecutor, ResponseCache responseCache, UpdateListener updateListener) {
+        this.fetchExecutor = fetchExecutor;
+        this.responseCache = responseCache;
+        this.updateListener = updateListener;
+    }
+
+    void submit(String key, FetchOptions options, Promise promise, FetchExecutor.Fetch fetch) {
+        // a packed payload has no fields to pick from
+        if (!options.fields.isAll() && !options.packed) {
+            key = key + "|fields:" + options.fields.key();
+            FetchExecutor.Fetch read = fetch;
+            fetch = request -> ResponseCache.toBridge(options.fields.project(ResponseCache.toJava(read.run(request))));
+        }
+        if (options.isCacheable()) {
+            Object cached = responseCache.get(key);
+            if (cached != null) {
+                promise.resolve(options.columnar ? columnar(ResponseCache.toJava(cached)) : cached);
+                return;
+            }
+            Object stale = options.staleWhileRevalidate ? responseCache.getStale(key) : null;
+            if (stale != null) {
+                promise.resolve(options.columnar ? columnar(stale) : ResponseCache.toBridge(stale));
+                join(key, options, null, new Revalidation(stale, options.requestId), fetch);
+                return;
+            }
+        } else if (options.partial) {
+            // a partial result depends on the deadline, so only reads with the same one are shared
+            key = key + "|partial:" + options.timeoutMillis;
+        }
+        join(key, options, new Waiter(promise, options.requestId, options.columnar), null, fetch);
+    }
+
+    /**
+     * Adds a waiter, or a background refresh of a stale result, to the read of the key,
+     * and starts that read when none is in flight.
+     */
+    private void join(String key, FetchOptions options, @Nullable final Waiter waiter,
+                      @Nullable Revalidation revalidation, FetchExecutor.Fetch fetch) {
+        // a refresh has nobody waiting on it, so it never holds up interactive reads
+        FetchExecutor.Priority priority = waiter != null ? options.priority : FetchExecutor.Priority.BACKGROUND;
+        final Flight flight;
+        boolean start = false;
+        FetchExecutor.Job promote = null;
+        synchronized (this) {
+            Flight existing = inFlight.get(key);
+            if (existing != null) {
+                flight = existing;
+                if (waiter != null) {
+                    flight.request.extendDeadline(options.timeoutMillis);
+                }
+                if (priority == FetchExecutor.Priority.INTERACTIVE && flight.priority != priority) {
+                    flight.priority = priority;
+                    // a job that is not submitted yet is promoted by its starter below
+                    promote = flight.job;
+                }
+            } else {
+                flight = new Flight(key, priority, responseCache.generation());
+                // a partial result may miss late sources, so it is never cached
+                flight.cacheable = options.isCacheable();
+                flight.request.setDeadline(waiter != null ? options.timeoutMillis : 0);
+                flight.request.setPartial(options.partial);
+                inFlight.put(key, flight);
+                start = true;
+            }
+            if (revalidation != null) {
+                flight.revalidations.add(revalidation);
+            }
+            if (waiter != null) {
+                flight.waiters.add(waiter);
+                if (options.requestId != null) {
+                    flightByRequestId.put(options.requestId, flight);
+                }
+                if (options.hasDeadline() && !options.partial) {
+                    // partial reads settle themselves at the deadline with what they have
+                    waiter.expiry = fetchExecutor.schedule(() -> expire(flight, waiter), options.timeoutMillis);
+                }
+            }
+        }
+
+        if (start) {
+            FetchExecutor.Job job = fetchExecutor.submit(flight.request, priority, fetch,
+                    (result, error) -> settle(flight, result, error));
+            synchronized (this) {
+                flight.job = job;
+                if (flight.priority != job.getPriority()) {
+                    promote = job;
+                }
+            }
+        }
+        if (promote != null) {
+            fetchExecutor.promote(promote);
+        }
+    }
+
+    /**
+     * Rejects the read registered under requestId with E_CANCELLED.
+     * @return false when no such read is pending
+     */
+    boolean cancel(String requestId) {
+        Flight flight;
+        Waiter waiter = null;
+        synchronized (this) {
+            flight = flightByRequestId.get(requestId);
+            if (flight == null) {
+                return false;
+            }
+            for (Waiter candidate : flight.waiters) {
+                if (requestId.equals(candidate.requestId)) {
+                    waiter = candidate;
+                    break;
+                }
+            }
+        }
+        return waiter != null
+                && remove(flight, waiter, FetchException.E_CANCELLED, "Request " + requestId + " was cancelled");
+    }
+
+    synchronized int inFlightCount() {
+        return inFlight.size();
+    }
+
+    private void expire(Flight flight, Waiter waiter) {
+        remove(flight, waiter, FetchException.E_TIMEOUT, "Google Fit did not answer in time");
+    }
+
+    /**
+     * Rejects a single waiter, and aborts its read when nobody else waits for it.
+     */
+    private boolean remove(Flight flight, Waiter waiter, String code, String message) {
+        boolean abort = false;
+        synchronized (this) {
+            if (!flight.waiters.remove(waiter)) {
+                return false;
+            }
+            if (waiter.requestId != null && flightByRequestId.get(waiter.requestId) == flight) {
+                flightByRequestId.remove(waiter.requestId);
+            }
+            if (flight.waiters.isEmpty() && flight.revalidations.isEmpty() && inFlight.get(flight.key) == flight) {
+                inFlight.remove(flight.key);
+                abort = true;
+            }
+        }
+
+        if (waiter.expiry != null) {
+            waiter.expiry.cancel(false);
+        }
+        waiter.promise.reject(code, message);
+        if (abort) {
+            flight.request.cancel();
+        }
+        return true;
+    }
+
+    private void settle(Flight flight, Object result, Exception error) {
+        List<Waiter> waiters;
+        List<Revalidation> revalidations;
+        synchronized (this) {
+            if (inFlight.get(flight.key) == flight) {
+                inFlight.remove(flight.key);
+            }
+            waiters = new ArrayList<>(flight.waiters);
+            flight.waiters.clear();
+            revalidations = new ArrayList<>(flight.revalidations);
+            flight.revalidations.clear();
+            for (Waiter waiter : waiters) {
+                if (waiter.requestId != null && flightByRequestId.get(waiter.requestId) == flight) {
+                    flightByRequestId.remove(waiter.requestId);
+                }
+            }
+        }
+        // a failed read rejects instead of resolving empty, and a degraded one is marked incomplete,
+        // so neither is kept as the last known result
+        if (error == null && flight.cacheable && flight.request.isComplete()) {
+            // before any waiter is resolved, the result is consumed once sent
+            responseCache.put(flight.key, result, flight.generation);
+        }
+        if (!revalidations.isEmpty()) {
+            revalidated(flight.key, revalidations, result, error);
+        }
+        if (waiters.isEmpty()) {
+            return;
+        }
+
+        // bridged results are consumed when sent, so copy them before the first waiter is resolved
+        List<Object> results = new ArrayList<>(waiters.size());
+        Object rows = null;
+        boolean first = true;
+        for (Waiter waiter : waiters) {
+            if (error != null) {
+                results.add(null);
+            } else if (waiter.columnar) {
+                if (rows == null) {
+                    rows = ResponseCache.toJava(result);
+                }
+                results.add(columnar(rows));
+            } else {
+                results.add(first ? result : HelperUtil.copyForBridge(result));
+                first = false;
+            }
+        }
+
+        for (int i = 0; i < waiters.size(); i++) {
+            Waiter waiter = waiters.get(i);
+            if (waiter.expiry != null) {
+                waiter.expiry.cancel(false);
+            }
+            FetchExecutor.settle(waiter.promise, results.get(i), error);
+        }
+    }
+
+    private static Object columnar(Object rows) {
+        return ResponseCache.toBridge(ColumnarFormat.convert(rows));
+    }
+
+    private void revalidated(String key, List<Revalidation> revalidations, Object result, Exception error) {
+        if (error != null) {
+            // the caller keeps the stale result it already has
+            Log.w(TAG, "Could not refresh " + key + ": " + error);
+            return;
+        }
+        Object fresh = ResponseCache.toJava(result);
+        for (Revalidation revalidation : revalidations) {
+            WritableMap update = ResultDiff.diff(revalidation.stale, fresh);
+            if (update != null) {
+                updateListener.onUpdate(key, revalidation.requestId, update);
+            }
+        }
+    }
+}
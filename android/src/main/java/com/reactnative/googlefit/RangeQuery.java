@@ -0,0 +1,110 @@
+/**
+ * Copyright (c) 2017-present, Stanislav Doskalenko - doskalenko.s@gmail.com
+ * All rights reserved.
+ *
+ * This source code is licensed under the MIT-style license found in the
+ * LICENSE file in the root directory of this source tree.
+ *
+ **/
+
+package com.reactnative.googlefit;
+
+import com.google.android.gms.common.api.PendingResult;
+import com.google.android.gms.common.api.Result;
+import com.google.android.gms.tasks.Task;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Splits long bucketed reads into sub-reads Google Fit answers quickly.
+ *
+ * Fit gets very slow or stops answering past roughly 3,000 buckets in one aggregate read,
+ * so a range is cut at bucket boundaries into parts of at most MAX_BUCKETS_PER_REQUEST
+ * buckets. Buckets are counted from the start of the range, which makes the buckets of
+ * the parts identical to the ones of a single read. A few parts run at a time, and the
+ * results come back in range order so the callers can simply append them.
+ */
+class RangeQuery {
+
+    static final int MAX_BUCKETS_PER_REQUEST = 1000;
+    static final int MAX_PARALLEL_REQUESTS = 3;
+
+    interface Read<T> {
+        T start(long startTime, long endTime);
+    }
+
+    interface Call<T> {
+        T start(int index);
+    }
+
+    /**
+     * @return [startTime, endTime] pairs in order, a single pair when the range is small enough
+     */
+    static List<long[]> split(long startTime, long endTime, int bucketInterval, String bucketUnit) {
+        List<long[]> ranges = new ArrayList<>();
+        long bucketMillis = HelperUtil.processBucketUnit(bucketUnit).toMillis(bucketInterval);
+        if (bucketMillis <= 0 || bucketMillis > Long.MAX_VALUE / MAX_BUCKETS_PER_REQUEST || endTime <= startTime) {
+            ranges.add(new long[]{startTime, endTime});
+            return ranges;
+        }
+        long span = bucketMillis * MAX_BUCKETS_PER_REQUEST;
+        for (long from = startTime; from < endTime; from += span) {
+            ranges.add(new long[]{from, Math.min(endTime, from + span)});
+        }
+        return ranges;
+    }
+
+    /**
+     * Runs one read per range with at most MAX_PARALLEL_REQUESTS pending at a time.
+     * @return the results in range order
+     */
+    static <R extends Result> List<R> read(FetchRequest request, List<long[]> ranges, Read<PendingResult<R>> read)
+            throws FetchException {
+        List<R> results = new ArrayList<>(ranges.size());
+        ArrayDeque<PendingResult<R>> window = new ArrayDeque<>();
+        int next = 0;
+        while (results.size() < ranges.size()) {
+            while (next < ranges.size() && window.size() < MAX_PARALLEL_REQUESTS) {
+                long[] range = ranges.get(next++);
+                window.add(read.start(range[0], range[1]));
+            }
+            results.add(request.await(window.poll()));
+        }
+        return results;
+    }
+
+    /**
+     * Starts count Tasks with at most MAX_PARALLEL_REQUESTS pending at a time and waits for them.
+     * A failed Task does not stop the others, callers check each Task themselves.
+     * When a partial read hits its deadline, the Tasks not started yet are left null.
+     * @return the Tasks in call order
+     */
+    static <T> List<Task<T>> await(FetchRequest request, int count, Call<Task<T>> call, long timeout, TimeUnit unit)
+            throws Exception {
+        List<Task<T>> tasks = new ArrayList<>(count);
+        int next = 0;
+        for (int i = 0; i < count; i++) {
+            while (next < count && next - i < MAX_PARALLEL_REQUESTS) {
+                tasks.add(call.start(next++));
+            }
+            try {
+                request.await(tasks.get(i), timeout, unit);
+            } catch (ExecutionException e) {
+                // kept on the failed Task
+            } catch (FetchException e) {
+                if (!request.isPartial() || !FetchException.E_TIMEOUT.equals(e.getCode())) {
+                    throw e;
+                }
+                while (tasks.size() < count) {
+                    tasks.add(null);
+                }
+                break;
+            }
+        }
+        return tasks;
+    }
+}
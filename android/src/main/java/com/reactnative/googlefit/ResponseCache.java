@@ -0,0 +1,334 @@
+/**
+ * Copyright (c) 2017-present, Stanislav Doskalenko - doskalenko.s@gmail.com
+ * All rights reserved.
+ *
+ * This source code is licensed under the MIT-style license found in the
+ * LICENSE file in the root directory of this source tree.
+ *
+ **/
+
+package com.reactnative.googlefit;
+
+import android.os.SystemClock;
+
+import com.facebook.react.bridge.Arguments;
+import com.facebook.react.bridge.ReadableArray;
+import com.facebook.react.bridge.ReadableMap;
+import com.facebook.react.bridge.WritableMap;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Keeps recent read results in memory, keyed by the same normalized query key the
+ * QueryCoalescer uses, so a re-render or a tab switch does not go back to Google Fit.
+ *
+ * Every metric has its own time to live, metrics without one are not cached. Expired entries
+ * are kept as the last known result for stale-while-revalidate reads until a newer result
+ * replaces them. Entries are evicted least recently used first once their estimated size
+ * passes the byte budget.
+ * Results are kept as plain Java collections and handed out as fresh bridge copies.
+ */
+class ResponseCache {
+
+    static final long DEFAULT_MAX_BYTES = 2 * 1024 * 1024;
+    static final long DEFAULT_TTL_MILLIS = 60 * 1000;
+
+    // a read of today this small stays through memory trims, it is what a dashboard shows first
+    private static final long PINNED_MAX_BYTES = 16 * 1024;
+    private static final long DAY_MILLIS = 24 * 60 * 60 * 1000L;
+
+    // aggregate reads, the ones repeated on every screen
+    private static final String[] DEFAULT_METRICS = {
+            "steps", "distance", "calories", "moveMinutes", "activitySamples",
+            "dailySummary", "nutrition", "weight", "bloodPressure"
+    };
+
+    private static class Entry {
+        final Object value;
+        final long bytes;
+        final long expiresAt;
+
+        Entry(Object value, long bytes, long expiresAt) {
+            this.value = value;
+            this.bytes = bytes;
+            this.expiresAt = expiresAt;
+        }
+    }
+
+    // access order, the eldest entry is the least recently used one
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private final Map<String, Long> ttls = new HashMap<>();
+    private long maxBytes = DEFAULT_MAX_BYTES;
+    private long bytes;
+    private long hits;
+    private long misses;
+    private long evictions;
+    private long staleHits;
+    private long trimmedBytes;
+    private long generation;
+
+    ResponseCache() {
+        for (String metric : DEFAULT_METRICS) {
+            ttls.put(metric, DEFAULT_TTL_MILLIS);
+        }
+    }
+
+    /**
+     * @return a bridge copy of the cached result, or null on a miss
+     */
+    synchronized Object get(String key) {
+        if (ttlOf(key) <= 0) {
+            return null;
+        }
+        Entry entry = entries.get(key);
+        if (entry == null || entry.expiresAt <= SystemClock.elapsedRealtime()) {
+            // an expired entry stays until it is replaced or evicted, as the last known result
+            misses++;
+            return null;
+        }
+        hits++;
+        return toBridge(entry.value);
+    }
+
+    /**
+     * @return whether a result is cached and within its TTL
+     */
+    synchronized boolean isFresh(String key) {
+        Entry entry = entries.get(key);
+        return entry != null && entry.expiresAt > SystemClock.elapsedRealtime();
+    }
+
+    /**
+     * @return the last known result, expired or not, as plain Java collections that must not be
+     * changed, null when there is none
+     */
+    synchronized Object getStale(String key) {
+        if (ttlOf(key) <= 0) {
+            return null;
+        }
+        Entry entry = entries.get(key);
+        if (entry == null) {
+            return null;
+        }
+        staleHits++;
+        return entry.value;
+    }
+
+    /**
+     * Reads started before a write or a sign-out pass the generation they saw,
+     * so their result is dropped instead of caching data that is already stale.
+     */
+    synchronized long generation() {
+        return generation;
+    }
+
+    synchronized void put(String key, Object result, long generation) {
+        long ttl = ttlOf(key);
+        if (ttl <= 0 || generation != this.generation || result == null) {
+            return;
+        }
+        Object value = toJava(result);
+        if (isPartial(value)) {
+            return;
+        }
+        long size = estimateBytes(value) + key.length() * 2;
+        if (size > maxBytes) {
+            return;
+        }
+        remove(key);
+        entries.put(key, new Entry(value, size, SystemClock.elapsedRealtime() + ttl));
+        bytes += size;
+        trim();
+    }
+
+    /**
+     * Drops every entry of the given metrics, e.g. after a write to them.
+     */
+    synchronized void invalidate(String... metrics) {
+        generation++;
+        Iterator<Map.Entry<String, Entry>> iterator = entries.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<String, Entry> entry = iterator.next();
+            String metric = metricOf(entry.getKey());
+            for (String invalidated : metrics) {
+                if (invalidated.equals(metric)) {
+                    bytes -= entry.getValue().bytes;
+                    iterator.remove();
+                    break;
+                }
+            }
+        }
+    }
+
+    synchronized void clear() {
+        generation++;
+        entries.clear();
+        bytes = 0;
+    }
+
+    /**
+     * Evicts least recently used entries until at most the given bytes are used, for memory trims.
+     * The small reads of today are kept.
+     * @return the bytes freed
+     */
+    synchronized long trimTo(long targetBytes) {
+        long before = bytes;
+        long now = System.currentTimeMillis();
+        Iterator<Map.Entry<String, Entry>> iterator = entries.entrySet().iterator();
+        while (bytes > targetBytes && iterator.hasNext()) {
+            Map.Entry<String, Entry> entry = iterator.next();
+            if (!isPinned(entry.getKey(), entry.getValue(), now)) {
+                bytes -= entry.getValue().bytes;
+                iterator.remove();
+            }
+        }
+        trimmedBytes += before - bytes;
+        return before - bytes;
+    }
+
+    synchronized long getMaxBytes() {
+        return maxBytes;
+    }
+
+    synchronized void setMaxBytes(long maxBytes) {
+        this.maxBytes = Math.max(0, maxBytes);
+        trim();
+    }
+
+    /**
+     * @param ttlMillis 0 stops caching the metric
+     */
+    synchronized void setTtl(String metric, long ttlMillis) {
+        ttls.put(metric, Math.max(0, ttlMillis));
+        if (ttlMillis <= 0) {
+            invalidate(metric);
+        }
+    }
+
+    synchronized WritableMap getStats() {
+        WritableMap stats = Arguments.createMap();
+        stats.putDouble("hits", hits);
+        stats.putDouble("misses", misses);
+        stats.putDouble("evictions", evictions);
+        stats.putDouble("staleHits", staleHits);
+        stats.putDouble("trimmedBytes", trimmedBytes);
+        stats.putInt("entries", entries.size());
+        stats.putDouble("bytes", bytes);
+        stats.putDouble("maxBytes", maxBytes);
+        return stats;
+    }
+
+    private void trim() {
+        Iterator<Map.Entry<String, Entry>> iterator = entries.entrySet().iterator();
+        while (bytes > maxBytes && iterator.hasNext()) {
+            bytes -= iterator.next().getValue().bytes;
+            iterator.remove();
+            evictions++;
+        }
+    }
+
+    private void remove(String key) {
+        Entry entry = entries.remove(key);
+        if (entry != null) {
+            bytes -= entry.bytes;
+        }
+    }
+
+    /**
+     * A read whose range, from the normalized query key, covers now and at most a day.
+     */
+    private static boolean isPinned(String key, Entry entry, long now) {
+        if (entry.bytes > PINNED_MAX_BYTES) {
+            return false;
+        }
+        String[] parts = key.split("\\|");
+        if (parts.length < 3) {
+            return false;
+        }
+        try {
+            long startTime = Long.parseLong(parts[1]);
+            long endTime = Long.parseLong(parts[2]);
+            return startTime <= now && now <= endTime && endTime - startTime <= DAY_MILLIS;
+        } catch (NumberFormatException e) {
+            return false;
+        }
+    }
+
+    private long ttlOf(String key) {
+        Long ttl = ttls.get(metricOf(key));
+        return ttl != null ? ttl : 0;
+    }
+
+    private static String metricOf(String key) {
+        int end = key.indexOf('|');
+        return end < 0 ? key : key.substring(0, end);
+    }
+
+    /**
+     * A read whose sources did not all answer, e.g. the step sources with a timeout status,
+     * is returned once but not kept, so the next read tries those sources again.
+     */
+    private static boolean isPartial(Object value) {
+        if (!(value instanceof List)) {
+            return false;
+        }
+        for (Object item : (List<?>) value) {
+            if (item instanceof Map) {
+                Object status = ((Map<?, ?>) item).get("status");
+                if (status != null && !"ok".equals(status)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    static Object toJava(Object result) {
+        if (result instanceof ReadableArray) {
+            return ((ReadableArray) result).toArrayList();
+        }
+        if (result instanceof ReadableMap) {
+            return ((ReadableMap) result).toHashMap();
+        }
+        return result;
+    }
+
+    @SuppressWarnings("unchecked")
+    static Object toBridge(Object value) {
+        if (value instanceof List) {
+            return Arguments.makeNativeArray((List) value);
+        }
+        if (value instanceof Map) {
+            return Arguments.makeNativeMap((Map<String, Object>) value);
+        }
+        return value;
+    }
+
+    /**
+     * Rough heap size of a result, enough to keep the cache within its budget.
+     */
+    static long estimateBytes(Object value) {
+        if (value instanceof String) {
+            return 40 + ((String) value).length() * 2L;
+        }
+        if (value instanceof List) {
+            long size = 40;
+            for (Object item : (List<?>) value) {
+                size += 8 + estimateBytes(item);
+            }
+            return size;
+        }
+        if (value instanceof Map) {
+            long size = 48;
+            for (Map.Entry<?, ?> entry : ((Map<?, ?>) value).entrySet()) {
+                size += 32 + estimateBytes(entry.getKey()) + estimateBytes(entry.getValue());
+            }
+            return size;
+        }
+        return 16;
+    }
+}
@@ -0,0 +1,137 @@
+/**
+ * Copyright (c) 2017-present, Stanislav Doskalenko - doskalenko.s@gmail.com
+ * All rights reserved.
+ *
+ * This source code is licensed under the MIT-style license found in the
+ * LICENSE file in the root directory of this source tree.
+ *
+ **/
+
+package com.reactnative.googlefit;
+
+import com.facebook.react.bridge.Arguments;
+import com.facebook.react.bridge.WritableMap;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Works out which buckets of a read changed between two results, for the update event
+ * of a stale-while-revalidate read.
+ *
+ * Results are compared as plain Java collections. Items of a list are matched by their
+ * startDate, or date, and by position when they have neither. An item holding lists of
+ * its own, like a step source with its steps, is narrowed to the entries of those lists
+ * that changed when nothing else about it did.
+ */
+class ResultDiff {
+
+    private ResultDiff() {
+    }
+
+    /**
+     * @return { changed, removed }, with the changed items and the startDate of the removed ones,
+     * null when nothing changed
+     */
+    static WritableMap diff(Object stale, Object fresh) {
+        if (fresh == null || fresh.equals(stale)) {
+            return null;
+        }
+        List<Object> changed = new ArrayList<>();
+        List<Object> removed = new ArrayList<>();
+        if (stale instanceof List && fresh instanceof List) {
+            changed = changedItems((List<?>) stale, (List<?>) fresh);
+            removed = removedIds((List<?>) stale, (List<?>) fresh);
+        } else {
+            changed.add(fresh);
+        }
+
+        WritableMap update = Arguments.createMap();
+        update.putArray("changed", Arguments.makeNativeArray(changed));
+        update.putArray("removed", Arguments.makeNativeArray(removed));
+        return update;
+    }
+
+    private static List<Object> changedItems(List<?> stale, List<?> fresh) {
+        Map<Object, Object> staleById = byId(stale);
+        List<Object> changed = new ArrayList<>();
+        for (int i = 0; i < fresh.size(); i++) {
+            Object item = fresh.get(i);
+            Object previous = staleById.get(idOf(item, i));
+            if (item == null ? previous == null : item.equals(previous)) {
+                continue;
+            }
+            changed.add(narrow(previous, item));
+        }
+        return changed;
+    }
+
+    private static List<Object> removedIds(List<?> stale, List<?> fresh) {
+        Set<Object> freshIds = byId(fresh).keySet();
+        List<Object> removed = new ArrayList<>();
+        for (int i = 0; i < stale.size(); i++) {
+            Object id = idOf(stale.get(i), i);
+            if (!freshIds.contains(id) && !(id instanceof Integer)) {
+                removed.add(id);
+            }
+        }
+        return removed;
+    }
+
+    /**
+     * Keeps only the changed entries of the nested lists of an item, when its other fields are the same.
+     */
+    @SuppressWarnings("unchecked")
+    private static Object narrow(Object previous, Object item) {
+        if (!(previous instanceof Map) || !(item instanceof Map)) {
+            return item;
+        }
+        Map<String, Object> before = (Map<String, Object>) previous;
+        Map<String, Object> after = (Map<String, Object>) item;
+        Set<String> keys = new HashSet<>(before.keySet());
+        keys.addAll(after.keySet());
+        Map<String, Object> narrowed = new HashMap<>();
+        boolean nested = false;
+        for (String key : keys) {
+            Object a = before.get(key);
+            Object b = after.get(key);
+            if (a instanceof List && b instanceof List) {
+                narrowed.put(key, changedItems((List<?>) a, (List<?>) b));
+                nested = true;
+            } else if (a == null ? b != null : !a.equals(b)) {
+                return item;
+            } else {
+                narrowed.put(key, b);
+            }
+        }
+        return nested ? narrowed : item;
+    }
+
+    private static Map<Object, Object> byId(List<?> items) {
+        Map<Object, Object> byId = new HashMap<>();
+        for (int i = 0; i < items.size(); i++) {
+            byId.put(idOf(items.get(i), i), items.get(i));
+        }
+        return byId;
+    }
+
+    /**
+     * Dates come back as doubles or as formatted strings, the position is an Integer so it never equals one.
+     */
+    private static Object idOf(Object item, int index) {
+        if (item instanceof Map) {
+            Map<?, ?> map = (Map<?, ?>) item;
+            if (map.get("startDate") != null) {
+                return map.get("startDate");
+            }
+            if (map.get("date") != null) {
+                return map.get("date");
+            }
+        }
+        return index;
+    }
+}
@@ -0,0 +1,210 @@
+/**
+ * Copyright (c) 2017-present, Stanislav Doskalenko - doskalenko.s@gmail.com
+ * All rights reserved.
+ *
+ * This source code is licensed under the MIT-style license found in the
+ * LICENSE file in the root directory of this source tree.
+ *
+ **/
+
+package com.reactnative.googlefit;
+
+import com.facebook.react.bridge.Arguments;
+import com.facebook.react.bridge.ReadableArray;
+import com.facebook.react.bridge.WritableArray;
+import com.facebook.react.bridge.WritableMap;
+import com.google.android.gms.fitness.data.DataSet;
+import com.google.android.gms.fitness.data.Session;
+import com.google.android.gms.fitness.result.SessionReadResponse;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps the converted sleep and workout sessions, so a history screen spanning months
+ * does not read every session with all its segments again.
+ *
+ * Once a series of sessions was read, a later read first lists the sessions of its range
+ * without their data, which is cheap. Sessions whose identifier, name, description,
+ * activity and times did not change are served from here. Only the new or changed ones are
+ * read with their data, in one read spanning them. Deleted sessions are no longer listed,
+ * so they drop out. Ongoing sessions, and sessions that ended within RECENT_MILLIS, are
+ * always read again, since their segments may still be syncing.
+ */
+class SessionCache {
+
+    static final long RECENT_MILLIS = TimeUnit.HOURS.toMillis(48);
+    private static final int MAX_SESSIONS = 2000;
+
+    interface Read {
+        /**
+         * @param withData false to list the sessions only, without their data sets
+         */
+        SessionReadResponse read(long startTime, long endTime, boolean withData) throws Exception;
+    }
+
+    interface Convert {
+        /**
+         * @return the session as returned to JS, null to leave it out
+         */
+        WritableMap convert(Session session, List<DataSet> dataSets);
+    }
+
+    private static class Entry {
+        final String fingerprint;
+        final Map<String, Object> item;
+
+        Entry(String fingerprint, Map<String, Object> item) {
+            this.fingerprint = fingerprint;
+            this.item = item;
+        }
+    }
+
+    private final Map<String, LinkedHashMap<String, Entry>> series = new HashMap<>();
+    private long generation;
+
+    /**
+     * @param seriesKey the sessions of one kind read with the same options, e.g. "sleep"
+     */
+    ReadableArray read(String seriesKey, long startTime, long endTime, FetchRequest request,
+                       Read read, Convert convert) throws Exception {
+        long generation = generation();
+        if (!hasSeries(seriesKey)) {
+            SessionReadResponse response = read.read(startTime, endTime, true);
+            WritableArray results = Arguments.createArray();
+            for (Session session : response.getSessions()) {
+                request.throwIfCancelled();
+                Map<String, Object> item = convert(session, response, convert, seriesKey, generation);
+                if (item != null) {
+                    results.pushMap(Arguments.makeNativeMap(item));
+                }
+            }
+            // a range without sessions is known too, the next read lists it first
+            start(seriesKey, generation);
+            return results;
+        }
+
+        List<Session> sessions = read.read(startTime, endTime, false).getSessions();
+        Map<String, Map<String, Object>> items = new HashMap<>();
+        long changedStart = Long.MAX_VALUE;
+        long changedEnd = Long.MIN_VALUE;
+        synchronized (this) {
+            LinkedHashMap<String, Entry> entries = series.get(seriesKey);
+            for (Session session : sessions) {
+                Entry entry = entries != null ? entries.get(keyOf(session)) : null;
+                if (entry != null && entry.fingerprint.equals(fingerprintOf(session)) && !isRecent(session)) {
+                    items.put(keyOf(session), entry.item);
+                } else {
+                    changedStart = Math.min(changedStart, session.getStartTime(TimeUnit.MILLISECONDS));
+                    changedEnd = Math.max(changedEnd, session.isOngoing() ? endTime : session.getEndTime(TimeUnit.MILLISECONDS));
+                }
+            }
+        }
+
+        if (changedStart != Long.MAX_VALUE) {
+            SessionReadResponse response = read.read(changedStart, Math.max(changedEnd, changedStart + 1), true);
+            for (Session session : response.getSessions()) {
+                request.throwIfCancelled();
+                if (!items.containsKey(keyOf(session))) {
+                    items.put(keyOf(session), convert(session, response, convert, seriesKey, generation));
+                }
+            }
+        }
+
+        // in the order of the listing, a session deleted between the two reads is left out
+        WritableArray results = Arguments.createArray();
+        for (Session session : sessions) {
+            Map<String, Object> item = items.get(keyOf(session));
+            if (item != null) {
+                results.pushMap(Arguments.makeNativeMap(item));
+            }
+        }
+        return results;
+    }
+
+    /**
+     * Drops the given series, e.g. after a write to them, "workoutSessions" also drops "workoutSessions|true".
+     */
+    synchronized void invalidate(String... seriesKeys) {
+        generation++;
+        for (String seriesKey : seriesKeys) {
+            Iterator<String> keys = series.keySet().iterator();
+            while (keys.hasNext()) {
+                String key = keys.next();
+                if (key.equals(seriesKey) || key.startsWith(seriesKey + "|")) {
+                    keys.remove();
+                }
+            }
+        }
+    }
+
+    synchronized void clear() {
+        generation++;
+        series.clear();
+    }
+
+    private synchronized long generation() {
+        return generation;
+    }
+
+    private synchronized boolean hasSeries(String seriesKey) {
+        return series.containsKey(seriesKey);
+    }
+
+    private Map<String, Object> convert(Session session, SessionReadResponse response, Convert convert,
+                                        String seriesKey, long generation) {
+        WritableMap map = convert.convert(session, response.getDataSet(session));
+        Map<String, Object> item = map != null ? map.toHashMap() : null;
+        if (!session.isOngoing()) {
+            store(seriesKey, session, item, generation);
+        }
+        return item;
+    }
+
+    private synchronized void store(String seriesKey, Session session, Map<String, Object> item, long generation) {
+        LinkedHashMap<String, Entry> entries = start(seriesKey, generation);
+        if (entries != null) {
+            entries.put(keyOf(session), new Entry(fingerprintOf(session), item));
+        }
+    }
+
+    /**
+     * @return the entries of the series, null when the cache was invalidated since the read started
+     */
+    private synchronized LinkedHashMap<String, Entry> start(String seriesKey, long generation) {
+        if (generation != this.generation) {
+            return null;
+        }
+        LinkedHashMap<String, Entry> entries = series.get(seriesKey);
+        if (entries == null) {
+            // access order, the least recently used sessions are dropped past MAX_SESSIONS
+            entries = new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                    return size() > MAX_SESSIONS;
+                }
+            };
+            series.put(seriesKey, entries);
+        }
+        return entries;
+    }
+
+    private static boolean isRecent(Session session) {
+        return session.isOngoing()
+                || session.getEndTime(TimeUnit.MILLISECONDS) > System.currentTimeMillis() - RECENT_MILLIS;
+    }
+
+    private static String keyOf(Session session) {
+        // the identifier is unique per app, not across apps
+        return session.getAppPackageName() + "|" + session.getIdentifier();
+    }
+
+    private static String fingerprintOf(Session session) {
+        return session.getName() + "|" + session.getDescription() + "|" + session.getActivity()
+                + "|" + session.getStartTime(TimeUnit.MILLISECONDS) + "|" + session.getEndTime(TimeUnit.MILLISECONDS);
+    }
+}
@@ -12,7 +12,6 @@
 package com.reactnative.googlefit;
 
 import android.os.Build;
-import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 
 import androidx.annotation.RequiresApi;
@@ -25,12 +24,9 @@ import com.facebook.react.bridge.ReadableMap;
 import com.facebook.react.bridge.WritableArray;
 import com.facebook.react.bridge.WritableMap;
 
-import com.google.android.gms.auth.api.signin.GoogleSignIn;
-import com.google.android.gms.auth.api.signin.GoogleSignInAccount;
-import com.google.android.gms.auth.api.signin.GoogleSignInOptionsExtension;
-import com.google.android.gms.fitness.Fitness;
 import com.google.android.gms.fitness.FitnessActivities;
 import com.google.android.gms.fitness.FitnessOptions;
+import com.google.android.gms.fitness.SessionsClient;
 import com.google.android.gms.fitness.data.DataPoint;
 import com.google.android.gms.fitness.data.DataSet;
 import com.google.android.gms.fitness.data.DataSource;
@@ -39,20 +35,13 @@ import com.google.android.gms.fitness.data.Field;
 import com.google.android.gms.fitness.data.Session;
 import com.google.android.gms.fitness.request.SessionInsertRequest;
 import com.google.android.gms.fitness.request.SessionReadRequest;
-import com.google.android.gms.fitness.result.SessionReadResponse;
-import com.google.android.gms.tasks.OnFailureListener;
-import com.google.android.gms.tasks.OnSuccessListener;
 
 import java.text.DateFormat;
-import java.text.SimpleDateFormat;
 
 import android.util.Log;
 
 import java.util.ArrayList;
-import java.util.List;
 import java.util.concurrent.TimeUnit;
-import java.util.TimeZone;
-import java.util.stream.Collectors;
 
 public class SleepHistory {
 
@@ -62,84 +51,75 @@ public class SleepHistory {
     private static final String TAG = "RNGoogleFit-Sleep";
     private static final String sleepPermissionsError = "4: The user must be signed in to make this API call.";
     private static final int sleepErrorCode = 4;
+
+    private static final FitnessOptions SLEEP_WRITE_OPTIONS = FitnessOptions.builder()
+            .accessSleepSessions(FitnessOptions.ACCESS_WRITE)
+            .addDataType(DataType.TYPE_SLEEP_SEGMENT, FitnessOptions.ACCESS_WRITE)
+            .build();
+
     public SleepHistory(ReactContext reactContext, GoogleFitManager googleFitManager){
         this.mReactContext = reactContext;
         this.googleFitManager = googleFitManager;
     }
 
     @RequiresApi(api = Build.VERSION_CODES.N)
-    public void getSleepData(double startDate, double endDate, final Promise promise) {
-        DateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSSZ");
-        dateFormat.setTimeZone(TimeZone.getDefault());
+    public ReadableArray getSleepData(double startDate, double endDate, boolean epochTimestamps, FetchRequest request) throws Exception {
+        DateFormat dateFormat = HelperUtil.createDateFormat(epochTimestamps);
+
+        FitClients fitClients = googleFitManager.getFitClients();
+        SessionsClient sessionsClient =
+                fitClients.sessionsClient(fitClients.options(FitnessOptions.ACCESS_READ, DataType.TYPE_SLEEP_SEGMENT));
+
+        // unchanged sleep sessions come from the session cache, only new or changed ones are read with their segments
+        return googleFitManager.getSessionCache().read(epochTimestamps ? "sleep|epoch" : "sleep", (long) startDate, (long) endDate, request,
+                (start, end, withData) -> request.await(sessionsClient.readSession(createReadRequest(start, end, withData))),
+                (session, dataSets) -> {
+                    if (!session.getActivity().equals(FitnessActivities.SLEEP)) {
+                        return null;
+                    }
+                    WritableMap sleepData = Arguments.createMap();
 
-        SessionReadRequest request = new SessionReadRequest.Builder()
-                .readSessionsFromAllApps()
-                .includeSleepSessions()
-                .read(DataType.TYPE_SLEEP_SEGMENT)
-                .setTimeInterval((long) startDate, (long) endDate, TimeUnit.MILLISECONDS)
-                .build();
+                    sleepData.putString("addedBy", session.getAppPackageName());
+                    HelperUtil.putDate(sleepData, "startDate", session.getStartTime(TimeUnit.MILLISECONDS), dateFormat);
+                    HelperUtil.putDate(sleepData, "endDate", session.getEndTime(TimeUnit.MILLISECONDS), dateFormat);
 
-        GoogleSignInOptionsExtension fitnessOptions =
-                FitnessOptions.builder()
-                        .addDataType(DataType.TYPE_SLEEP_SEGMENT, FitnessOptions.ACCESS_READ)
-                        .build();
-        final  GoogleSignInAccount gsa = GoogleSignIn.getAccountForExtension(this.mReactContext, fitnessOptions);
-
-        Fitness.getSessionsClient(this.mReactContext, gsa)
-                .readSession(request)
-                .addOnSuccessListener(new OnSuccessListener<SessionReadResponse>() {
-                    @Override
-                    public void onSuccess(SessionReadResponse response) {
-                        List<Session> sleepSessions = response.getSessions()
-                            .stream()
-                            .filter(s -> s.getActivity().equals(FitnessActivities.SLEEP))
-                            .collect(Collectors.toList());
-
-                        WritableArray sleepSample = Arguments.createArray();
-
-                        for (Session session : sleepSessions) {
-                            WritableMap sleepData = Arguments.createMap();
-
-                            sleepData.putString("addedBy", session.getAppPackageName());
-                            sleepData.putString("startDate", dateFormat.format(session.getStartTime(TimeUnit.MILLISECONDS)));
-                            sleepData.putString("endDate", dateFormat.format(session.getEndTime(TimeUnit.MILLISECONDS)));
-
-                            // If the sleep session has finer granularity sub-components, extract them:
-                            List<DataSet> dataSets = response.getDataSet(session);
-                            WritableArray granularity = Arguments.createArray();
-                            for (DataSet dataSet : dataSets) {
-                                processDataSet(dataSet, granularity);
-                            }
-                            sleepData.putArray("granularity", granularity);
-
-                            sleepSample.pushMap(sleepData);
-                        }
-                        promise.resolve(sleepSample);
-                    }
-                })
-                .addOnFailureListener(new OnFailureListener() {
-                    @Override
-                    public void onFailure(@NonNull Exception e) {
-                        promise.reject(e);
+                    // If the sleep session has finer granularity sub-components, extract them:
+                    WritableArray granularity = Arguments.createArray();
+                    for (DataSet dataSet : dataSets) {
+                        processDataSet(dataSet, granularity, dateFormat);
                     }
+                    sleepData.putArray("granularity", granularity);
+                    return sleepData;
                 });
     }
 
-    private void processDataSet(DataSet dataSet, WritableArray granularity) {
-        DateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSSZ");
-        dateFormat.setTimeZone(TimeZone.getDefault());
+    private SessionReadRequest createReadRequest(long startTime, long endTime, boolean withData) {
+        SessionReadRequest.Builder readRequestBuilder = new SessionReadRequest.Builder()
+                .readSessionsFromAllApps()
+                .includeSleepSessions()
+                .setTimeInterval(startTime, endTime, TimeUnit.MILLISECONDS);
+        if (withData) {
+            readRequestBuilder.read(DataType.TYPE_SLEEP_SEGMENT);
+        }
+        return readRequestBuilder.build();
+    }
+
+    private void processDataSet(DataSet dataSet, WritableArray granularity, @Nullable DateFormat dateFormat) {
         for (DataPoint dp : dataSet.getDataPoints()) {
             WritableMap sleepStage = Arguments.createMap();
 
             sleepStage.putInt("sleepStage", dp.getValue(Field.FIELD_SLEEP_SEGMENT_TYPE).asInt());
-            sleepStage.putString("startDate", dateFormat.format(dp.getStartTime(TimeUnit.MILLISECONDS)));
-            sleepStage.putString("endDate", dateFormat.format(dp.getEndTime(TimeUnit.MILLISECONDS)));
+            HelperUtil.putDate(sleepStage, "startDate", dp.getStartTime(TimeUnit.MILLISECONDS), dateFormat);
+            HelperUtil.putDate(sleepStage, "endDate", dp.getEndTime(TimeUnit.MILLISECONDS), dateFormat);
 
             granularity.pushMap(sleepStage);
         }
     }
 
-    public void saveSleep(ReadableMap foodSample, final Promise promise) {
+    /**
+     * @param onSaved run once the session was inserted, before the promise resolves
+     */
+    public void saveSleep(ReadableMap foodSample, Runnable onSaved, final Promise promise) {
         ReadableArray stageArr = foodSample.getArray("granularity");
 
         //construct data
@@ -165,11 +145,6 @@ public class SleepHistory {
         }
 
         //save data
-        FitnessOptions fitnessOptions = FitnessOptions.builder()
-                .accessSleepSessions(FitnessOptions.ACCESS_WRITE)
-                .addDataType(DataType.TYPE_SLEEP_SEGMENT, FitnessOptions.ACCESS_WRITE)
-                .build();
-
         Session session = new Session.Builder()
                 .setName(foodSample.getString("sessionName"))
                 .setIdentifier(foodSample.getString("identifier"))
@@ -185,10 +160,13 @@ public class SleepHistory {
                 .addDataSet(dataset)
                 .build();
 
-        Fitness.getSessionsClient(this.mReactContext, GoogleSignIn.getAccountForExtension(this.mReactContext, fitnessOptions))
+        googleFitManager.getFitClients().sessionsClient(SLEEP_WRITE_OPTIONS)
                 .insertSession(request)
                 .addOnSuccessListener(
-                        unused -> promise.resolve(true)
+                        unused -> {
+                            onSaved.run();
+                            promise.resolve(true);
+                        }
                 )
                 .addOnFailureListener(
                         e -> promise.resolve(e));
@@ -11,24 +11,20 @@
 
 package com.reactnative.googlefit;
 
-import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 import android.util.Log;
 
 import com.facebook.react.bridge.Arguments;
 import com.facebook.react.bridge.Callback;
-import com.facebook.react.bridge.Promise;
 import com.facebook.react.bridge.ReactContext;
 import com.facebook.react.bridge.ReadableArray;
 import com.facebook.react.bridge.ReadableMap;
 import com.facebook.react.bridge.WritableArray;
 import com.facebook.react.bridge.WritableMap;
 import com.facebook.react.modules.core.DeviceEventManagerModule;
-import com.google.android.gms.auth.api.signin.GoogleSignIn;
-import com.google.android.gms.auth.api.signin.GoogleSignInAccount;
-import com.google.android.gms.auth.api.signin.GoogleSignInOptionsExtension;
 import com.google.android.gms.fitness.Fitness;
 import com.google.android.gms.fitness.FitnessOptions;
+import com.google.android.gms.fitness.HistoryClient;
 import com.google.android.gms.fitness.data.Bucket;
 import com.google.android.gms.fitness.data.DataPoint;
 import com.google.android.gms.fitness.data.DataSet;
@@ -39,8 +35,7 @@ import com.google.android.gms.fitness.request.DataReadRequest;
 import com.google.android.gms.fitness.result.DataReadResponse;
 import com.google.android.gms.fitness.result.DataReadResult;
 import com.google.android.gms.fitness.data.Device;
-import com.google.android.gms.tasks.OnFailureListener;
-import com.google.android.gms.tasks.OnSuccessListener;
+import com.google.android.gms.tasks.Task;
 
 import java.text.DateFormat;
 import java.text.Format;
@@ -52,7 +47,6 @@ import java.util.concurrent.TimeUnit;
 import java.text.SimpleDateFormat;
 import java.util.TimeZone;
 import java.util.ArrayList;
-import java.util.concurrent.atomic.AtomicInteger;
 
 public class StepHistory {
 
@@ -66,7 +60,7 @@ public class StepHistory {
         this.googleFitManager = googleFitManager;
     }
 
-    public void getUserInputSteps(long startTime, long endTime, final Callback successCallback) {
+    public void getUserInputSteps(long startTime, long endTime, FetchRequest request, final Callback successCallback) throws FetchException {
 
         DateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSSZ");
         dateFormat.setTimeZone(TimeZone.getDefault());
@@ -80,7 +74,7 @@ public class StepHistory {
             .build();
 
         DataReadResult dataReadResult =
-            Fitness.HistoryApi.readData(googleFitManager.getGoogleApiClient(), readRequest).await(1, TimeUnit.MINUTES);
+            request.await(Fitness.HistoryApi.readData(googleFitManager.getGoogleApiClient(), readRequest));
 
         DataSet stepData = dataReadResult.getDataSet(DataType.TYPE_STEP_COUNT_DELTA);
 
@@ -98,8 +92,43 @@ public class StepHistory {
         successCallback.invoke(userInputSteps);
     }
 
-    public void aggregateDataByDate(long startTime, long endTime, int bucketInterval,
-                                    String bucketUnit, final Promise promise) {
+    private DataReadRequest createReadRequest(DataSource dataSource, long startTime, long endTime,
+                                              int bucketInterval, String bucketUnit) {
+        DataReadRequest readRequest;
+        DataType type = dataSource.getDataType();
+
+        List<DataType> aggregateDataTypeList = DataType.getAggregatesForInput(type);
+        if (aggregateDataTypeList.size() > 0) {
+            DataType aggregateType = aggregateDataTypeList.get(0);
+            Log.i(TAG, "  + Aggregate : " + aggregateType);
+
+            //Check how many steps were walked and recorded in specified days
+            readRequest = new DataReadRequest.Builder()
+                    .aggregate(dataSource
+                        //DataType.TYPE_STEP_COUNT_DELTA
+                        ,
+                        //DataType.AGGREGATE_STEP_COUNT_DELTA
+                        aggregateType)
+                    .bucketByTime(bucketInterval, HelperUtil.processBucketUnit(bucketUnit))
+                    .setTimeRange(startTime, endTime, TimeUnit.MILLISECONDS)
+                    .build();
+        } else {
+            readRequest = new DataReadRequest.Builder()
+                    .read(dataSource)
+                    //.bucketByTime(12, TimeUnit.HOURS) // Half-day resolution
+                    .setTimeRange(startTime, endTime, TimeUnit.MILLISECONDS)
+                    .build();
+        }
+        return readRequest;
+    }
+
+    public ReadableArray aggregateDataByDate(long startTime, long endTime, int bucketInterval,
+                                             String bucketUnit, FetchRequest request) throws Exception {
+        return aggregateDataByDate(startTime, endTime, bucketInterval, bucketUnit, FieldProjection.ALL, request);
+    }
+
+    public ReadableArray aggregateDataByDate(long startTime, long endTime, int bucketInterval,
+                                             String bucketUnit, FieldProjection fields, FetchRequest request) throws Exception {
 
         DateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSSZ");
         dateFormat.setTimeZone(TimeZone.getDefault());
@@ -142,7 +171,7 @@ public class StepHistory {
                 .build()
         );
 
-        final AtomicInteger dataSourcesToLoad = new AtomicInteger(dataSources.size());
+        List<WritableMap> sources = new ArrayList<>();
 
         for (DataSource dataSource : dataSources) {
             final WritableMap source = Arguments.createMap();
@@ -184,86 +213,90 @@ public class StepHistory {
                 source.putNull("deviceType");
             }
 
-            //if (!DataType.TYPE_STEP_COUNT_DELTA.equals(type)) continue;
-            DataReadRequest readRequest;
-
-            List<DataType> aggregateDataTypeList = DataType.getAggregatesForInput(type);
-            if (aggregateDataTypeList.size() > 0) {
-                DataType aggregateType = aggregateDataTypeList.get(0);
-                Log.i(TAG, "  + Aggregate : " + aggregateType);
-
-                //Check how many steps were walked and recorded in specified days
-                readRequest = new DataReadRequest.Builder()
-                        .aggregate(dataSource
-                            //DataType.TYPE_STEP_COUNT_DELTA
-                            ,
-                            //DataType.AGGREGATE_STEP_COUNT_DELTA
-                            aggregateType)
-                        .bucketByTime(bucketInterval, HelperUtil.processBucketUnit(bucketUnit))
-                        .setTimeRange(startTime, endTime, TimeUnit.MILLISECONDS)
-                        .build();
-            } else {
-                readRequest = new DataReadRequest.Builder()
-                        .read(dataSource)
-                        //.bucketByTime(12, TimeUnit.HOURS) // Half-day resolution
-                        .setTimeRange(startTime, endTime, TimeUnit.MILLISECONDS)
-                        .build();
-            }
+            sources.add(source);
+        }
 
-            GoogleSignInOptionsExtension fitnessOptions =
-                    FitnessOptions.builder()
-                            .addDataType(DataType.TYPE_STEP_COUNT_DELTA, FitnessOptions.ACCESS_READ)
-                            .build();
-
-            GoogleSignInAccount googleSignInAccount =
-                    GoogleSignIn.getAccountForExtension(this.mReactContext, fitnessOptions);
-
-            Fitness.getHistoryClient(this.mReactContext, googleSignInAccount)
-                .readData(readRequest)
-                    .addOnSuccessListener(new OnSuccessListener<DataReadResponse>() {
-                        @Override
-                        public void onSuccess(DataReadResponse dataReadResponse) {
-                            Log.i(TAG, "onSuccess()");
-                            WritableArray steps = Arguments.createArray();
-
-                            //Used for aggregated data
-                            if (dataReadResponse.getBuckets().size() > 0) {
-                                Log.i(TAG, "  +++ Number of buckets: " + dataReadResponse.getBuckets().size());
-                                for (Bucket bucket : dataReadResponse.getBuckets()) {
-                                    List<DataSet> dataSets = bucket.getDataSets();
-                                    for (DataSet dataSet : dataSets) {
-                                        HelperUtil.processDataSet(TAG, dataSet, steps);
-                                    }
-                                }
-                            }
+        FitClients fitClients = googleFitManager.getFitClients();
+        HistoryClient historyClient = fitClients.historyClient(
+                fitClients.options(FitnessOptions.ACCESS_READ, DataType.TYPE_STEP_COUNT_DELTA));
+
+        // long ranges are read in parts; every source reads a part before any source moves to the next one,
+        // and a failed or late part does not stop the others, the status of each source is worked out below
+        final List<long[]> ranges = RangeQuery.split(startTime, endTime, bucketInterval, bucketUnit);
+        final int sourceCount = dataSources.size();
+        List<Task<DataReadResponse>> tasks = RangeQuery.await(request, ranges.size() * sourceCount, index -> {
+            long[] range = ranges.get(index / sourceCount);
+            return historyClient.readData(
+                    createReadRequest(dataSources.get(index % sourceCount), range[0], range[1], bucketInterval, bucketUnit));
+        }, 1, TimeUnit.MINUTES);
+
+        Exception firstError = null;
+        boolean anySucceeded = false;
+        for (int i = 0; i < sourceCount; i++) {
+            request.throwIfCancelled();
+            WritableArray steps = Arguments.createArray();
+            WritableMap map = Arguments.createMap();
+            map.putMap("source", sources.get(i));
+
+            // a source is only as good as its worst part
+            Task<DataReadResponse> failed = null;
+            boolean timedOut = false;
+            for (int r = 0; r < ranges.size(); r++) {
+                Task<DataReadResponse> part = tasks.get(r * sourceCount + i);
+                if (part == null || !part.isComplete()) {
+                    timedOut = true;
+                } else if (!part.isSuccessful() && failed == null) {
+                    failed = part;
+                }
+            }
 
-                            //Used for non-aggregated data
-                            if (dataReadResponse.getDataSets().size() > 0) {
-                                Log.i(TAG, "  +++ Number of returned DataSets: " + dataReadResponse.getDataSets().size());
-                                for (DataSet dataSet : dataReadResponse.getDataSets()) {
-                                    HelperUtil.processDataSet(TAG, dataSet, steps);
-                                }
+            if (timedOut) {
+                map.putString("status", "timeout");
+            } else if (failed != null) {
+                Exception error = failed.getException();
+                Log.w(TAG, "Step source " + dataSources.get(i).getStreamIdentifier() + " failed: " + error);
+                if (firstError == null) {
+                    firstError = error;
+                }
+                map.putString("status", "error");
+                map.putString("error", error != null ? error.getMessage() : "Unknown error");
+            } else {
+                anySucceeded = true;
+                for (int r = 0; r < ranges.size(); r++) {
+                    DataReadResponse dataReadResponse = tasks.get(r * sourceCount + i).getResult();
+
+                    //Used for aggregated data
+                    if (dataReadResponse.getBuckets().size() > 0) {
+                        Log.i(TAG, "  +++ Number of buckets: " + dataReadResponse.getBuckets().size());
+                        for (Bucket bucket : dataReadResponse.getBuckets()) {
+                            List<DataSet> dataSets = bucket.getDataSets();
+                            for (DataSet dataSet : dataSets) {
+                                HelperUtil.processDataSet(TAG, dataSet, steps, fields);
                             }
+                        }
+                    }
 
-                            WritableMap map = Arguments.createMap();
-                            map.putMap("source", source);
-                            map.putArray("steps", steps);
-                            results.pushMap(map);
-
-                            if (dataSourcesToLoad.decrementAndGet() <= 0) {
-                                promise.resolve(results);
-                            }
+                    //Used for non-aggregated data
+                    if (dataReadResponse.getDataSets().size() > 0) {
+                        Log.i(TAG, "  +++ Number of returned DataSets: " + dataReadResponse.getDataSets().size());
+                        for (DataSet dataSet : dataReadResponse.getDataSets()) {
+                            HelperUtil.processDataSet(TAG, dataSet, steps, fields);
                         }
-                    }).addOnFailureListener(new OnFailureListener() {
-                        @Override
-                        public void onFailure(@NonNull Exception e) {
-                            Log.i(TAG, "onFailure()");
-                            Log.i(TAG, "Error" + e);
-                            promise.reject(e);
                     }
-            });
+                }
+                map.putString("status", "ok");
+            }
 
+            map.putArray("steps", steps);
+            results.pushMap(map);
         }
+
+        // one flaky source keeps the others, only a read where every source failed is rejected
+        if (!anySucceeded && firstError != null) {
+            throw firstError;
+        }
+
+        return results;
     }
 
 }
@@ -0,0 +1,197 @@
+/**
+ * Copyright (c) 2017-present, Stanislav Doskalenko - doskalenko.s@gmail.com
+ * All rights reserved.
+ *
+ * This source code is licensed under the MIT-style license found in the
+ * LICENSE file in the root directory of this source tree.
+ *
+ **/
+
+package com.reactnative.googlefit;
+
+import android.util.Log;
+
+import com.facebook.react.bridge.Arguments;
+import com.facebook.react.bridge.ReactContext;
+import com.facebook.react.bridge.ReadableArray;
+import com.facebook.react.bridge.WritableArray;
+import com.facebook.react.bridge.WritableMap;
+import com.google.android.gms.fitness.FitnessOptions;
+import com.google.android.gms.fitness.HistoryClient;
+import com.google.android.gms.fitness.data.Bucket;
+import com.google.android.gms.fitness.data.DataPoint;
+import com.google.android.gms.fitness.data.DataSet;
+import com.google.android.gms.fitness.data.DataSource;
+import com.google.android.gms.fitness.data.DataType;
+import com.google.android.gms.fitness.data.Field;
+import com.google.android.gms.fitness.request.DataReadRequest;
+import com.google.android.gms.fitness.result.DataReadResponse;
+import com.google.android.gms.tasks.Task;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Reads several daily metrics with one aggregate request, so a dashboard
+ * does not need a round trip per metric.
+ */
+public class SummaryHistory {
+
+    private ReactContext mReactContext;
+    private GoogleFitManager googleFitManager;
+
+    private static final String TAG = "SummaryHistory";
+
+    static final String STEPS = "steps";
+    static final String DISTANCE = "distance";
+    static final String CALORIES = "calories";
+    static final String MOVE_MINUTES = "moveMinutes";
+    static final String HEART_POINTS = "heartPoints";
+
+    static final String[] METRICS = {STEPS, DISTANCE, CALORIES, MOVE_MINUTES, HEART_POINTS};
+
+    // same source as getDailyStepCountSamples uses for the Google Fit app numbers
+    private static final DataSource ESTIMATED_STEPS = new DataSource.Builder()
+            .setAppPackageName("com.google.android.gms")
+            .setDataType(DataType.TYPE_STEP_COUNT_DELTA)
+            .setType(DataSource.TYPE_DERIVED)
+            .setStreamName("estimated_steps")
+            .build();
+
+    public SummaryHistory(ReactContext reactContext, GoogleFitManager googleFitManager) {
+        this.mReactContext = reactContext;
+        this.googleFitManager = googleFitManager;
+    }
+
+    /**
+     * @return one map per bucket with startDate, endDate and a value for each requested metric,
+     * 0 when the bucket has no data for it
+     */
+    public ReadableArray getDailySummary(long startTime, long endTime, int bucketInterval, String bucketUnit,
+                                         List<String> metrics, FetchRequest request) throws Exception {
+        DataType[] dataTypes = new DataType[metrics.size()];
+        for (int i = 0; i < dataTypes.length; i++) {
+            dataTypes[i] = inputType(metrics.get(i));
+        }
+        FitClients fitClients = googleFitManager.getFitClients();
+        HistoryClient historyClient = fitClients.historyClient(fitClients.options(FitnessOptions.ACCESS_READ, dataTypes));
+
+        List<long[]> ranges = RangeQuery.split(startTime, endTime, bucketInterval, bucketUnit);
+        List<Task<DataReadResponse>> tasks = RangeQuery.await(request, ranges.size(), index ->
+                historyClient
+                        .readData(createReadRequest(metrics, ranges.get(index)[0], ranges.get(index)[1], bucketInterval, bucketUnit)),
+                1, TimeUnit.MINUTES);
+
+        WritableArray results = Arguments.createArray();
+        for (Task<DataReadResponse> task : tasks) {
+            if (task == null || !task.isComplete()) {
+                // partial read past its deadline, keep the leading parts that answered
+                Log.w(TAG, "Deadline reached, returning the buckets that finished in time");
+                break;
+            }
+            if (!task.isSuccessful()) {
+                throw task.getException();
+            }
+            for (Bucket bucket : task.getResult().getBuckets()) {
+                request.throwIfCancelled();
+                results.pushMap(processBucket(bucket, metrics));
+            }
+        }
+        return results;
+    }
+
+    static boolean isMetric(String metric) {
+        for (String known : METRICS) {
+            if (known.equals(metric)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private DataReadRequest createReadRequest(List<String> metrics, long startTime, long endTime,
+                                              int bucketInterval, String bucketUnit) {
+        DataReadRequest.Builder readRequestBuilder = new DataReadRequest.Builder();
+        for (String metric : metrics) {
+            if (STEPS.equals(metric)) {
+                readRequestBuilder.aggregate(ESTIMATED_STEPS, DataType.AGGREGATE_STEP_COUNT_DELTA);
+            } else {
+                readRequestBuilder.aggregate(inputType(metric));
+            }
+        }
+        return readRequestBuilder
+                .bucketByTime(bucketInterval, HelperUtil.processBucketUnit(bucketUnit))
+                .setTimeRange(startTime, endTime, TimeUnit.MILLISECONDS)
+                .build();
+    }
+
+    private WritableMap processBucket(Bucket bucket, List<String> metrics) {
+        WritableMap row = Arguments.createMap();
+        row.putDouble("startDate", bucket.getStartTime(TimeUnit.MILLISECONDS));
+        row.putDouble("endDate", bucket.getEndTime(TimeUnit.MILLISECONDS));
+
+        // a bucket holds one data set per aggregate, empty when there is no data in it
+        for (String metric : metrics) {
+            DataSet dataSet = bucket.getDataSet(aggregateType(metric));
+            double value = 0;
+            if (dataSet != null) {
+                for (DataPoint dp : dataSet.getDataPoints()) {
+                    value += valueOf(metric, dp);
+                }
+            }
+            if (STEPS.equals(metric) || MOVE_MINUTES.equals(metric)) {
+                row.putInt(metric, (int) value);
+            } else {
+                row.putDouble(metric, value);
+            }
+        }
+        return row;
+    }
+
+    private static double valueOf(String metric, DataPoint dp) {
+        switch (metric) {
+            case STEPS:
+                return dp.getValue(Field.FIELD_STEPS).asInt();
+            case DISTANCE:
+                return dp.getValue(Field.FIELD_DISTANCE).asFloat();
+            case CALORIES:
+                return dp.getValue(Field.FIELD_CALORIES).asFloat();
+            case MOVE_MINUTES:
+                return dp.getValue(Field.FIELD_DURATION).asInt();
+            default:
+                return dp.getValue(Field.FIELD_INTENSITY).asFloat();
+        }
+    }
+
+    private static DataType inputType(String metric) {
+        switch (metric) {
+            case STEPS:
+                return DataType.TYPE_STEP_COUNT_DELTA;
+            case DISTANCE:
+                return DataType.TYPE_DISTANCE_DELTA;
+            case CALORIES:
+                return DataType.TYPE_CALORIES_EXPENDED;
+            case MOVE_MINUTES:
+                return DataType.TYPE_MOVE_MINUTES;
+            case HEART_POINTS:
+                return DataType.TYPE_HEART_POINTS;
+            default:
+                throw new IllegalArgumentException("Unknown summary metric " + metric);
+        }
+    }
+
+    private static DataType aggregateType(String metric) {
+        switch (metric) {
+            case STEPS:
+                return DataType.AGGREGATE_STEP_COUNT_DELTA;
+            case DISTANCE:
+                return DataType.AGGREGATE_DISTANCE_DELTA;
+            case CALORIES:
+                return DataType.AGGREGATE_CALORIES_EXPENDED;
+            case MOVE_MINUTES:
+                return DataType.AGGREGATE_MOVE_MINUTES;
+            default:
+                return DataType.AGGREGATE_HEART_POINTS;
+        }
+    }
+}
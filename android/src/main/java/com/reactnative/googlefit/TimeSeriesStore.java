@@ -0,0 +1,318 @@
+/**
+ * Copyright (c) 2017-present, Stanislav Doskalenko - doskalenko.s@gmail.com
+ * All rights reserved.
+ *
+ * This source code is licensed under the MIT-style license found in the
+ * LICENSE file in the root directory of this source tree.
+ *
+ **/
+
+package com.reactnative.googlefit;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteOpenHelper;
+import android.util.Log;
+
+import com.facebook.react.bridge.Arguments;
+import com.facebook.react.bridge.ReadableArray;
+import com.facebook.react.bridge.WritableArray;
+import com.facebook.react.bridge.WritableMap;
+import com.google.android.gms.fitness.data.DataType;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * On-device copy of the user's history, so history screens can load from disk on a cold
+ * start instead of waiting for Google Fit.
+ *
+ * A sync mirrors what the History classes read into SQLite: hourly sums for steps, distance,
+ * calories, hourly averages for weight, and the raw heart rate and hydration samples. Every
+ * type has a watermark, the time its last sync ran up to, and the next sync only reads from
+ * there on. It starts SYNC_OVERLAP_MILLIS earlier, because watches and other apps sync late,
+ * and replaces what it read over.
+ *
+ * A write from this module drops the watermark of its type, so the next sync reads the first
+ * sync window again. A write older than that window, e.g. a weight saved for last year, is
+ * only picked up after clear() of its type. The store is cleared on sign-out.
+ */
+class TimeSeriesStore extends SQLiteOpenHelper {
+
+    private static final String TAG = "RNGoogleFit";
+    private static final String DB_NAME = "rngooglefit-history.db";
+    private static final int DB_VERSION = 1;
+
+    static final String STEPS = "steps";
+    static final String DISTANCE = "distance";
+    static final String CALORIES = "calories";
+    static final String WEIGHT = "weight";
+    static final String HEART_RATE = "heartRate";
+    static final String HYDRATION = "hydration";
+
+    static final String[] TYPES = {STEPS, DISTANCE, CALORIES, WEIGHT, HEART_RATE, HYDRATION};
+
+    // first sync of a type, unless the caller asks for more
+    static final long DEFAULT_INITIAL_MILLIS = TimeUnit.DAYS.toMillis(30);
+    static final long SYNC_OVERLAP_MILLIS = TimeUnit.HOURS.toMillis(48);
+    private static final long HOUR_MILLIS = TimeUnit.HOURS.toMillis(1);
+
+    private final GoogleFitManager googleFitManager;
+
+    TimeSeriesStore(Context context, GoogleFitManager googleFitManager) {
+        super(context, DB_NAME, null, DB_VERSION);
+        this.googleFitManager = googleFitManager;
+    }
+
+    @Override
+    public void onCreate(SQLiteDatabase db) {
+        db.execSQL("CREATE TABLE samples (type TEXT NOT NULL, start INTEGER NOT NULL, end INTEGER NOT NULL, "
+                + "value REAL NOT NULL, PRIMARY KEY (type, start, end))");
+        db.execSQL("CREATE TABLE watermarks (type TEXT PRIMARY KEY, synced_until INTEGER NOT NULL)");
+    }
+
+    @Override
+    public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
+        db.execSQL("DROP TABLE IF EXISTS samples");
+        db.execSQL("DROP TABLE IF EXISTS watermarks");
+        onCreate(db);
+    }
+
+    static boolean isType(String type) {
+        for (String known : TYPES) {
+            if (known.equals(type)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Brings the given types up to date. A type whose read fails keeps its samples and watermark,
+     * since its window would otherwise be replaced with nothing and marked synced.
+     * @param since where the first sync of a type starts, 0 for the last DEFAULT_INITIAL_MILLIS
+     * @return per type the number of samples written and the new watermark
+     */
+    ReadableArray sync(List<String> types, long since, FetchRequest request) throws Exception {
+        if (request.isPartial()) {
+            // the parts a partial read leaves out would be deleted from the store
+            throw new IllegalArgumentException("A history sync can not be partial");
+        }
+        WritableArray results = Arguments.createArray();
+        for (String type : types) {
+            request.throwIfCancelled();
+            long now = System.currentTimeMillis();
+            Long watermark = getWatermark(type);
+            long from = watermark != null
+                    ? watermark - SYNC_OVERLAP_MILLIS
+                    : (since > 0 ? since : now - DEFAULT_INITIAL_MILLIS);
+            // hourly buckets start on the hour, so a later sync replaces whole buckets
+            from -= from % HOUR_MILLIS;
+
+            List<Object> items = read(type, from, now, request).toArrayList();
+            if (!request.isComplete()) {
+                throw new FetchException(FetchException.E_READ, "The " + type + " read was incomplete, it was not stored");
+            }
+            int written = replace(type, from, now, items);
+            Log.i(TAG, "Synced " + written + " " + type + " samples since " + from);
+
+            WritableMap result = Arguments.createMap();
+            result.putString("type", type);
+            result.putInt("samples", written);
+            result.putDouble("syncedUntil", now);
+            results.pushMap(result);
+        }
+        return results;
+    }
+
+    /**
+     * Reads the stored samples of a type, summed per bucket for steps, distance, calories and hydration,
+     * averaged per bucket for weight and heart rate. Buckets without samples are left out.
+     */
+    ReadableArray query(String type, long startTime, long endTime, long bucketMillis) {
+        boolean additive = !WEIGHT.equals(type) && !HEART_RATE.equals(type);
+        String bucket = bucketMillis > 0 ? "((start - ?) / " + bucketMillis + ")" : "start";
+        String sql = "SELECT " + bucket + " AS bucket, MIN(start), MAX(end), "
+                + (additive ? "SUM(value)" : "AVG(value)") + ", COUNT(*) FROM samples "
+                + "WHERE type = ? AND start >= ? AND start < ? GROUP BY bucket ORDER BY bucket";
+        String[] args = bucketMillis > 0
+                ? new String[]{String.valueOf(startTime), type, String.valueOf(startTime), String.valueOf(endTime)}
+                : new String[]{type, String.valueOf(startTime), String.valueOf(endTime)};
+
+        WritableArray results = Arguments.createArray();
+        try (Cursor cursor = getReadableDatabase().rawQuery(sql, args)) {
+            while (cursor.moveToNext()) {
+                WritableMap map = Arguments.createMap();
+                if (bucketMillis > 0) {
+                    long bucketStart = startTime + cursor.getLong(0) * bucketMillis;
+                    map.putDouble("startDate", bucketStart);
+                    map.putDouble("endDate", Math.min(bucketStart + bucketMillis, endTime));
+                } else {
+                    map.putDouble("startDate", cursor.getLong(1));
+                    map.putDouble("endDate", cursor.getLong(2));
+                }
+                map.putDouble("value", cursor.getDouble(3));
+                map.putInt("count", cursor.getInt(4));
+                results.pushMap(map);
+            }
+        }
+        return results;
+    }
+
+    ReadableArray getWatermarks() {
+        WritableArray results = Arguments.createArray();
+        try (Cursor cursor = getReadableDatabase().rawQuery("SELECT type, synced_until FROM watermarks", null)) {
+            while (cursor.moveToNext()) {
+                WritableMap map = Arguments.createMap();
+                map.putString("type", cursor.getString(0));
+                map.putDouble("syncedUntil", cursor.getLong(1));
+                results.pushMap(map);
+            }
+        }
+        return results;
+    }
+
+    /**
+     * Drops the watermarks of the given metrics that are stored types, after a write to them.
+     */
+    void invalidate(String... metrics) {
+        SQLiteDatabase db = null;
+        for (String metric : metrics) {
+            if (isType(metric)) {
+                if (db == null) {
+                    db = getWritableDatabase();
+                }
+                db.delete("watermarks", "type = ?", new String[]{metric});
+            }
+        }
+    }
+
+    /**
+     * Forgets the given types, or everything, e.g. when another account signs in.
+     */
+    void clear(List<String> types) {
+        SQLiteDatabase db = getWritableDatabase();
+        if (types == null) {
+            db.delete("samples", null, null);
+            db.delete("watermarks", null, null);
+            return;
+        }
+        for (String type : types) {
+            db.delete("samples", "type = ?", new String[]{type});
+            db.delete("watermarks", "type = ?", new String[]{type});
+        }
+    }
+
+    private Long getWatermark(String type) {
+        try (Cursor cursor = getReadableDatabase().rawQuery(
+                "SELECT synced_until FROM watermarks WHERE type = ?", new String[]{type})) {
+            return cursor.moveToFirst() ? cursor.getLong(0) : null;
+        }
+    }
+
+    private ReadableArray read(String type, long startTime, long endTime, FetchRequest request) throws Exception {
+        switch (type) {
+            case STEPS:
+                return googleFitManager.getStepHistory().aggregateDataByDate(startTime, endTime, 1, "HOUR", request);
+            case DISTANCE:
+                return googleFitManager.getDistanceHistory().aggregateDataByDate(startTime, endTime, 1, "HOUR", request);
+            case CALORIES:
+                return googleFitManager.getCalorieHistory().aggregateDataByDate(startTime, endTime, false, 1, "HOUR", request);
+            case WEIGHT:
+                return googleFitManager.getBodyHistory().getHistory(DataType.TYPE_WEIGHT, startTime, endTime, 1, "HOUR", request);
+            case HEART_RATE:
+                return googleFitManager.getHealthHistory().getHistory(DataType.TYPE_HEART_RATE_BPM, startTime, endTime, 1, "HOUR", request);
+            case HYDRATION:
+                return googleFitManager.getHydrationHistory().getHistory(startTime, endTime, request);
+            default:
+                throw new IllegalArgumentException("Unknown history type " + type);
+        }
+    }
+
+    /**
+     * Replaces the samples of [startTime, endTime) with the ones just read, and moves the watermark,
+     * in one transaction so a failed sync leaves the previous state.
+     */
+    @SuppressWarnings("unchecked")
+    private int replace(String type, long startTime, long endTime, List<Object> items) {
+        if (STEPS.equals(type)) {
+            items = estimatedSteps(items);
+        }
+        SQLiteDatabase db = getWritableDatabase();
+        int written = 0;
+        db.beginTransaction();
+        try {
+            db.delete("samples", "type = ? AND start >= ? AND start < ?",
+                    new String[]{type, String.valueOf(startTime), String.valueOf(endTime)});
+            for (Object item : items) {
+                Map<String, Object> map = (Map<String, Object>) item;
+                ContentValues values = sample(type, map);
+                if (values != null) {
+                    db.insertWithOnConflict("samples", null, values, SQLiteDatabase.CONFLICT_REPLACE);
+                    written++;
+                }
+            }
+            ContentValues watermark = new ContentValues();
+            watermark.put("type", type);
+            watermark.put("synced_until", endTime);
+            db.insertWithOnConflict("watermarks", null, watermark, SQLiteDatabase.CONFLICT_REPLACE);
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+        return written;
+    }
+
+    /**
+     * The step read returns one entry per source, only the estimated_steps one, the numbers
+     * the Google Fit app shows, is kept. A sync where it did not answer fails.
+     */
+    @SuppressWarnings("unchecked")
+    private static List<Object> estimatedSteps(List<Object> sources) {
+        for (Object entry : sources) {
+            Map<String, Object> source = (Map<String, Object>) entry;
+            Map<String, Object> info = (Map<String, Object>) source.get("source");
+            if (info != null && "estimated_steps".equals(info.get("stream"))) {
+                if (!"ok".equals(source.get("status"))) {
+                    throw new IllegalStateException("Step source estimated_steps did not answer: " + source.get("error"));
+                }
+                return (List<Object>) source.get("steps");
+            }
+        }
+        throw new IllegalStateException("Step source estimated_steps is missing");
+    }
+
+    private static ContentValues sample(String type, Map<String, Object> item) {
+        Object start = HYDRATION.equals(type) ? item.get("date") : item.get("startDate");
+        Object end = HYDRATION.equals(type) ? item.get("date") : item.get("endDate");
+        Object value;
+        switch (type) {
+            case STEPS:
+                value = item.get("steps");
+                break;
+            case DISTANCE:
+                value = item.get("distance");
+                break;
+            case CALORIES:
+                value = item.get("calorie");
+                break;
+            case HYDRATION:
+                value = item.get("waterConsumed");
+                break;
+            default:
+                value = item.get("value");
+        }
+        if (!(start instanceof Number) || !(end instanceof Number) || !(value instanceof Number)) {
+            return null;
+        }
+        ContentValues values = new ContentValues();
+        values.put("type", type);
+        values.put("start", ((Number) start).longValue());
+        values.put("end", ((Number) end).longValue());
+        values.put("value", ((Number) value).doubleValue());
+        return values;
+    }
+}
@@ -0,0 +1,455 @@
+/**
+ * Copyright (c) 2017-present, Stanislav Doskalenko - doskalenko.s@gmail.com
+ * All rights reserved.
+ *
+ * This source code is licensed under the MIT-style license found in the
+ * LICENSE file in the root directory of this source tree.
+ *
+ **/
+
+package com.reactnative.googlefit;
+
+import android.content.Context;
+import android.util.Log;
+
+import androidx.annotation.Nullable;
+
+import com.facebook.react.bridge.JavaOnlyArray;
+import com.facebook.react.bridge.JavaOnlyMap;
+import com.facebook.react.bridge.ReadableArray;
+import com.facebook.react.bridge.ReadableMap;
+import com.google.android.gms.auth.api.signin.GoogleSignIn;
+import com.google.android.gms.auth.api.signin.GoogleSignInAccount;
+import com.google.android.gms.common.api.ApiException;
+import com.google.android.gms.common.api.CommonStatusCodes;
+import com.google.android.gms.common.api.GoogleApiClient;
+import com.google.android.gms.fitness.data.DataType;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * On-device journal of the samples saved from JS, so a write made while Google Fit is
+ * unreachable is kept and replayed once the client connects again.
+ *
+ * The journal is an append-only file: "+" lines add an entry, "-" lines remove one.
+ * It is compacted when loaded. An entry is identified by a digest of its account, kind
+ * and sample, so saving the same sample twice while the first one is pending is a no-op.
+ * Entries are only replayed for the account that saved them, and the journal is dropped
+ * on sign-out.
+ */
+class WriteJournal {
+
+    static final String WEIGHT = "weight";
+    static final String HEIGHT = "height";
+    static final String HYDRATION = "hydration";
+    static final String FOOD = "food";
+    static final String BLOOD_GLUCOSE = "bloodGlucose";
+
+    private static final String TAG = "RNGoogleFit";
+    private static final String FILE_NAME = "rngooglefit-write-journal";
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    interface ReplayListener {
+        /**
+         * @param metric the metric of the cached reads a replayed write changed
+         */
+        void onReplayed(String metric);
+    }
+
+    private static class Entry {
+        final String id;
+        final String account;
+        final String kind;
+        final String sample;
+
+        Entry(String id, String account, String kind, String sample) {
+            this.id = id;
+            this.account = account;
+            this.kind = kind;
+            this.sample = sample;
+        }
+    }
+
+    private final Context context;
+    private final GoogleFitManager googleFitManager;
+    private final File file;
+    private final Map<String, Entry> entries = new LinkedHashMap<>();
+    private final Set<String> inFlight = new HashSet<>();
+    // completions of saves of a sample that was being written already, settled along with it
+    private final Map<String, List<FetchExecutor.Completion>> followers = new HashMap<>();
+    @Nullable private ReplayListener replayListener;
+
+    WriteJournal(Context context, GoogleFitManager googleFitManager) {
+        this.context = context;
+        this.googleFitManager = googleFitManager;
+        this.file = new File(context.getFilesDir(), FILE_NAME);
+        load();
+    }
+
+    void setReplayListener(@Nullable ReplayListener replayListener) {
+        this.replayListener = replayListener;
+    }
+
+    /**
+     * Journals a sample and hands it to the write queue. When Google Fit is not connected
+     * the completion fails with E_QUEUED, which callers report as queued rather than
+     * failed, and the sample waits for replay().
+     * @param sample a ReadableMap, or a ReadableArray for hydration
+     */
+    void write(String kind, Object sample, FetchExecutor.Completion completion) {
+        Entry entry;
+        boolean pending;
+        String account = currentAccount();
+        synchronized (this) {
+            String json = toJson(sample).toString();
+            String id = digest(account + "\n" + kind + "\n" + json);
+            pending = entries.containsKey(id);
+            entry = pending ? entries.get(id) : new Entry(id, account, kind, json);
+            if (!pending) {
+                entries.put(id, entry);
+                append("+" + line(entry));
+            } else if (inFlight.contains(id)) {
+                // the same sample is being written already, this save gets its outcome
+                List<FetchExecutor.Completion> waiting = followers.get(id);
+                if (waiting == null) {
+                    waiting = new ArrayList<>();
+                    followers.put(id, waiting);
+                }
+                waiting.add(completion);
+                return;
+            }
+        }
+        dispatch(entry, completion);
+    }
+
+    /**
+     * Writes every journaled sample of the signed-in account that is not in flight. The
+     * writes are queued together, so the write queue sends them in as few batches as possible.
+     */
+    void replay() {
+        String account = currentAccount();
+        List<Entry> replay = new ArrayList<>();
+        synchronized (this) {
+            for (Entry entry : entries.values()) {
+                if (entry.account.equals(account)) {
+                    replay.add(entry);
+                }
+            }
+        }
+        if (replay.isEmpty()) {
+            return;
+        }
+        Log.i(TAG, "Replaying " + replay.size() + " journaled writes");
+        for (Entry entry : replay) {
+            if (!isInFlight(entry)) {
+                dispatch(entry, (result, error) -> {
+                    ReplayListener listener = replayListener;
+                    if (error == null && listener != null) {
+                        listener.onReplayed(metricOf(entry.kind));
+                    }
+                });
+            }
+        }
+    }
+
+    synchronized int size() {
+        return entries.size();
+    }
+
+    /**
+     * Drops every journaled sample, on sign-out, so none is written to the next account.
+     */
+    synchronized void clear() {
+        entries.clear();
+        if (file.exists() && !file.delete()) {
+            Log.w(TAG, "Could not delete the write journal");
+        }
+    }
+
+    /**
+     * @return the id of the signed-in Google account, empty when there is none
+     */
+    private String currentAccount() {
+        GoogleSignInAccount account = GoogleSignIn.getLastSignedInAccount(context);
+        return account == null || account.getId() == null ? "" : account.getId();
+    }
+
+    private synchronized boolean isInFlight(Entry entry) {
+        return inFlight.contains(entry.id);
+    }
+
+    private void dispatch(final Entry entry, @Nullable final FetchExecutor.Completion completion) {
+        GoogleApiClient client = googleFitManager.getGoogleApiClient();
+        if (client == null || !client.isConnected()) {
+            complete(completion, null, new FetchException(FetchException.E_QUEUED,
+                    "Google Fit is not connected, the write was saved and will be retried"));
+            return;
+        }
+
+        synchronized (this) {
+            inFlight.add(entry.id);
+        }
+        FetchExecutor.Completion settle = (result, error) -> {
+            List<FetchExecutor.Completion> waiting;
+            synchronized (this) {
+                inFlight.remove(entry.id);
+                waiting = followers.remove(entry.id);
+                if (error == null || !isRetryable(error)) {
+                    remove(entry.id);
+                }
+            }
+            complete(completion, result, error);
+            if (waiting != null) {
+                for (FetchExecutor.Completion follower : waiting) {
+                    follower.complete(result, error);
+                }
+            }
+        };
+
+        try {
+            JSONObject sample = new JSONObject(entry.sample);
+            switch (entry.kind) {
+                case WEIGHT:
+                    googleFitManager.getBodyHistory().save(DataType.TYPE_WEIGHT, toMap(sample), settle);
+                    break;
+                case HEIGHT:
+                    googleFitManager.getBodyHistory().save(DataType.TYPE_HEIGHT, toMap(sample), settle);
+                    break;
+                case HYDRATION:
+                    googleFitManager.getHydrationHistory().save(toArray(sample.getJSONArray("samples")), settle);
+                    break;
+                case FOOD:
+                    googleFitManager.getCalorieHistory().saveFood(toMap(sample), settle);
+                    break;
+                case BLOOD_GLUCOSE:
+                    googleFitManager.getHealthHistory().saveBloodGlucose(toMap(sample), settle);
+                    break;
+                default:
+                    settle.complete(null, new IllegalArgumentException("Unknown journal entry " + entry.kind));
+            }
+        } catch (Exception e) {
+            // a sample that can not be saved, e.g. with a field missing, is settled and dropped
+            // rather than left in flight, and does not stop the replay of the others
+            settle.complete(null, e);
+        }
+    }
+
+    /**
+     * @return the metric of the reads a journaled kind of write changes
+     */
+    static String metricOf(String kind) {
+        return FOOD.equals(kind) ? "nutrition" : kind;
+    }
+
+    private static void complete(@Nullable FetchExecutor.Completion completion, Object result, Exception error) {
+        if (completion != null) {
+            completion.complete(result, error);
+        }
+    }
+
+    /**
+     * Whether a failed write should stay in the journal, because it may succeed once
+     * Google Fit is reachable again.
+     */
+    private static boolean isRetryable(Exception error) {
+        Throwable cause = error instanceof FetchException ? error.getCause() : error;
+        if (error instanceof FetchException && cause == null) {
+            // a write cancelled by a shutdown is tried again on the next connect
+            String code = ((FetchException) error).getCode();
+            return FetchException.E_TIMEOUT.equals(code) || FetchException.E_CANCELLED.equals(code);
+        }
+        if (cause instanceof ApiException) {
+            switch (((ApiException) cause).getStatusCode()) {
+                case CommonStatusCodes.NETWORK_ERROR:
+                case CommonStatusCodes.TIMEOUT:
+                case CommonStatusCodes.INTERRUPTED:
+                case CommonStatusCodes.API_NOT_CONNECTED:
+                case CommonStatusCodes.SIGN_IN_REQUIRED:
+                    return true;
+                default:
+                    return false;
+            }
+        }
+        // the client was disconnected while the write was queued
+        return cause instanceof IllegalStateException;
+    }
+
+    private void remove(String id) {
+        if (entries.remove(id) != null) {
+            append("-" + id);
+        }
+    }
+
+    private void append(String line) {
+        try (Writer writer = new OutputStreamWriter(new FileOutputStream(file, true), UTF_8)) {
+            writer.write(line);
+            writer.write('\n');
+        } catch (IOException e) {
+            Log.w(TAG, "Could not update the write journal: " + e);
+        }
+    }
+
+    private synchronized void load() {
+        if (!file.exists()) {
+            return;
+        }
+        int lines = 0;
+        try (BufferedReader reader = new BufferedReader(new FileReader(file))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                lines++;
+                if (line.startsWith("+")) {
+                    JSONArray fields = new JSONArray(line.substring(1));
+                    entries.put(fields.getString(0), new Entry(fields.getString(0), fields.getString(1),
+                            fields.getString(2), fields.getString(3)));
+                } else if (line.startsWith("-")) {
+                    entries.remove(line.substring(1));
+                }
+            }
+        } catch (IOException | JSONException e) {
+            // keep what could be read, a torn last line is expected after a crash
+            Log.w(TAG, "Could not read the whole write journal: " + e);
+        }
+
+        if (lines > entries.size()) {
+            compact();
+        }
+    }
+
+    private void compact() {
+        File compacted = new File(file.getPath() + ".tmp");
+        try (Writer writer = new OutputStreamWriter(new FileOutputStream(compacted), UTF_8)) {
+            for (Entry entry : entries.values()) {
+                writer.write("+" + line(entry));
+                writer.write('\n');
+            }
+        } catch (IOException e) {
+            Log.w(TAG, "Could not compact the write journal: " + e);
+            return;
+        }
+        if (!compacted.renameTo(file)) {
+            Log.w(TAG, "Could not replace the write journal");
+        }
+    }
+
+    private static String line(Entry entry) {
+        return new JSONArray().put(entry.id).put(entry.account).put(entry.kind).put(entry.sample).toString();
+    }
+
+    private static JSONObject toJson(Object sample) {
+        if (sample instanceof ReadableArray) {
+            Map<String, Object> wrapper = new TreeMap<>();
+            wrapper.put("samples", ((ReadableArray) sample).toArrayList());
+            return (JSONObject) canonical(wrapper);
+        }
+        return (JSONObject) canonical(((ReadableMap) sample).toHashMap());
+    }
+
+    /**
+     * Converts bridge values to JSON with sorted keys, so equal samples give equal text.
+     */
+    private static Object canonical(Object value) {
+        if (value instanceof Map) {
+            JSONObject json = new JSONObject();
+            Map<String, Object> sorted = new TreeMap<>();
+            for (Map.Entry<?, ?> item : ((Map<?, ?>) value).entrySet()) {
+                sorted.put(String.valueOf(item.getKey()), item.getValue());
+            }
+            try {
+                for (Map.Entry<String, Object> item : sorted.entrySet()) {
+                    json.put(item.getKey(), canonical(item.getValue()));
+                }
+            } catch (JSONException e) {
+                throw new IllegalArgumentException(e);
+            }
+            return json;
+        }
+        if (value instanceof List) {
+            JSONArray json = new JSONArray();
+            for (Object item : (List<?>) value) {
+                json.put(canonical(item));
+            }
+            return json;
+        }
+        return value == null ? JSONObject.NULL : value;
+    }
+
+    private static ReadableMap toMap(JSONObject json) throws JSONException {
+        JavaOnlyMap map = new JavaOnlyMap();
+        Iterator<String> keys = json.keys();
+        while (keys.hasNext()) {
+            String key = keys.next();
+            Object value = json.get(key);
+            if (value instanceof JSONObject) {
+                map.putMap(key, toMap((JSONObject) value));
+            } else if (value instanceof JSONArray) {
+                map.putArray(key, toArray((JSONArray) value));
+            } else if (value == JSONObject.NULL) {
+                map.putNull(key);
+            } else if (value instanceof Boolean) {
+                map.putBoolean(key, (Boolean) value);
+            } else if (value instanceof Number) {
+                map.putDouble(key, ((Number) value).doubleValue());
+            } else {
+                map.putString(key, value.toString());
+            }
+        }
+        return map;
+    }
+
+    private static ReadableArray toArray(JSONArray json) throws JSONException {
+        JavaOnlyArray array = new JavaOnlyArray();
+        for (int i = 0; i < json.length(); i++) {
+            Object value = json.get(i);
+            if (value instanceof JSONObject) {
+                array.pushMap(toMap((JSONObject) value));
+            } else if (value instanceof JSONArray) {
+                array.pushArray(toArray((JSONArray) value));
+            } else if (value == JSONObject.NULL) {
+                array.pushNull();
+            } else if (value instanceof Boolean) {
+                array.pushBoolean((Boolean) value);
+            } else if (value instanceof Number) {
+                array.pushDouble(((Number) value).doubleValue());
+            } else {
+                array.pushString(value.toString());
+            }
+        }
+        return array;
+    }
+
+    private static String digest(String text) {
+        try {
+            byte[] hash = MessageDigest.getInstance("SHA-1").digest(text.getBytes(UTF_8));
+            StringBuilder hex = new StringBuilder(hash.length * 2);
+            for (byte b : hash) {
+                hex.append(String.format("%02x", b));
+            }
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) {
+            return Integer.toHexString(text.hashCode());
+        }
+    }
+}
@@ -0,0 +1,253 @@
+/**
+ * Copyright (c) 2017-present, Stanislav Doskalenko - doskalenko.s@gmail.com
+ * All rights reserved.
+ *
+ * This source code is licensed under the MIT-style license found in the
+ * LICENSE file in the root directory of this source tree.
+ *
+ **/
+
+package com.reactnative.googlefit;
+
+import android.util.Log;
+
+import com.google.android.gms.common.api.ApiException;
+import com.google.android.gms.common.api.PendingResult;
+import com.google.android.gms.common.api.Status;
+import com.google.android.gms.fitness.Fitness;
+import com.google.android.gms.fitness.data.DataPoint;
+import com.google.android.gms.fitness.data.DataSet;
+import com.google.android.gms.fitness.data.DataSource;
+import com.google.android.gms.fitness.request.DataDeleteRequest;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Writes samples to Google Fit on its own worker thread.
+ *
+ * Inserts queued while a write is running are merged per data source into as few
+ * insertData calls as possible, and all calls of a round are sent before the first one
+ * is awaited. Deletes keep their place in the queue, so they never overtake an earlier
+ * insert. Every write completes with the outcome of the batches it ended up in.
+ */
+class WriteQueue {
+
+    private static final String TAG = "RNGoogleFit";
+    // Be sure to limit each individual request to 1000 datapoints. Exceeding this limit could result in an error.
+    // https://developers.google.com/fit/android/history#insert_data
+    static final int MAX_DATAPOINTS_PER_REQUEST = 900;
+    private static final long WRITE_TIMEOUT_MINUTES = 1;
+
+    private static class Write {
+        final List<DataSet> dataSets;
+        final DataDeleteRequest deleteRequest;
+        final FetchExecutor.Completion completion;
+
+        Write(List<DataSet> dataSets, DataDeleteRequest deleteRequest, FetchExecutor.Completion completion) {
+            this.dataSets = dataSets;
+            this.deleteRequest = deleteRequest;
+            this.completion = completion;
+        }
+
+        boolean isDelete() {
+            return deleteRequest != null;
+        }
+    }
+
+    private final GoogleFitManager googleFitManager;
+    private final ExecutorService executor = Executors.newSingleThreadExecutor(
+            new FetchExecutor.FetchThreadFactory("RNGoogleFit-write", Thread.NORM_PRIORITY - 1));
+    private final ArrayDeque<Write> pending = new ArrayDeque<>();
+    private boolean draining = false;
+    private boolean shutdown = false;
+
+    WriteQueue(GoogleFitManager googleFitManager) {
+        this.googleFitManager = googleFitManager;
+    }
+
+    void insert(DataSet dataSet, FetchExecutor.Completion completion) {
+        insert(Collections.singletonList(dataSet), completion);
+    }
+
+    void insert(List<DataSet> dataSets, FetchExecutor.Completion completion) {
+        enqueue(new Write(dataSets, null, completion));
+    }
+
+    void delete(DataDeleteRequest deleteRequest, FetchExecutor.Completion completion) {
+        enqueue(new Write(null, deleteRequest, completion));
+    }
+
+    /**
+     * @return the number of writes waiting for their turn
+     */
+    synchronized int size() {
+        return pending.size();
+    }
+
+    /**
+     * Fails the writes waiting for their turn with E_CANCELLED and interrupts the one
+     * being sent, so every completion runs. Later writes are failed right away.
+     */
+    void shutdown() {
+        List<Write> cancelled;
+        synchronized (this) {
+            shutdown = true;
+            cancelled = new ArrayList<>(pending);
+            pending.clear();
+        }
+        executor.shutdownNow();
+        for (Write write : cancelled) {
+            write.completion.complete(null, cancelled());
+        }
+    }
+
+    private void enqueue(Write write) {
+        boolean rejected;
+        boolean start = false;
+        synchronized (this) {
+            rejected = shutdown;
+            if (!rejected) {
+                pending.add(write);
+                start = !draining;
+                draining = true;
+            }
+        }
+        if (rejected) {
+            write.completion.complete(null, cancelled());
+            return;
+        }
+        if (!start) {
+            return;
+        }
+        try {
+            executor.execute(this::drain);
+        } catch (RejectedExecutionException e) {
+            List<Write> dropped;
+            synchronized (this) {
+                dropped = new ArrayList<>(pending);
+                pending.clear();
+                draining = false;
+            }
+            for (Write pendingWrite : dropped) {
+                pendingWrite.completion.complete(null, e);
+            }
+        }
+    }
+
+    private void drain() {
+        while (true) {
+            List<Write> round = new ArrayList<>();
+            synchronized (this) {
+                while (!pending.isEmpty() && !pending.peek().isDelete()) {
+                    round.add(pending.poll());
+                }
+                if (round.isEmpty() && !pending.isEmpty()) {
+                    round.add(pending.poll());
+                }
+                if (round.isEmpty()) {
+                    draining = false;
+                    return;
+                }
+            }
+
+            if (round.get(0).isDelete()) {
+                runDelete(round.get(0));
+            } else {
+                runInserts(round);
+            }
+        }
+    }
+
+    private void runDelete(Write write) {
+        try {
+            Status status = Fitness.HistoryApi.deleteData(googleFitManager.getGoogleApiClient(), write.deleteRequest)
+                    .await(WRITE_TIMEOUT_MINUTES, TimeUnit.MINUTES);
+            write.completion.complete(status.isSuccess() ? true : null, status.isSuccess() ? null : failure("delete", status));
+        } catch (Exception e) {
+            Log.w(TAG, "Delete failed: " + e);
+            write.completion.complete(null, e);
+        }
+    }
+
+    private void runInserts(List<Write> round) {
+        Map<Write, Exception> errors = new HashMap<>();
+        try {
+            // merge the data points of all writes by data source, keeping their order
+            Map<String, DataSource> sources = new LinkedHashMap<>();
+            Map<String, List<DataPoint>> points = new HashMap<>();
+            Map<String, List<Write>> writers = new HashMap<>();
+            for (Write write : round) {
+                for (DataSet dataSet : write.dataSets) {
+                    String key = dataSet.getDataSource().getStreamIdentifier();
+                    if (!sources.containsKey(key)) {
+                        sources.put(key, dataSet.getDataSource());
+                        points.put(key, new ArrayList<>());
+                        writers.put(key, new ArrayList<>());
+                    }
+                    points.get(key).addAll(dataSet.getDataPoints());
+                    if (!writers.get(key).contains(write)) {
+                        writers.get(key).add(write);
+                    }
+                }
+            }
+
+            List<String> batchKeys = new ArrayList<>();
+            List<PendingResult<Status>> batches = new ArrayList<>();
+            for (Map.Entry<String, DataSource> source : sources.entrySet()) {
+                List<DataPoint> sourcePoints = points.get(source.getKey());
+                for (int from = 0; from < sourcePoints.size(); from += MAX_DATAPOINTS_PER_REQUEST) {
+                    int to = Math.min(from + MAX_DATAPOINTS_PER_REQUEST, sourcePoints.size());
+                    DataSet batch = DataSet.builder(source.getValue())
+                            .addAll(sourcePoints.subList(from, to))
+                            .build();
+                    batchKeys.add(source.getKey());
+                    batches.add(Fitness.HistoryApi.insertData(googleFitManager.getGoogleApiClient(), batch));
+                }
+            }
+
+            for (int i = 0; i < batches.size(); i++) {
+                Status status = batches.get(i).await(WRITE_TIMEOUT_MINUTES, TimeUnit.MINUTES);
+                if (!status.isSuccess()) {
+                    Log.w(TAG, "There was a problem inserting the dataset: " + status);
+                    for (Write write : writers.get(batchKeys.get(i))) {
+                        if (!errors.containsKey(write)) {
+                            errors.put(write, failure("insert", status));
+                        }
+                    }
+                }
+            }
+        } catch (Exception e) {
+            Log.w(TAG, "Insert failed: " + e);
+            for (Write write : round) {
+                if (!errors.containsKey(write)) {
+                    errors.put(write, e);
+                }
+            }
+        }
+
+        for (Write write : round) {
+            Exception error = errors.get(write);
+            write.completion.complete(error == null ? true : null, error);
+        }
+    }
+
+    private static FetchException cancelled() {
+        return new FetchException(FetchException.E_CANCELLED, "The write was cancelled, the module was shut down");
+    }
+
+    private static FetchException failure(String operation, Status status) {
+        return new FetchException(FetchException.E_WRITE,
+                "Google Fit could not " + operation + " the data: " + status.getStatusMessage(),
+                new ApiException(status));
+    }
+}
@@ -12,6 +12,69 @@ declare module 'react-native-google-fit' {
 
     removeListeners: () => void
 
+    /**
+     * Tune the native side of the module.
+     * @param {Object} options configure accepts an options object containing optional fetchConcurrency: number of interactive history reads allowed to run in parallel (default 4)
+     * and backgroundFetchConcurrency: number of background history reads allowed to run in parallel (default 2),
+     * cacheSize: memory budget of the read cache in bytes (default 2 MB) and cacheTtl: how long reads stay cached per metric in ms,
+     * settleHorizon: ms after which a past bucket is considered final and kept (default 48 hours)
+     */
+    configure: (options: ConfigureOptions) => void
+
+    /**
+     * Cancel a pending read that was started with a requestId option. The read rejects with code E_CANCELLED.
+     * @param {string} requestId the id passed to the read
+     */
+    cancelRequest: (requestId: string) => Promise<boolean>
+
+    /**
+     * Samples saved while Google Fit is not connected are kept on the device and written once it connects again.
+     */
+    getPendingWrites: () => Promise<PendingWrites>
+
+    /**
+     * Repeated reads of the same range are answered from memory for a short while, these are the cache counters.
+     */
+    getCacheStats: () => Promise<CacheStats>
+
+    /**
+     * Drop every cached read, the next reads go to Google Fit again.
+     */
+    clearCache: () => Promise<void>
+
+    /**
+     * Today's total from the cache, synchronously, null when it is not cached yet and is being read in the background.
+     */
+    getCachedTodayTotal: (metric: CachedMetric) => number | null
+
+    /**
+     * The daily buckets of the last days up to the end of today from the cache, synchronously,
+     * null when they are not cached yet and are being read in the background.
+     */
+    getCachedDailySamples: (metric: CachedMetric, days?: number) => CachedSample[] | null
+
+    /**
+     * Copy history into the on-device store, each type only reads what changed since its last sync.
+     * @param {Array} types the history types to sync
+     * @param {Object} options optional since: ISO8601Timestamp where the first sync of a type starts (default 30 days ago)
+     */
+    syncHistory: (types: StoredType[], options?: { since?: string } & RequestOptions) => Promise<SyncResult[]>
+
+    /**
+     * Read synced history from the on-device store without asking Google Fit.
+     * Steps, distance, calories and hydration are summed per bucket, weight and heart rate averaged.
+     */
+    getStoredSamples: (
+      options: { type: StoredType } & StartAndEndDate & Partial<BucketOptions> & RequestOptions
+    ) => Promise<StoredSample[]>
+
+    getSyncState: () => Promise<SyncResult[]>
+
+    /**
+     * Forget the on-device history of the given types, or of all of them.
+     */
+    clearStoredHistory: (types?: StoredType[]) => Promise<void>
+
     /**
      * Start recording fitness data (steps, distance)
      * This function relies on sending events to signal the RecordingAPI status
@@ -37,18 +100,18 @@ declare module 'react-native-google-fit' {
      * Get the total steps per day over a specified date range.
      * @param {Object} options getDailyStepCountSamples accepts an options object containing optional startDate: ISO8601Timestamp and endDate: ISO8601Timestamp.
      */
-    getDailyStepCountSamples: (
-      options: StartAndEndDate & Partial<BucketOptions>
-    ) => Promise<StepsResponse[]>
+    getDailyStepCountSamples: <O extends StartAndEndDate & Partial<BucketOptions> & SampleRequestOptions>(
+      options: O
+    ) => Promise<O extends ColumnarOptions ? ColumnarStepsResponse[] : StepsResponse[]>
 
     /**
      * Get the total distance per day over a specified date range.
      * @param {Object} options getDailyDistanceSamples accepts an options object containing optional startDate: ISO8601Timestamp and endDate: ISO8601Timestamp.
      */
 
-    getDailyDistanceSamples: (
-      options: StartAndEndDate & Partial<BucketOptions>
-    ) => Promise<DistanceResponse[]>
+    getDailyDistanceSamples: <O extends StartAndEndDate & Partial<BucketOptions> & SampleRequestOptions>(
+      options: O
+    ) => Promise<SampleResults<O, DistanceResponse>>
 
     /**
      * Get the total steps per day over a specified date range.
@@ -62,31 +125,40 @@ declare module 'react-native-google-fit' {
      * @param {Object} options getActivitySamples accepts an options object containing required startDate: ISO8601Timestamp and endDate: ISO8601Timestamp.
      */
     getActivitySamples: (
-      options: StartAndEndDate & Partial<BucketOptions>,
+      options: StartAndEndDate & Partial<BucketOptions> & RequestOptions,
     ) => Promise<ActivitySampleResponse[]>;
 
     /**
      * Get the Move Minutes over a specified date range.
      * @param {Object} options getMoveMinutes accepts an options object containing required startDate: ISO8601Timestamp and endDate: ISO8601Timestamp.
      */
-    getMoveMinutes: (
-      options: StartAndEndDate & Partial<BucketOptions>,
-    ) => Promise<MoveMinutesResponse[]>;
+    getMoveMinutes: <O extends StartAndEndDate & Partial<BucketOptions> & SampleRequestOptions>(
+      options: O
+    ) => Promise<SampleResults<O, MoveMinutesResponse>>;
+    /**
+     * Get several daily metrics with one request to Google Fit.
+     * @param {Object} options getDailySummary accepts an options object containing required startDate: ISO8601Timestamp and endDate: ISO8601Timestamp,
+     * optional metrics: the metrics to read, all of them by default.
+     */
+    getDailySummary: (
+      options: StartAndEndDate & Partial<BucketOptions> & { metrics?: SummaryMetric[] } & RequestOptions,
+    ) => Promise<DailySummaryResponse[]>;
+
     /**
      * Get the total calories per day over a specified date range.
      * @param {Object} options getDailyCalorieSamples accepts an options object containing required startDate: ISO8601Timestamp and endDate: ISO8601Timestamp. optional basalCalculation - {true || false} should we substract the basal metabolic rate averaged over a week
      */
-    getDailyCalorieSamples: (
-      options: StartAndEndDate & { basalCalculation?: boolean } & Partial<BucketOptions>
-    ) => Promise<CalorieResponse[]>;
+    getDailyCalorieSamples: <O extends StartAndEndDate & { basalCalculation?: boolean } & Partial<BucketOptions> & SampleRequestOptions>(
+      options: O
+    ) => Promise<SampleResults<O, CalorieResponse>>;
 
     getDailyNutritionSamples: (
-      options: StartAndEndDate & Partial<BucketOptions>,
+      options: StartAndEndDate & Partial<BucketOptions> & RequestOptions,
     ) => Promise<NutrientResponse[]>;
 
     saveFood: (
       options: FoodIntake,
-      callback: (isError: boolean, result: true) => void
+      callback: (isError: boolean, result: true, queued: boolean) => void
     ) => void;
 
     /**
@@ -94,38 +166,38 @@ declare module 'react-native-google-fit' {
      * @param {Object} options  getWeightSamples accepts an options object containing unit: "pound"/"kg",
      *                          startDate: ISO8601Timestamp and endDate: ISO8601Timestamp.
      */
-    getWeightSamples: (
-      options: StartAndEndDate & Partial<{ unit: string, ascending: boolean } & BucketOptions>
-    ) => Promise<WeightResponse[]>;
+    getWeightSamples: <O extends StartAndEndDate & Partial<{ unit: string, ascending: boolean } & BucketOptions> & SampleRequestOptions>(
+      options: O
+    ) => Promise<SampleResults<O, WeightResponse>>;
 
     /**
      * Query for weight samples. the options object is used to setup a query to retrieve relevant samples.
      * @param {Object} options  getHeightSamples accepts an options object containing unit: "pound"/"kg",
      *                          startDate: ISO8601Timestamp and endDate: ISO8601Timestamp.
      */
-    getHeightSamples: (
-      options: StartAndEndDate
-    ) => Promise<HeightResponse[]>;
+    getHeightSamples: <O extends StartAndEndDate & SampleRequestOptions>(
+      options: O
+    ) => Promise<SampleResults<O, HeightResponse>>;
 
-    getHeartRateSamples: (
-      options: StartAndEndDate & Partial<BucketOptions>
-    ) => Promise<HeartRateResponse[]>;
+    getHeartRateSamples: <O extends StartAndEndDate & Partial<BucketOptions> & PackedRequestOptions>(
+      options: O
+    ) => Promise<PackedResults<O, HeartRateResponse>>;
 
-    getBloodPressureSamples: (
-      options: StartAndEndDate & Partial<BucketOptions>
-    ) => Promise<BloodPressureResponse[]>;
+    getBloodPressureSamples: <O extends StartAndEndDate & Partial<BucketOptions> & SampleRequestOptions>(
+      options: O
+    ) => Promise<SampleResults<O, BloodPressureResponse>>;
 
-    getBloodGlucoseSamples: (
-      options: StartAndEndDate & Partial<BucketOptions>
-    ) => Promise<BloodGlucoseResponse[]>;
+    getBloodGlucoseSamples: <O extends StartAndEndDate & Partial<BucketOptions> & PackedRequestOptions>(
+      options: O
+    ) => Promise<PackedResults<O, BloodGlucoseResponse>>;
 
-    getBodyTemperatureSamples: (
-      options: StartAndEndDate & Partial<BucketOptions>
-    ) => Promise<BodyTemperatureResponse[]>;
+    getBodyTemperatureSamples: <O extends StartAndEndDate & Partial<BucketOptions> & PackedRequestOptions>(
+      options: O
+    ) => Promise<PackedResults<O, BodyTemperatureResponse>>;
 
-    getOxygenSaturationSamples: (
-      options: StartAndEndDate & Partial<BucketOptions>
-    ) => Promise<OxygenSaturationResponse[]>;
+    getOxygenSaturationSamples: <O extends StartAndEndDate & Partial<BucketOptions> & PackedRequestOptions>(
+      options: O
+    ) => Promise<PackedResults<O, OxygenSaturationResponse>>;
 
     saveBloodGlucose: (
       options: { date: string, value: number },
@@ -133,12 +205,12 @@ declare module 'react-native-google-fit' {
 
     saveWeight: (
       options: WeightData,
-      callback: (isError: boolean, result: true) => void
+      callback: (isError: boolean, result: true, queued: boolean) => void
     ) => void
 
     saveHeight: (
       options: { date: string, value: number },
-      callback: (isError: boolean, result: true) => void
+      callback: (isError: boolean, result: true, queued: boolean) => void
     ) => void
 
     deleteWeight: (
@@ -151,13 +223,13 @@ declare module 'react-native-google-fit' {
       callback: (isError: boolean, result: true) => void
     ) => void
 
-    getHydrationSamples: (
-      options: StartAndEndDate
-    ) => Promise<HydrationResponse[]>
+    getHydrationSamples: <O extends StartAndEndDate & SampleRequestOptions>(
+      options: O
+    ) => Promise<SampleResults<O, HydrationResponse>>
 
     saveHydration: (
       hydrationArray: Hydration[],
-      callback: (isError: boolean, result: true) => void
+      callback: (isError: boolean, result: true, queued: boolean) => void
     ) => void
 
     deleteHydration: (
@@ -169,25 +241,25 @@ declare module 'react-native-google-fit' {
      * Get the sleep sessions over a specified date range.
      * @param {Object} options getSleepData accepts an options object containing required startDate: ISO8601Timestamp and endDate: ISO8601Timestamp.
      */
-    getSleepSamples: (
-      options: Partial<StartAndEndDate>
-    ) => Promise<SleepSampleResponse[]>
+    getSleepSamples: <O extends Partial<StartAndEndDate> & SessionRequestOptions>(
+      options: O
+    ) => Promise<SessionResults<O, SleepSampleResponse>>
 
     /**
      * TODO: Stayfitt code
      * Get the activity sessions over a specified date range.
      * @param {Object} options getActivitySessions accepts an options object containing required startDate: ISO8601Timestamp and endDate: ISO8601Timestamp.
      */
-    getActivitySessions: (
-      options: Partial<StartAndEndDate>
-    ) => Promise<ActivitySessionResponse[]>
+    getActivitySessions: <O extends Partial<StartAndEndDate> & SessionRequestOptions>(
+      options: O
+    ) => Promise<SessionResults<O, ActivitySessionResponse>>
 
     saveSleep: (
       options: SleepSample
     ) => Promise<Boolean | undefined>
 
     getWorkoutSession: (
-      options: StartAndEndDate & { readSessionFromAllApps?: boolean }
+      options: StartAndEndDate & { readSessionFromAllApps?: boolean } & RequestOptions
     ) => Promise<WorkoutSessionResponse[] | undefined>
 
     saveWorkout: (
@@ -214,6 +286,11 @@ declare module 'react-native-google-fit' {
       callback: (isError: boolean, result: any) => void
     ) => void
 
+    /**
+     * Called when a staleWhileRevalidate read finds newer data than it resolved with.
+     */
+    onDataUpdated: (callback: (update: DataUpdate) => void) => void
+
     unsubscribeListeners: () => void
 
   }
@@ -259,6 +336,179 @@ declare module 'react-native-google-fit' {
     scopes: Array<Scopes>
   };
 
+  export type ConfigureOptions = {
+    fetchConcurrency?: number,
+    backgroundFetchConcurrency?: number,
+    cacheSize?: number,
+    cacheTtl?: { [metric: string]: number },
+    settleHorizon?: number,
+    /**
+     * daily reads made natively in the background right after authorization, for today and the last days
+     */
+    prefetch?: { metrics: CachedMetric[], days?: number }
+  };
+
+  export type CachedMetric = 'steps' | 'distance' | 'calories' | 'moveMinutes';
+
+  export type CachedSample = {
+    startDate: number,
+    endDate: number,
+    value: number
+  };
+
+  export type CacheStats = {
+    hits: number,
+    misses: number,
+    evictions: number,
+    staleHits: number,
+    entries: number,
+    bytes: number,
+    maxBytes: number,
+    settledBuckets: number,
+    /**
+     * onTrimMemory calls so far, the level of the last one (-1 before any), and what they dropped
+     */
+    memoryTrims: number,
+    lastTrimLevel: number,
+    trimmedBytes: number,
+    trimmedBuckets: number
+  };
+
+  export type PendingWrites = {
+    journaled: number,
+    queued: number
+  };
+
+  export type StoredType = 'steps' | 'distance' | 'calories' | 'weight' | 'heartRate' | 'hydration';
+
+  export type SyncResult = {
+    type: StoredType,
+    samples?: number,
+    syncedUntil: string
+  };
+
+  export type StoredSample = {
+    startDate: string,
+    endDate: string,
+    value: number,
+    count: number
+  };
+
+  export type RequestOptions = {
+    requestId?: string,
+    /**
+     * 'interactive' (default) for data on screen, 'background' for sync or backfill reads
+     */
+    priority?: 'interactive' | 'background',
+    /**
+     * milliseconds before the read rejects with code E_TIMEOUT
+     */
+    timeout?: number,
+    /**
+     * resolve multi-part reads (step sources) with the parts that finished before the timeout
+     */
+    partial?: boolean,
+    /**
+     * resolve with the last cached result right away, even an expired one, and refresh it in the background,
+     * changed buckets are reported through onDataUpdated
+     */
+    staleWhileRevalidate?: boolean,
+    /**
+     * only return these fields of each item, e.g. ['startDate', 'value'], nested lists like the steps of a
+     * step source are kept and projected too, getDailyStepCountSamples then returns the native per-source items
+     */
+    fields?: string[]
+  };
+
+  export type SampleRequestOptions = RequestOptions & {
+    /**
+     * 'columnar' resolves with parallel arrays instead of one object per sample, see ColumnarResponse
+     */
+    format?: 'rows' | 'columnar'
+  };
+
+  export type ColumnarOptions = { format: 'columnar' };
+
+  export type SessionRequestOptions = RequestOptions & {
+    /**
+     * 'epoch' returns every session, segment and point date as milliseconds instead of an ISO 8601 string,
+     * which skips formatting and parsing them
+     */
+    timestamps?: 'iso' | 'epoch'
+  };
+
+  export type EpochDates<T> = Omit<T, 'startDate' | 'endDate'> & { startDate: number, endDate: number };
+
+  export type SessionResults<O, T> = O extends { timestamps: 'epoch' } ? Array<EpochDates<T>> : T[];
+
+  export type SampleResults<O, T> = O extends ColumnarOptions ? ColumnarResponse : T[];
+
+  /**
+   * The samples of a read as parallel arrays, one entry per sample. Each numeric field of the
+   * samples, e.g. startDate, endDate (milliseconds) and value, is an array holding null where a
+   * sample lacks it. The text fields, e.g. addedBy or dataSourceId, are in sources, each sample
+   * refers to its source by index. The day name is left out.
+   */
+  export type ColumnarResponse = {
+    count: number,
+    startDate?: Array<number | null>,
+    endDate?: Array<number | null>,
+    sourceIndex: number[],
+    sources: Array<{ [field: string]: string | boolean }>,
+    [field: string]: any
+  };
+
+  /**
+   * Raw single value reads (heart rate, blood glucose, body temperature, oxygen saturation) also accept
+   * format: 'packed', which reads the samples into one binary payload instead of one object each.
+   */
+  export type PackedRequestOptions = RequestOptions & {
+    format?: 'rows' | 'columnar' | 'packed',
+    /**
+     * 'base64' (default) resolves with decoded typed arrays, 'file' with the path of the payload
+     * in the cache directory, to read with decodePackedSamples and delete
+     */
+    packedOutput?: 'base64' | 'file'
+  };
+
+  export type PackedResults<O, T> = O extends { format: 'packed', packedOutput: 'file' }
+    ? PackedSamplesFile
+    : O extends { format: 'packed' } ? PackedSamplesResponse : SampleResults<O, T>;
+
+  export type PackedSamplesResponse = {
+    count: number,
+    startDate: Float64Array,
+    endDate: Float64Array,
+    value: Float32Array
+  };
+
+  export type PackedSamplesFile = {
+    format: 'packed',
+    count: number,
+    path: string
+  };
+
+  export type ColumnarStepsResponse = {
+    source: { [field: string]: string | null },
+    steps: ColumnarResponse,
+    status: 'ok' | 'error' | 'timeout',
+    error?: string
+  };
+
+  export type DataUpdate = {
+    metric: string,
+    key: string,
+    requestId?: string,
+    /**
+     * the buckets that changed, in the native format: dates as milliseconds, steps per source
+     */
+    changed: any[],
+    /**
+     * startDate of the buckets that are gone
+     */
+    removed: Array<string | number>
+  };
+
   export type Hydration = {
     date: number
     waterConsumed: number
@@ -290,7 +540,12 @@ declare module 'react-native-google-fit' {
   export type StepsResponse = {
     source: string,
     steps: Array<{date: string, value: number }>,
-    rawSteps: rawSteps
+    rawSteps: rawSteps,
+    /**
+     * 'error' and 'timeout' sources come with empty steps, the other sources are still returned
+     */
+    status: 'ok' | 'error' | 'timeout',
+    error?: string
   };
 
   export type CalorieResponse = {
@@ -390,8 +645,8 @@ declare module 'react-native-google-fit' {
       {
         "format"?: number
         "value"?: number
-        "endDate"?: string; // "2021-02-02T13:04:00.000+0300",
-        "startDate"?: string; // "2021-02-02T12:04:00.000+0300"
+        "endDate"?: string | number; // "2021-02-02T13:04:00.000+0300", milliseconds with timestamps: 'epoch'
+        "startDate"?: string | number; // "2021-02-02T12:04:00.000+0300"
       }[],
     "format"?: number
     "name"?: string
@@ -429,6 +684,13 @@ declare module 'react-native-google-fit' {
     duration: number,
   }
 
+  export type SummaryMetric = 'steps' | 'distance' | 'calories' | 'moveMinutes' | 'heartPoints';
+
+  export type DailySummaryResponse = {
+    startDate: string,
+    endDate: string,
+  } & Partial<Record<SummaryMetric, number>>;
+
   export type SleepSampleResponse = {
     addedBy: string,
     startDate: string,
@@ -714,6 +976,11 @@ declare module 'react-native-google-fit' {
     FITNESS_HEART_RATE_WRITE= 'https://www.googleapis.com/auth/fitness.heart_rate.write'
   }
 
+  /**
+   * Decodes a packed payload written with packedOutput: 'file', read as an ArrayBuffer or Uint8Array.
+   */
+  export function decodePackedSamples(payload: ArrayBuffer | Uint8Array): PackedSamplesResponse;
+
   const googleFit: GoogleFit;
   export default googleFit;
 }
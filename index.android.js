@@ -5,15 +5,22 @@ import moment from 'moment';
 import PossibleScopes from './src/scopes';
 import {
   buildDailySteps,
+  isColumnar,
   isNil,
+  isPacked,
   KgToLbs,
   lbsAndOzToK,
   prepareDailyResponse,
   prepareResponse,
   prepareHydrationResponse,
+  preparePackedResponse,
   prepareDeleteOptions,
   getWeekBoundary,
   prepareInput,
+  prepareRequestOptions,
+  prepareSampleRequestOptions,
+  prepareSessionRequestOptions,
+  decodePackedSamples,
 } from './src/utils';
 
 const googleFit = NativeModules.RNGoogleFit
@@ -71,6 +78,137 @@ class RNGoogleFit {
     this.eventListeners = []
   }
 
+  /**
+   * Tune the native side of the module.
+   * @param {Object} options configure accepts an options object containing optional
+   * fetchConcurrency: number - how many interactive history reads may run in parallel (default 4)
+   * backgroundFetchConcurrency: number - how many background history reads may run in parallel (default 2)
+   * cacheSize: number - memory budget of the read cache in bytes (default 2 MB)
+   * cacheTtl: Object - how long reads stay cached per metric in ms, e.g. { steps: 30000, heartRate: 10000 }, 0 disables caching of a metric
+   * settleHorizon: number - ms after which a past bucket of an aggregate read is considered final and kept (default 48 hours), 0 turns it off
+   */
+  configure = (options = {}) => {
+    googleFit.configure(options)
+  }
+
+  /**
+   * Cancel a pending read that was started with a requestId option.
+   * The cancelled read rejects with code E_CANCELLED.
+   * @param {string} requestId the id passed to the read
+   * @return {Promise<boolean>} false when no pending read matched
+   */
+  cancelRequest = (requestId) => {
+    return googleFit.cancelRequest(String(requestId))
+  }
+
+  /**
+   * Samples saved while Google Fit is not connected are kept on the device
+   * and written once it connects again.
+   * @return {Promise<Object>} journaled: samples waiting to be written, queued: writes being sent now
+   */
+  getPendingWrites = () => {
+    return googleFit.getPendingWrites()
+  }
+
+  /**
+   * Repeated reads of the same range are answered from memory for a short while.
+   * @return {Promise<Object>} hits, misses, evictions, entries, bytes and maxBytes of the read cache, and the number of settledBuckets kept
+   */
+  getCacheStats = () => {
+    return googleFit.getCacheStats()
+  }
+
+  /**
+   * Drop every cached read, the next reads go to Google Fit again.
+   */
+  clearCache = () => {
+    return googleFit.clearCache()
+  }
+
+  /**
+   * Synchronous total of today, for widgets rendering numbers already in memory.
+   * @param {string} metric 'steps', 'distance', 'calories' (with basal) or 'moveMinutes'
+   * @return {number|null} null when the daily read of today is not cached yet, it is then started in the background,
+   *                       fall back to the Promise reads until it lands. An expired read is still returned
+   *                       and refreshed in the background
+   */
+  getCachedTodayTotal = (metric) => {
+    return googleFit.getCachedTodayTotal(metric)
+  }
+
+  /**
+   * Synchronous daily buckets of the last days up to the end of today, oldest first.
+   * @param {string} metric 'steps', 'distance', 'calories' (with basal) or 'moveMinutes'
+   * @param {number} days how many days, today included, 7 by default
+   * @return {Array<Object>|null} { startDate, endDate, value } buckets with dates in milliseconds,
+   *                              null when that read is not cached yet, it is then started in the background.
+   *                              An expired read is still returned and refreshed in the background
+   */
+  getCachedDailySamples = (metric, days = 7) => {
+    return googleFit.getCachedDailySamples(metric, days)
+  }
+
+
+  /**
+   * Copy history into the on-device store, so history screens can load it from disk with getStoredSamples.
+   * Each type only reads what changed since its last sync.
+   * @param {Array<string>} types any of 'steps', 'distance', 'calories', 'weight', 'heartRate', 'hydration'
+   * @param {Object} options optional since: ISO8601Timestamp where the first sync of a type starts (default 30 days ago),
+   * and the usual requestId, priority (default 'background') and timeout
+   * @return {Promise<Array>} per type the number of samples written and syncedUntil
+   */
+  syncHistory = async (types, options = {}) => {
+    const nativeOptions = { priority: 'background', ...prepareRequestOptions(options) };
+    if (!isNil(options.since)) {
+      nativeOptions.since = Date.parse(options.since);
+    }
+    const result = await googleFit.syncHistory(types, nativeOptions);
+    return result.map(el => {
+      el.syncedUntil = moment(el.syncedUntil).toISOString()
+      return el
+    });
+  }
+
+  /**
+   * Read synced history from the on-device store without asking Google Fit.
+   * Steps, distance, calories and hydration are summed per bucket, weight and heart rate averaged.
+   * @param {Object} options required type, startDate: ISO8601Timestamp and endDate: ISO8601Timestamp,
+   * optional bucketInterval and bucketUnit (default 1 DAY), bucketInterval 0 returns the stored samples themselves
+   */
+  getStoredSamples = async (options) => {
+    const { startDate, endDate, bucketInterval, bucketUnit } = prepareInput(options);
+    const result = await googleFit.getStoredSamples(
+      options.type,
+      startDate,
+      endDate,
+      options.bucketInterval === 0 ? 0 : bucketInterval,
+      bucketUnit,
+      prepareRequestOptions(options),
+    );
+    return result.map(el => {
+      el.startDate = moment(el.startDate).toISOString()
+      el.endDate = moment(el.endDate).toISOString()
+      return el
+    });
+  }
+
+  /**
+   * @return {Promise<Array>} the types in the on-device store and until when each one is synced
+   */
+  getSyncState = async () => {
+    const result = await googleFit.getSyncState();
+    return result.map(el => {
+      el.syncedUntil = moment(el.syncedUntil).toISOString()
+      return el
+    });
+  }
+
+  /**
+   * Forget the on-device history of the given types, or of all of them, e.g. when the user signs out.
+   */
+  clearStoredHistory = (types) => {
+    return googleFit.clearStoredHistory(types || null)
+  }
 
   // recommend to refactor both permission to allow other permission options besides PERMISSONS.ACCESS_FINE_LOCATION
   // check permissions
@@ -177,7 +315,12 @@ class RNGoogleFit {
       endDate,
       bucketInterval,
       bucketUnit,
+      prepareSampleRequestOptions(options),
     );
+    // the per-day totals need fields a projection may leave out
+    if (isColumnar(options) || !isNil(options.fields)) {
+      return data;
+    }
 
     var result;
     if(data.length > 0) {
@@ -188,6 +331,10 @@ class RNGoogleFit {
           (dev.source.stream ? ':' + dev.source.stream : '')
         obj.steps = buildDailySteps(dev.steps)
         obj.rawSteps = dev.steps
+        obj.status = dev.status
+        if (dev.error) {
+          obj.error = dev.error
+        }
         return obj
       }, this);
     }else{
@@ -228,7 +375,11 @@ class RNGoogleFit {
       endDate,
       bucketInterval,
       bucketUnit,
+      prepareSampleRequestOptions(options),
     );
+    if (isColumnar(options)) {
+      return result;
+    }
 
     //construct dataset when callback is successful
     if (result.length > 0) {
@@ -245,7 +396,8 @@ class RNGoogleFit {
       startDate,
       endDate,
       bucketInterval,
-      bucketUnit
+      bucketUnit,
+      prepareRequestOptions(options),
     );
 
     return result;
@@ -258,12 +410,40 @@ class RNGoogleFit {
       startDate,
       endDate,
       bucketInterval,
-      bucketUnit
+      bucketUnit,
+      prepareSampleRequestOptions(options),
     );
 
     return result;
   }
 
+  /**
+   * Get several daily metrics with one request to Google Fit.
+   * @param {Object} options getDailySummary accepts an options object containing required startDate: ISO8601Timestamp and endDate: ISO8601Timestamp,
+   * optional metrics: array of 'steps', 'distance', 'calories', 'moveMinutes' and 'heartPoints', all of them by default.
+   * Resolves with one entry per bucket holding a value for each requested metric.
+   */
+
+  getDailySummary = async (options) => {
+    const { startDate, endDate, bucketInterval, bucketUnit } = prepareInput(options);
+    const metrics = options.metrics || ['steps', 'distance', 'calories', 'moveMinutes', 'heartPoints'];
+
+    const result = await googleFit.getDailySummary(
+      startDate,
+      endDate,
+      bucketInterval,
+      bucketUnit,
+      metrics,
+      prepareRequestOptions(options),
+    );
+
+    return result.map(el => {
+      el.startDate = moment(el.startDate).toISOString()
+      el.endDate = moment(el.endDate).toISOString()
+      return el
+    });
+  }
+
   /**
    * Get the total calories per day over a specified date range.
    * @param {Object} options getDailyCalorieSamples accepts an options object containing:
@@ -281,7 +461,11 @@ class RNGoogleFit {
       basalCalculation,
       bucketInterval,
       bucketUnit,
+      prepareSampleRequestOptions(options),
     );
+    if (isColumnar(options)) {
+      return result;
+    }
 
     //construct dataset when callback is successful
     if (result.length > 0) {
@@ -298,6 +482,7 @@ class RNGoogleFit {
       endDate,
       bucketInterval,
       bucketUnit,
+      prepareRequestOptions(options),
     );
     //construct dataset when callback is successful
     if (result.length > 0) {
@@ -356,8 +541,8 @@ class RNGoogleFit {
       msg => {
         callback(msg, false)
       },
-      res => {
-        callback(false, res)
+      (res, queued) => {
+        callback(false, res, queued)
       }
     )
   }
@@ -375,8 +560,15 @@ class RNGoogleFit {
       startDate,
       endDate,
       bucketInterval,
-      bucketUnit
+      bucketUnit,
+      prepareSampleRequestOptions(options),
     );
+    if (isColumnar(options)) {
+      if (options.unit === 'pound') {
+        raw_result.value = raw_result.value.map(value => isNil(value) ? value : KgToLbs(value))
+      }
+      return raw_result;
+    }
 
     if (raw_result.length > 0) {
       //remove empty object first and then parse fitness data
@@ -412,8 +604,12 @@ class RNGoogleFit {
       startDate,
       endDate,
       bucketInterval,
-      bucketUnit
+      bucketUnit,
+      prepareSampleRequestOptions(options),
     );
+    if (isColumnar(options)) {
+      return result;
+    }
     if (result.length > 0) {
       return prepareResponse(result, 'value');
     }
@@ -428,8 +624,8 @@ class RNGoogleFit {
       msg => {
         callback(msg, false)
       },
-      res => {
-        callback(false, res)
+      (res, queued) => {
+        callback(false, res, queued)
       }
     )
   }
@@ -444,8 +640,8 @@ class RNGoogleFit {
       msg => {
         callback(msg, false)
       },
-      res => {
-        callback(false, res)
+      (res, queued) => {
+        callback(false, res, queued)
       }
     )
   }
@@ -535,6 +731,19 @@ class RNGoogleFit {
     this.eventListeners.push(authFailedObserver)
   }
 
+  /**
+   * Called with { metric, key, requestId, changed, removed } when a read made with
+   * { staleWhileRevalidate: true } finds newer data than it resolved with.
+   * changed holds the buckets that differ, in the native format.
+   */
+  onDataUpdated = callback => {
+    const dataUpdatedObserver = DeviceEventEmitter.addListener(
+      'GoogleFitDataUpdated',
+      update => callback(update)
+    )
+    this.eventListeners.push(dataUpdatedObserver)
+  }
+
   unsubscribeListeners = () => {
     this.removeListeners()
   }
@@ -545,8 +754,15 @@ class RNGoogleFit {
       startDate,
       endDate,
       bucketInterval,
-      bucketUnit
+      bucketUnit,
+      prepareSampleRequestOptions(options),
     );
+    if (isPacked(options)) {
+      return preparePackedResponse(result);
+    }
+    if (isColumnar(options)) {
+      return result;
+    }
     if (result.length > 0) {
       return prepareResponse(result, 'value');
     }
@@ -560,7 +776,11 @@ class RNGoogleFit {
       endDate,
       bucketInterval,
       bucketUnit,
+      prepareSampleRequestOptions(options),
     );
+    if (isColumnar(options)) {
+      return result;
+    }
     if (result.length > 0) {
       return prepareResponse(result, 'systolic');
     }
@@ -574,7 +794,14 @@ class RNGoogleFit {
       endDate,
       bucketInterval,
       bucketUnit,
+      prepareSampleRequestOptions(options),
     );
+    if (isPacked(options)) {
+      return preparePackedResponse(result);
+    }
+    if (isColumnar(options)) {
+      return result;
+    }
     if (result.length > 0) {
       return prepareResponse(result);
     }
@@ -588,7 +815,14 @@ class RNGoogleFit {
       endDate,
       bucketInterval,
       bucketUnit,
+      prepareSampleRequestOptions(options),
     );
+    if (isPacked(options)) {
+      return preparePackedResponse(result);
+    }
+    if (isColumnar(options)) {
+      return result;
+    }
     if (result.length > 0) {
       return prepareResponse(result);
     }
@@ -602,7 +836,14 @@ class RNGoogleFit {
       endDate,
       bucketInterval,
       bucketUnit,
+      prepareSampleRequestOptions(options),
     );
+    if (isPacked(options)) {
+      return preparePackedResponse(result);
+    }
+    if (isColumnar(options)) {
+      return result;
+    }
     if (result.length > 0) {
       return prepareResponse(result);
     }
@@ -619,8 +860,12 @@ class RNGoogleFit {
     const { startDate, endDate } = prepareInput(options);
     const result = await googleFit.getHydrationSamples(
       startDate,
-      endDate
+      endDate,
+      prepareSampleRequestOptions(options),
     );
+    if (isColumnar(options)) {
+      return result;
+    }
 
     if (result.length > 0) {
       return prepareHydrationResponse(result);
@@ -634,8 +879,8 @@ class RNGoogleFit {
       msg => {
         callback(true, msg)
       },
-      res => {
-        callback(false, res)
+      (res, queued) => {
+        callback(false, res, queued)
       }
     )
   }
@@ -662,8 +907,12 @@ class RNGoogleFit {
 
     const result = await googleFit.getSleepSamples(
       startDate,
-      endDate
+      endDate,
+      prepareSessionRequestOptions(options),
     );
+    if (options.timestamps === 'epoch') {
+      return result;
+    }
 
     return prepareResponse(result, "addedBy");
   }
@@ -674,8 +923,12 @@ class RNGoogleFit {
 
     const result = await googleFit.getActivitySessions(
       startDate,
-      endDate
+      endDate,
+      prepareSessionRequestOptions(options),
     );
+    if (options.timestamps === 'epoch') {
+      return result;
+    }
 
     return prepareResponse(result, "appPackageName");
   }
@@ -688,6 +941,9 @@ class RNGoogleFit {
 
 export default new RNGoogleFit()
 
+// for packed reads written to a file: decodes the file contents, as an ArrayBuffer or Uint8Array, into typed arrays
+export { decodePackedSamples }
+
 // Possible Scopes
 export const Scopes = Object.freeze(PossibleScopes)
 
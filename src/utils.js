@@ -48,17 +48,135 @@ export function prepareInput(options) {
   return { startDate, endDate, bucketInterval, bucketUnit };
 }
 
+// per-call options understood by the native read methods
+export function prepareRequestOptions(options = {}) {
+  const requestOptions = {};
+  if (!isNil(options.requestId)) {
+    requestOptions.requestId = String(options.requestId);
+  }
+  if (!isNil(options.priority)) {
+    requestOptions.priority = options.priority;
+  }
+  if (!isNil(options.timeout)) {
+    requestOptions.timeout = Number(options.timeout);
+  }
+  if (!isNil(options.partial)) {
+    requestOptions.partial = Boolean(options.partial);
+  }
+  if (!isNil(options.staleWhileRevalidate)) {
+    requestOptions.staleWhileRevalidate = Boolean(options.staleWhileRevalidate);
+  }
+  if (Array.isArray(options.fields)) {
+    requestOptions.fields = options.fields.map(String);
+  }
+  return requestOptions;
+}
+
+// request options of the sample reads that can resolve with parallel arrays instead of one object per sample
+export function prepareSampleRequestOptions(options = {}) {
+  const requestOptions = prepareRequestOptions(options);
+  if (!isNil(options.format)) {
+    requestOptions.format = options.format;
+  }
+  if (!isNil(options.packedOutput)) {
+    requestOptions.packedOutput = options.packedOutput;
+  }
+  return requestOptions;
+}
+
+// request options of the session reads, timestamps: 'epoch' returns dates as milliseconds instead of strings
+export function prepareSessionRequestOptions(options = {}) {
+  const requestOptions = prepareRequestOptions(options);
+  if (!isNil(options.timestamps)) {
+    requestOptions.timestamps = options.timestamps;
+  }
+  return requestOptions;
+}
+
+// columnar results skip the per-sample post-processing
+export const isColumnar = (options = {}) => options.format === 'columnar'
+
+export const isPacked = (options = {}) => options.format === 'packed'
+
+const BASE64_ALPHABET = 'ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/'
+const BASE64_LOOKUP = new Uint8Array(128)
+for (let i = 0; i < BASE64_ALPHABET.length; i++) {
+  BASE64_LOOKUP[BASE64_ALPHABET.charCodeAt(i)] = i
+}
+
+export function base64ToBytes(data) {
+  const padding = data.endsWith('==') ? 2 : data.endsWith('=') ? 1 : 0
+  const bytes = new Uint8Array((data.length / 4) * 3 - padding)
+  let j = 0
+  for (let i = 0; i < data.length; i += 4) {
+    const chunk = (BASE64_LOOKUP[data.charCodeAt(i)] << 18)
+      | (BASE64_LOOKUP[data.charCodeAt(i + 1)] << 12)
+      | (BASE64_LOOKUP[data.charCodeAt(i + 2)] << 6)
+      | BASE64_LOOKUP[data.charCodeAt(i + 3)]
+    bytes[j++] = chunk >> 16
+    if (j < bytes.length) bytes[j++] = (chunk >> 8) & 0xff
+    if (j < bytes.length) bytes[j++] = chunk & 0xff
+  }
+  return bytes
+}
+
+// decodes a packed payload (see PackedSamples.java) into typed arrays, dates in milliseconds
+export function decodePackedSamples(payload) {
+  const buffer = payload instanceof ArrayBuffer
+    ? payload
+    : payload.buffer.slice(payload.byteOffset, payload.byteOffset + payload.byteLength)
+  const [version, flags, count] = new Int32Array(buffer, 0, 3)
+  if (version !== 1) {
+    throw new Error('Unsupported packed samples version ' + version)
+  }
+  const startDate = new Float64Array(count)
+  const endDate = new Float64Array(count)
+  let offset = 24
+  if (flags & 1) {
+    startDate.set(new Float64Array(buffer, offset, count))
+    offset += count * 8
+    endDate.set(new Float64Array(buffer, offset, count))
+    offset += count * 8
+  } else {
+    const deltas = new Int32Array(buffer, offset, count)
+    offset += count * 4
+    const durations = new Int32Array(buffer, offset, count)
+    offset += count * 4
+    let time = new Float64Array(buffer, 16, 1)[0]
+    for (let i = 0; i < count; i++) {
+      time += deltas[i]
+      startDate[i] = time
+      endDate[i] = time + durations[i]
+    }
+  }
+  const value = new Float32Array(buffer, offset, count)
+  return { count, startDate, endDate, value }
+}
+
+// a base64 payload is decoded right away, a file payload is left for the app to read
+export function preparePackedResponse(result) {
+  if (isNil(result.data)) {
+    return result
+  }
+  return decodePackedSamples(base64ToBytes(result.data))
+}
+
 export function prepareResponse(response, byKey = 'value') {
   return response
     .map(el => {
-      if (!isNil(el[byKey])) {
+      // a read with a fields option may have left byKey out, its items are kept unless empty
+      if (!isNil(el[byKey]) || (!(byKey in el) && Object.keys(el).length > 0)) {
         // Android is returning a date format from Fit that new Date() can't parse, e.g.: 2020-05-21T06:06:05.871-0400
         // Note the time offset at the end rather is non-standard compared to ISO which new Date expects. This works in
         // the Chrome V8 debugger, but not on device. Using momentJS here to get around this issue.
         // el.startDate = new Date(el.startDate).toISOString()
         // el.endDate = new Date(el.endDate).toISOString()
-        el.startDate = moment(el.startDate).toISOString()
-        el.endDate = moment(el.endDate).toISOString()
+        if (!isNil(el.startDate)) {
+          el.startDate = moment(el.startDate).toISOString()
+        }
+        if (!isNil(el.endDate)) {
+          el.endDate = moment(el.endDate).toISOString()
+        }
         return el
       }
     })